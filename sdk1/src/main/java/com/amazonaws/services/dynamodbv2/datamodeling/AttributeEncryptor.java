@@ -29,6 +29,7 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DoNotTouch;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionFlags;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionPlan;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.HandleUnknownAttributes;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.TableAadOverride;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
@@ -85,7 +86,7 @@ public class AttributeEncryptor implements AttributeTransformer {
         try {
             return encryptor.encryptRecord(
                     attributeValues,
-                    metadata.getEncryptionFlags(),
+                    metadata.getEncryptionPlan(),
                     paramsToContext(parameters));
         } catch (Exception ex) {
             throw new DynamoDBMappingException(ex);
@@ -94,18 +95,45 @@ public class AttributeEncryptor implements AttributeTransformer {
 
     @Override
     public Map<String, AttributeValue> untransform(final Parameters<?> parameters) {
-        final Map<String, Set<EncryptionFlags>> attributeFlags = getEncryptionFlags(parameters);
+        final EncryptionPlan plan = getEncryptionPlan(parameters);
 
         try {
             return encryptor.decryptRecord(
                     parameters.getAttributeValues(),
-                    attributeFlags,
+                    plan,
                     paramsToContext(parameters));
         } catch (Exception ex) {
             throw new DynamoDBMappingException(ex);
         }
     }
 
+    /*
+     * The plan compiled for the model class can be used as is unless the item carries unknown
+     * attributes which have to be signed (see getEncryptionFlags below). Unknown attributes without
+     * flags are ignored by the encryptor anyway, except when the model has no attributes at all.
+     */
+    private EncryptionPlan getEncryptionPlan(final Parameters<?> parameters) {
+        final ModelClassMetadata metadata = getModelClassMetadata(parameters);
+        if (metadata.getDoNotTouch()
+                || (metadata.getUnknownAttributeBehavior().isEmpty() && !metadata.getEncryptionFlags().isEmpty())
+                || !hasUnknownAttributes(metadata, parameters)) {
+            return metadata.getEncryptionPlan();
+        }
+        return EncryptionPlan.compile(getEncryptionFlags(parameters));
+    }
+
+    private boolean hasUnknownAttributes(final ModelClassMetadata metadata, final Parameters<?> parameters) {
+        for (final String attributeName : parameters.getAttributeValues().keySet()) {
+            if (!metadata.getEncryptionFlags().containsKey(attributeName) &&
+                    !encryptor.getSignatureFieldName().equals(attributeName) &&
+                    !encryptor.getMaterialDescriptionFieldName().equals(attributeName) &&
+                    !encryptor.getPackedAttributesFieldName().equals(attributeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /*
      * For any attributes we see from DynamoDB that aren't modeled in the mapper class,
      * we either ignore them (the default behavior), or include them for encryption/signing
@@ -128,7 +156,8 @@ public class AttributeEncryptor implements AttributeTransformer {
         for (final String attributeName : parameters.getAttributeValues().keySet()) {
             if (!attributeFlags.containsKey(attributeName) && 
                     !encryptor.getSignatureFieldName().equals(attributeName) &&
-                    !encryptor.getMaterialDescriptionFieldName().equals(attributeName)) {
+                    !encryptor.getMaterialDescriptionFieldName().equals(attributeName) &&
+                    !encryptor.getPackedAttributesFieldName().equals(attributeName)) {
 
                 attributeFlags.put(attributeName, unknownAttributeBehavior);
             }
@@ -257,12 +286,14 @@ public class AttributeEncryptor implements AttributeTransformer {
 
     private static class ModelClassMetadata {
         private final Map<String, Set<EncryptionFlags>> encryptionFlags;
+        private final EncryptionPlan encryptionPlan;
         private final boolean doNotTouch;
         private final Set<EncryptionFlags> unknownAttributeBehavior;
 
         public ModelClassMetadata(Map<String, Set<EncryptionFlags>> encryptionFlags, 
                 boolean doNotTouch, Set<EncryptionFlags> unknownAttributeBehavior) {
             this.encryptionFlags = encryptionFlags;
+            this.encryptionPlan = EncryptionPlan.compile(encryptionFlags);
             this.doNotTouch = doNotTouch;
             this.unknownAttributeBehavior = unknownAttributeBehavior;
         }
@@ -271,6 +302,10 @@ public class AttributeEncryptor implements AttributeTransformer {
             return encryptionFlags;
         }
 
+        public EncryptionPlan getEncryptionPlan() {
+            return encryptionPlan;
+        }
+
         public boolean getDoNotTouch() {
             return doNotTouch;
         }
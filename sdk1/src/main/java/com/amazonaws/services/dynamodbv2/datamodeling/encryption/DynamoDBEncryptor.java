@@ -24,11 +24,13 @@ import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -36,14 +38,20 @@ import java.util.function.Function;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodbv2.datamodeling.AttributeEncryptor;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Base64;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.ByteBufferInputStream;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CryptoPrimitiveCache;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Hkdf;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
@@ -57,9 +65,13 @@ public class DynamoDBEncryptor {
     private static final String DEFAULT_SIGNATURE_ALGORITHM = "SHA256withRSA";
     private static final String DEFAULT_METADATA_FIELD = "*amzn-ddb-map-desc*";
     private static final String DEFAULT_SIGNATURE_FIELD = "*amzn-ddb-map-sig*";
+    private static final String DEFAULT_PACKED_FIELD = "*amzn-ddb-map-packed*";
     private static final String DEFAULT_DESCRIPTION_BASE = "amzn-ddb-map-"; // Same as the Mapper
     private static final Charset UTF8 = Charset.forName("UTF-8");
-    private static final String SYMMETRIC_ENCRYPTION_MODE = "/CBC/PKCS5Padding";
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final int GCM_SALT_LENGTH = 32;
+    private static final String GCM_RECORD_KEY_INFO = "DynamoDBEncryptor GCM record key";
     private static final ConcurrentHashMap<String, Integer> BLOCK_SIZE_CACHE = new ConcurrentHashMap<>();
     private static final Function<String, Integer> BLOCK_SIZE_CALCULATOR = (transformation) -> {
         try {
@@ -74,20 +86,51 @@ public class DynamoDBEncryptor {
 
     private String signatureFieldName = DEFAULT_SIGNATURE_FIELD;
     private String materialDescriptionFieldName = DEFAULT_METADATA_FIELD;
+    private String packedAttributesFieldName = DEFAULT_PACKED_FIELD;
+    private boolean packEncryptedAttributes = false;
     
     private EncryptionMaterialsProvider encryptionMaterialsProvider;
     private final String descriptionBase;
     private final String symmetricEncryptionModeHeader;
+    private final String gcmSaltHeader;
     private final String signingAlgorithmHeader;
+    private final String packedAttributesHeader;
     
     public static final String DEFAULT_SIGNING_ALGORITHM_HEADER = DEFAULT_DESCRIPTION_BASE + "signingAlg";
+    /**
+     * The symmetric encryption mode used by default: CBC with PKCS5 padding and a random IV for
+     * each attribute.
+     */
+    public static final String CBC_ENCRYPTION_MODE = "/CBC/PKCS5Padding";
+    /**
+     * GCM with a random 96-bit IV and a 128-bit tag for each attribute. Attributes encrypted in
+     * this mode can only be decrypted by versions of this library which support it.
+     *
+     * With random IVs, a single GCM key must not be used for more than 2<sup>32</sup>
+     * encryptions, since a repeated IV breaks both the confidentiality and the integrity of
+     * everything encrypted under that key. Materials from providers such as
+     * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.MostRecentProvider}
+     * share one key across every attribute of every record for as long as a version is current,
+     * which can reach that limit within days. So each record is instead encrypted under its own
+     * key, derived with HKDF-SHA256 from the key in the materials and a random 256-bit salt which
+     * is stored in the material description. The limit then applies to the attributes of a single
+     * record. {@link DelegatedKey}s are used as they are and are responsible for their own IVs.
+     *
+     * Records are still signed as in CBC mode. The per-record key derivation and salt make small
+     * records slower and slightly larger than with CBC; only records with large attributes are
+     * encrypted faster.
+     */
+    public static final String GCM_ENCRYPTION_MODE = "/GCM/NoPadding";
+    private String symmetricEncryptionMode = CBC_ENCRYPTION_MODE;
     private Function<EncryptionContext, EncryptionContext> encryptionContextOverrideOperator;
 
     protected DynamoDBEncryptor(EncryptionMaterialsProvider provider, String descriptionBase) {
         this.encryptionMaterialsProvider = provider;
         this.descriptionBase = descriptionBase;
         symmetricEncryptionModeHeader = this.descriptionBase + "sym-mode";
+        gcmSaltHeader = this.descriptionBase + "gcm-salt";
         signingAlgorithmHeader = this.descriptionBase + "signingAlg";
+        packedAttributesHeader = this.descriptionBase + "packed";
     }
     
     public static DynamoDBEncryptor getInstance(EncryptionMaterialsProvider provider, String descriptionbase) {
@@ -161,7 +204,8 @@ public class DynamoDBEncryptor {
         for (String fieldName : itemAttributes.keySet()) {
             if (!attributeFlags.containsKey(fieldName) && 
                     !fieldName.equals(getMaterialDescriptionFieldName()) && 
-                    !fieldName.equals(getSignatureFieldName())) {
+                    !fieldName.equals(getSignatureFieldName()) &&
+                    !fieldName.equals(getPackedAttributesFieldName())) {
                 attributeFlags.put(fieldName,
                         EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN));
             }
@@ -234,9 +278,201 @@ public class DynamoDBEncryptor {
             Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags,
             EncryptionContext context) throws GeneralSecurityException {
-        if (attributeFlags.isEmpty()) {
+        return decryptRecord(itemAttributes, EncryptionPlan.compile(attributeFlags), context,
+                CryptoPrimitiveCache.get(), null);
+    }
+
+    /**
+     * As {@link #decryptRecord(Map, Map, EncryptionContext)}, but driven by a precompiled
+     * <code>plan</code> which may be shared by all records of the same table or model class.
+     */
+    public Map<String, AttributeValue> decryptRecord(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context) throws GeneralSecurityException {
+        return decryptRecord(itemAttributes, plan, context, CryptoPrimitiveCache.get(), null);
+    }
+
+    /**
+     * Decrypts (and verifies) a batch of records which all share the same
+     * <code>attributeFlags</code>, such as a page of query results. JCA primitives are reused
+     * across the whole batch and, when records resolve to the same keys, so is their
+     * initialization. Records are grouped by table name and material description, and the
+     * decryption materials are requested once for each group; every record's signature is still
+     * verified on its own.
+     *
+     * A failure to decrypt one record does not prevent the others from being processed.
+     *
+     * @param items
+     *            the records to decrypt
+     * @param attributeFlags
+     *            the flags to apply to every record. Flags for attributes which are not present in
+     *            a given record are ignored.
+     * @param context
+     *            the context shared by all records. The attribute values and material description
+     *            are filled in separately for each record.
+     * @return one {@link RecordResult} for each record, in the same order as <code>items</code>
+     */
+    public List<RecordResult> decryptRecords(
+            List<Map<String, AttributeValue>> items,
+            Map<String, Set<EncryptionFlags>> attributeFlags,
+            EncryptionContext context) {
+        return decryptRecords(items, EncryptionPlan.compile(attributeFlags), context);
+    }
+
+    /**
+     * As {@link #decryptRecords(List, Map, EncryptionContext)}, but driven by a precompiled
+     * <code>plan</code>.
+     */
+    public List<RecordResult> decryptRecords(
+            List<Map<String, AttributeValue>> items,
+            EncryptionPlan plan,
+            EncryptionContext context) {
+        final CryptoPrimitiveCache primitives = CryptoPrimitiveCache.get();
+        final List<RecordResult> results = new ArrayList<RecordResult>(items.size());
+        // Records written under the same materials share their material description, so the
+        // materials are only requested once for each table and description in the batch
+        final Map<List<Object>, DecryptionMaterials> resolved = new HashMap<>();
+        // Keep the initialized HMACs for the whole batch so they are only re-keyed when a
+        // record's signing key differs from those already seen.
+        primitives.beginBatch();
+        try {
+            for (Map<String, AttributeValue> item : items) {
+                try {
+                    results.add(RecordResult.success(decryptRecord(item, plan, context, primitives, resolved)));
+                } catch (GeneralSecurityException | RuntimeException ex) {
+                    results.add(RecordResult.failure(ex));
+                }
+            }
+        } finally {
+            primitives.endBatch();
+        }
+        return results;
+    }
+
+    private Map<String, AttributeValue> decryptRecord(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context,
+            CryptoPrimitiveCache primitives,
+            Map<List<Object>, DecryptionMaterials> resolved) throws GeneralSecurityException {
+        if (plan.isEmpty()) {
             return itemAttributes;
         }
+        final VerifiedRecord record = verifyRecord(itemAttributes, plan, context, primitives, resolved);
+        actualDecryption(record, plan, null, primitives);
+        return record.itemAttributes;
+    }
+
+    /**
+     * Verifies the signature across all provided fields, exactly as
+     * {@link #decryptRecord(Map, Map, EncryptionContext)} does, but only decrypts the encrypted
+     * attributes named in <code>attributesToDecrypt</code>. Encrypted attributes which are not
+     * named are left out of the result, while attributes which were never encrypted are always
+     * returned. This is useful when only a few attributes of each item are needed, such as in
+     * scans.
+     *
+     * @param attributesToDecrypt
+     *            the encrypted attributes to decrypt and return, or <code>null</code> to decrypt
+     *            all of them
+     * @return a plaintext version of the requested parts of the DynamoDb record
+     * @throws SignatureException
+     *             if the signature is invalid or cannot be verified
+     */
+    public Map<String, AttributeValue> decryptRecord(
+            Map<String, AttributeValue> itemAttributes,
+            Map<String, Set<EncryptionFlags>> attributeFlags,
+            EncryptionContext context,
+            Set<String> attributesToDecrypt) throws GeneralSecurityException {
+        return decryptRecord(itemAttributes, EncryptionPlan.compile(attributeFlags), context, attributesToDecrypt);
+    }
+
+    /**
+     * As {@link #decryptRecord(Map, Map, EncryptionContext, Set)}, but driven by a precompiled
+     * <code>plan</code>.
+     */
+    public Map<String, AttributeValue> decryptRecord(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context,
+            Set<String> attributesToDecrypt) throws GeneralSecurityException {
+        if (plan.isEmpty()) {
+            return itemAttributes;
+        }
+        final CryptoPrimitiveCache primitives = CryptoPrimitiveCache.get();
+        final VerifiedRecord record = verifyRecord(itemAttributes, plan, context, primitives, null);
+        actualDecryption(record, plan, attributesToDecrypt, primitives);
+        return record.itemAttributes;
+    }
+
+    /**
+     * Returns a read-only view of the decrypted record in which the signature has already been
+     * verified (exactly as by {@link #decryptRecord(Map, Map, EncryptionContext)}) but each
+     * encrypted attribute is only decrypted the first time it is read. Decrypted values are
+     * remembered, so every attribute is decrypted at most once. This is much cheaper for callers
+     * which only read a few attributes of wide items.
+     *
+     * The view is thread-safe. Any operation which needs the values of all attributes (such as
+     * copying the view into another map) decrypts all of them. Should decryption of an attribute
+     * fail, reading it throws an {@link AmazonClientException} wrapping the cause.
+     *
+     * @return a read-only view of the plaintext version of the DynamoDb record
+     * @throws SignatureException
+     *             if the signature is invalid or cannot be verified
+     */
+    public Map<String, AttributeValue> decryptRecordLazily(
+            Map<String, AttributeValue> itemAttributes,
+            Map<String, Set<EncryptionFlags>> attributeFlags,
+            EncryptionContext context) throws GeneralSecurityException {
+        return decryptRecordLazily(itemAttributes, EncryptionPlan.compile(attributeFlags), context);
+    }
+
+    /**
+     * As {@link #decryptRecordLazily(Map, Map, EncryptionContext)}, but driven by a precompiled
+     * <code>plan</code>.
+     */
+    public Map<String, AttributeValue> decryptRecordLazily(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context) throws GeneralSecurityException {
+        if (plan.isEmpty()) {
+            return Collections.unmodifiableMap(itemAttributes);
+        }
+        final CryptoPrimitiveCache primitives = CryptoPrimitiveCache.get();
+        final VerifiedRecord record = verifyRecord(itemAttributes, plan, context, primitives, null);
+        // Packed attributes share a single ciphertext, so there is nothing to gain by deferring it
+        final Map<String, AttributeValue> unpacked = record.unpack(plan, primitives);
+        final Map<String, ByteBuffer> cipherTexts = new HashMap<String, ByteBuffer>();
+        for (int idx = 0; idx < plan.size(); idx++) {
+            final String name = plan.getName(idx);
+            final AttributeValue value = record.itemAttributes.get(name);
+            if (value != null && plan.isEncrypted(idx)) {
+                if (!plan.isSigned(idx)) {
+                    throw new IllegalArgumentException("All encrypted fields must be signed. Bad field: " + name);
+                }
+                // Snapshot the verified ciphertext so later changes to the caller's buffers
+                // cannot slip unverified data into the decryption.
+                final ByteBuffer cipherText = value.getB().duplicate();
+                cipherText.rewind();
+                final byte[] copy = new byte[cipherText.remaining()];
+                cipherText.get(copy);
+                cipherTexts.put(name, ByteBuffer.wrap(copy).asReadOnlyBuffer());
+            }
+        }
+        record.itemAttributes.putAll(unpacked);
+        return new LazilyDecryptedItem(record.itemAttributes, cipherTexts, record);
+    }
+
+    /**
+     * Copies <code>itemAttributes</code>, obtains the decryption materials and verifies the
+     * signature, leaving the encrypted attributes untouched.
+     */
+    private VerifiedRecord verifyRecord(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context,
+            CryptoPrimitiveCache primitives,
+            Map<List<Object>, DecryptionMaterials> resolved) throws GeneralSecurityException {
         // Copy to avoid changing anyone elses objects
         itemAttributes = new HashMap<String, AttributeValue>(itemAttributes);
         
@@ -260,7 +496,15 @@ public class DynamoDBEncryptor {
             context = encryptionContextOverrideOperator.apply(context);
         }
 
-        materials = encryptionMaterialsProvider.getDecryptionMaterials(context);
+        final List<Object> resolvedKey = resolved != null
+                ? Arrays.<Object>asList(context.getTableName(), materialDescription) : null;
+        materials = resolved != null ? resolved.get(resolvedKey) : null;
+        if (materials == null) {
+            materials = encryptionMaterialsProvider.getDecryptionMaterials(context);
+            if (resolved != null) {
+                resolved.put(resolvedKey, materials);
+            }
+        }
         decryptionKey = materials.getDecryptionKey();
         if (materialDescription.containsKey(signingAlgorithmHeader)) {
             String signingAlg = materialDescription.get(signingAlgorithmHeader);
@@ -275,13 +519,33 @@ public class DynamoDBEncryptor {
         }
         itemAttributes.remove(signatureFieldName);
 
-        String associatedData = "TABLE>" + context.getTableName() + "<TABLE";
-        signer.verifySignature(itemAttributes, attributeFlags, associatedData.getBytes(UTF8),
-                materials.getVerificationKey(), signature);
+        // Packed attributes are only signed, not (individually) encrypted
+        final String packedField = materialDescription.get(packedAttributesHeader);
+        signer.verifySignature(itemAttributes,
+                packedField != null ? plan.withSignedAttribute(packedField) : plan,
+                getAssociatedData(context.getTableName()),
+                materials.getVerificationKey(), signature, primitives);
         itemAttributes.remove(materialDescriptionFieldName);
 
-        actualDecryption(itemAttributes, attributeFlags, decryptionKey, materialDescription);
-        return itemAttributes;
+        ByteBuffer packed = null;
+        if (packedField != null && itemAttributes.containsKey(packedField)) {
+            packed = itemAttributes.remove(packedField).getB();
+            if (packed == null) {
+                throw new IllegalArgumentException("Malformed packed attributes field: " + packedField);
+            }
+        }
+
+        final String encryptionMode = decryptionKey != null ?  decryptionKey.getAlgorithm() +
+                    materialDescription.get(symmetricEncryptionModeHeader) : null;
+        if (encryptionMode != null && encryptionMode.endsWith(GCM_ENCRYPTION_MODE)
+                && !(decryptionKey instanceof DelegatedKey)) {
+            final String salt = materialDescription.get(gcmSaltHeader);
+            if (salt == null) {
+                throw new IllegalArgumentException("Missing GCM record key salt: " + gcmSaltHeader);
+            }
+            decryptionKey = deriveRecordKey(decryptionKey, Base64.decode(salt));
+        }
+        return new VerifiedRecord(itemAttributes, decryptionKey, encryptionMode, packed);
     }
 
     /**
@@ -303,7 +567,82 @@ public class DynamoDBEncryptor {
             Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags,
             EncryptionContext context) throws GeneralSecurityException {
-        if (attributeFlags.isEmpty()) {
+        return encryptRecord(itemAttributes, EncryptionPlan.compile(attributeFlags), context,
+                CryptoPrimitiveCache.get());
+    }
+
+    /**
+     * As {@link #encryptRecord(Map, Map, EncryptionContext)}, but driven by a precompiled
+     * <code>plan</code> which may be shared by all records of the same table or model class.
+     */
+    public Map<String, AttributeValue> encryptRecord(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context) throws GeneralSecurityException {
+        return encryptRecord(itemAttributes, plan, context, CryptoPrimitiveCache.get());
+    }
+
+    /**
+     * Encrypts (and signs) a batch of records which all share the same
+     * <code>attributeFlags</code>, such as the items of a single <code>BatchWriteItem</code>
+     * request. JCA primitives are reused across the whole batch and, when consecutive records
+     * resolve to the same keys, so is their initialization. The encryption materials are still
+     * requested once per record as providers are free to select them based on the contents of
+     * each record.
+     *
+     * A failure to encrypt one record does not prevent the others from being processed. There is
+     * no side effect on the input parameters upon calling this method.
+     *
+     * @param items
+     *            the records to encrypt
+     * @param attributeFlags
+     *            the flags to apply to every record. Flags for attributes which are not present in
+     *            a given record are ignored.
+     * @param context
+     *            the context shared by all records. The attribute values are filled in separately
+     *            for each record.
+     * @return one {@link RecordResult} for each record, in the same order as <code>items</code>
+     */
+    public List<RecordResult> encryptRecords(
+            List<Map<String, AttributeValue>> items,
+            Map<String, Set<EncryptionFlags>> attributeFlags,
+            EncryptionContext context) {
+        return encryptRecords(items, EncryptionPlan.compile(attributeFlags), context);
+    }
+
+    /**
+     * As {@link #encryptRecords(List, Map, EncryptionContext)}, but driven by a precompiled
+     * <code>plan</code>.
+     */
+    public List<RecordResult> encryptRecords(
+            List<Map<String, AttributeValue>> items,
+            EncryptionPlan plan,
+            EncryptionContext context) {
+        final CryptoPrimitiveCache primitives = CryptoPrimitiveCache.get();
+        final List<RecordResult> results = new ArrayList<RecordResult>(items.size());
+        // Keep the initialized HMACs for the whole batch so they are only re-keyed when a
+        // record's signing key differs from those already seen.
+        primitives.beginBatch();
+        try {
+            for (Map<String, AttributeValue> item : items) {
+                try {
+                    results.add(RecordResult.success(encryptRecord(item, plan, context, primitives)));
+                } catch (GeneralSecurityException | RuntimeException ex) {
+                    results.add(RecordResult.failure(ex));
+                }
+            }
+        } finally {
+            primitives.endBatch();
+        }
+        return results;
+    }
+
+    private Map<String, AttributeValue> encryptRecord(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            EncryptionContext context,
+            CryptoPrimitiveCache primitives) throws GeneralSecurityException {
+        if (plan.isEmpty()) {
             return itemAttributes;
         }
         // Copy to avoid changing anyone elses objects
@@ -326,7 +665,8 @@ public class DynamoDBEncryptor {
                 materials.getMaterialDescription());
         SecretKey encryptionKey = materials.getEncryptionKey();
 
-        actualEncryption(itemAttributes, attributeFlags, materialDescription, encryptionKey);
+        final String packedField = actualEncryption(itemAttributes, plan, materialDescription, encryptionKey,
+                primitives);
 
         // The description must be stored after encryption because its data
         // is necessary for proper decryption.
@@ -345,9 +685,9 @@ public class DynamoDBEncryptor {
             itemAttributes.put(materialDescriptionFieldName, marshallDescription(materialDescription));
         }
 
-        String associatedData = "TABLE>" + context.getTableName() + "<TABLE";
-        byte[] signature = signer.calculateSignature(itemAttributes, attributeFlags,
-                associatedData.getBytes(UTF8), materials.getSigningKey());
+        byte[] signature = signer.calculateSignature(itemAttributes,
+                packedField != null ? plan.withSignedAttribute(packedField) : plan,
+                getAssociatedData(context.getTableName()), materials.getSigningKey(), primitives);
 
         AttributeValue signatureAttribute = new AttributeValue();
         signatureAttribute.setB(ByteBuffer.wrap(signature));
@@ -356,38 +696,32 @@ public class DynamoDBEncryptor {
         return itemAttributes;
     }
     
-    private void actualDecryption(Map<String, AttributeValue> itemAttributes,
-            Map<String, Set<EncryptionFlags>> attributeFlags, SecretKey encryptionKey,
-            Map<String, String> materialDescription) throws GeneralSecurityException {
-        final String encryptionMode = encryptionKey != null ?  encryptionKey.getAlgorithm() +
-                    materialDescription.get(symmetricEncryptionModeHeader) : null;
-        Cipher cipher = null;
-        int blockSize = -1;
-
-        for (Map.Entry<String, AttributeValue> entry: itemAttributes.entrySet()) {
-            Set<EncryptionFlags> flags = attributeFlags.get(entry.getKey());
-            if (flags != null && flags.contains(EncryptionFlags.ENCRYPT)) {
-                if (!flags.contains(EncryptionFlags.SIGN)) {
-                    throw new IllegalArgumentException("All encrypted fields must be signed. Bad field: " + entry.getKey());
+    /**
+     * Decrypts the encrypted attributes of <code>record</code> in place. If
+     * <code>attributesToDecrypt</code> is non-null, encrypted attributes it does not name are
+     * removed rather than decrypted.
+     */
+    private void actualDecryption(VerifiedRecord record, EncryptionPlan plan,
+            Set<String> attributesToDecrypt, CryptoPrimitiveCache primitives) throws GeneralSecurityException {
+        final Map<String, AttributeValue> itemAttributes = record.itemAttributes;
+        final Map<String, AttributeValue> unpacked = record.unpack(plan, primitives);
+        for (int idx = 0; idx < plan.size(); idx++) {
+            final String name = plan.getName(idx);
+            final AttributeValue value = itemAttributes.get(name);
+            if (value != null && plan.isEncrypted(idx)) {
+                if (!plan.isSigned(idx)) {
+                    throw new IllegalArgumentException("All encrypted fields must be signed. Bad field: " + name);
                 }
-                ByteBuffer plainText;
-                ByteBuffer cipherText = entry.getValue().getB().asReadOnlyBuffer();
-                cipherText.rewind();
-                if (encryptionKey instanceof DelegatedKey) {
-                    plainText = ByteBuffer.wrap(((DelegatedKey)encryptionKey).decrypt(toByteArray(cipherText), null, encryptionMode));
+                if (attributesToDecrypt == null || attributesToDecrypt.contains(name)) {
+                    itemAttributes.put(name, record.decrypt(value.getB(), primitives));
                 } else {
-                    if (cipher == null) {
-                        blockSize = getBlockSize(encryptionMode);
-                        cipher = Cipher.getInstance(encryptionMode);
-                    }
-                    byte[] iv = new byte[blockSize];
-                    cipherText.get(iv);
-                    cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new IvParameterSpec(iv), Utils.getRng());
-                    plainText = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
-                    cipher.doFinal(cipherText, plainText);
-                    plainText.rewind();
+                    itemAttributes.remove(name);
                 }
-                entry.setValue(AttributeValueMarshaller.unmarshall(plainText));
+            }
+        }
+        for (Map.Entry<String, AttributeValue> entry : unpacked.entrySet()) {
+            if (attributesToDecrypt == null || attributesToDecrypt.contains(entry.getKey())) {
+                itemAttributes.put(entry.getKey(), entry.getValue());
             }
         }
     }
@@ -396,64 +730,129 @@ public class DynamoDBEncryptor {
         return BLOCK_SIZE_CACHE.computeIfAbsent(encryptionMode, BLOCK_SIZE_CALCULATOR);
     }
 
+    /**
+     * Returns the associated data which binds a signature to <code>tableName</code>. Its digest is
+     * cached by {@link DynamoDBSigner}, so it is not worth caching here as well.
+     */
+    private static byte[] getAssociatedData(String tableName) {
+        return ("TABLE>" + tableName + "<TABLE").getBytes(UTF8);
+    }
+
     /**
      * This method has the side effect of replacing the plaintext
      * attribute-values of "itemAttributes" with ciphertext attribute-values
      * (which are always in the form of ByteBuffer) as per the corresponding
-     * attribute flags.
+     * attribute flags. When packing is enabled, the encrypted attributes are
+     * instead replaced by a single packed attribute, whose name is returned.
      */
-    private void actualEncryption(Map<String, AttributeValue> itemAttributes,
-            Map<String, Set<EncryptionFlags>> attributeFlags,
+    private String actualEncryption(Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
             Map<String, String> materialDescription,
-            SecretKey encryptionKey) throws GeneralSecurityException {
+            SecretKey encryptionKey, CryptoPrimitiveCache primitives) throws GeneralSecurityException {
         String encryptionMode = null;
+        final String symmetricEncryptionMode = this.symmetricEncryptionMode;
         if (encryptionKey != null) {
             materialDescription.put(this.symmetricEncryptionModeHeader,
-                    SYMMETRIC_ENCRYPTION_MODE);
-            encryptionMode = encryptionKey.getAlgorithm() + SYMMETRIC_ENCRYPTION_MODE;
+                    symmetricEncryptionMode);
+            encryptionMode = encryptionKey.getAlgorithm() + symmetricEncryptionMode;
+            materialDescription.remove(gcmSaltHeader);
+            if (GCM_ENCRYPTION_MODE.equals(symmetricEncryptionMode) && !(encryptionKey instanceof DelegatedKey)) {
+                // See GCM_ENCRYPTION_MODE for why every record gets its own key
+                final byte[] salt = new byte[GCM_SALT_LENGTH];
+                Utils.getRng().nextBytes(salt);
+                materialDescription.put(gcmSaltHeader, Base64.encodeToString(salt));
+                encryptionKey = deriveRecordKey(encryptionKey, salt);
+            }
         }
-        Cipher cipher = null;
-        int blockSize = -1;
+        materialDescription.remove(packedAttributesHeader);
+        final Map<String, AttributeValue> toPack = packEncryptedAttributes
+                ? new HashMap<String, AttributeValue>() : null;
 
-        for (Map.Entry<String, AttributeValue> entry: itemAttributes.entrySet()) {
-            Set<EncryptionFlags> flags = attributeFlags.get(entry.getKey());
-            if (flags != null && flags.contains(EncryptionFlags.ENCRYPT)) {
-                if (!flags.contains(EncryptionFlags.SIGN)) {
-                    throw new IllegalArgumentException("All encrypted fields must be signed. Bad field: " + entry.getKey());
+        for (int idx = 0; idx < plan.size(); idx++) {
+            final String name = plan.getName(idx);
+            final AttributeValue value = itemAttributes.get(name);
+            if (value != null && plan.isEncrypted(idx)) {
+                if (!plan.isSigned(idx)) {
+                    throw new IllegalArgumentException("All encrypted fields must be signed. Bad field: " + name);
                 }
-                ByteBuffer plainText = AttributeValueMarshaller.marshall(entry.getValue());
-                plainText.rewind();
-                ByteBuffer cipherText;
-                if (encryptionKey instanceof DelegatedKey) {
-                    DelegatedKey dk = (DelegatedKey) encryptionKey;
-                    cipherText = ByteBuffer.wrap(
-                            dk.encrypt(toByteArray(plainText), null, encryptionMode));
+                if (toPack != null) {
+                    toPack.put(name, value);
+                    itemAttributes.remove(name);
                 } else {
-                    if (cipher == null) {
-                        blockSize = getBlockSize(encryptionMode);
-                        cipher = Cipher.getInstance(encryptionMode);
-                    }
-                    // Encryption format: <iv><ciphertext>
-                    // Note a unique iv is generated per attribute
-                    cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, Utils.getRng());
-                    cipherText = ByteBuffer.allocate(blockSize + cipher.getOutputSize(plainText.remaining()));
-                    cipherText.position(blockSize);
-                    cipher.doFinal(plainText, cipherText);
-                    cipherText.flip();
-                    final byte[] iv = cipher.getIV();
-                    if (iv.length != blockSize) {
-                        throw new IllegalStateException(String.format("Generated IV length (%d) not equal to block size (%d)",
-                                iv.length, blockSize));
-                    }
-                    cipherText.put(iv);
-                    cipherText.rewind();
+                    // Replace the plaintext attribute value with the encrypted content
+                    itemAttributes.put(name, new AttributeValue().withB(
+                            encrypt(AttributeValueMarshaller.marshall(value), encryptionKey, encryptionMode, primitives)));
                 }
-                // Replace the plaintext attribute value with the encrypted content
-                entry.setValue(new AttributeValue().withB(cipherText));
             }
         }
+
+        if (toPack == null || toPack.isEmpty()) {
+            return null;
+        }
+        final String packedField = packedAttributesFieldName;
+        if (itemAttributes.containsKey(packedField)) {
+            throw new IllegalArgumentException("Item already contains the packed attributes field: " + packedField);
+        }
+        itemAttributes.put(packedField, new AttributeValue().withB(encrypt(
+                AttributeValueMarshaller.marshall(new AttributeValue().withM(toPack)),
+                encryptionKey, encryptionMode, primitives)));
+        materialDescription.put(packedAttributesHeader, packedField);
+        return packedField;
     }
-    
+
+    /**
+     * Derives the key a record is encrypted with in {@link #GCM_ENCRYPTION_MODE} from the key in
+     * its materials.
+     */
+    private static SecretKey deriveRecordKey(SecretKey key, byte[] salt) throws GeneralSecurityException {
+        final byte[] rawKey = key.getEncoded();
+        if (rawKey == null) {
+            throw new IllegalArgumentException("GCM mode requires a key whose encoded form is available");
+        }
+        final Hkdf hkdf = Hkdf.getInstance("HmacSHA256");
+        hkdf.init(rawKey, salt);
+        return new SecretKeySpec(hkdf.deriveKey(GCM_RECORD_KEY_INFO, rawKey.length), key.getAlgorithm());
+    }
+
+    private static ByteBuffer encrypt(ByteBuffer plainText, SecretKey encryptionKey, String encryptionMode,
+            CryptoPrimitiveCache primitives) throws GeneralSecurityException {
+        plainText.rewind();
+        ByteBuffer cipherText;
+        if (encryptionKey instanceof DelegatedKey) {
+            DelegatedKey dk = (DelegatedKey) encryptionKey;
+            cipherText = ByteBuffer.wrap(
+                    dk.encrypt(toByteArray(plainText), null, encryptionMode));
+        } else if (encryptionMode.endsWith(GCM_ENCRYPTION_MODE)) {
+            final Cipher cipher = primitives.getCipher(encryptionMode);
+            // Encryption format: <iv><ciphertext><tag>
+            final byte[] iv = new byte[GCM_IV_LENGTH];
+            Utils.getRng().nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            cipherText = ByteBuffer.allocate(GCM_IV_LENGTH + cipher.getOutputSize(plainText.remaining()));
+            cipherText.put(iv);
+            cipher.doFinal(plainText, cipherText);
+            cipherText.flip();
+        } else {
+            final int blockSize = getBlockSize(encryptionMode);
+            final Cipher cipher = primitives.getCipher(encryptionMode);
+            // Encryption format: <iv><ciphertext>
+            // Note a unique iv is generated per attribute
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, Utils.getRng());
+            cipherText = ByteBuffer.allocate(blockSize + cipher.getOutputSize(plainText.remaining()));
+            cipherText.position(blockSize);
+            cipher.doFinal(plainText, cipherText);
+            cipherText.flip();
+            final byte[] iv = cipher.getIV();
+            if (iv.length != blockSize) {
+                throw new IllegalStateException(String.format("Generated IV length (%d) not equal to block size (%d)",
+                        iv.length, blockSize));
+            }
+            cipherText.put(iv);
+            cipherText.rewind();
+        }
+        return cipherText;
+    }
+
     /**
      * Get the name of the DynamoDB field used to store the signature.
      * Defaults to {@link #DEFAULT_SIGNATURE_FIELD}.
@@ -493,6 +892,76 @@ public class DynamoDBEncryptor {
     public void setMaterialDescriptionFieldName(final String materialDescriptionFieldName) {
         this.materialDescriptionFieldName = materialDescriptionFieldName;
     }
+
+    /**
+     * Get the symmetric encryption mode used for newly encrypted records. Defaults to
+     * {@link #CBC_ENCRYPTION_MODE}.
+     *
+     * @return the symmetric encryption mode used for newly encrypted records
+     */
+    public String getSymmetricEncryptionMode() {
+        return symmetricEncryptionMode;
+    }
+
+    /**
+     * Set the symmetric encryption mode used for newly encrypted records. The mode is recorded in
+     * the material description of each record, so records encrypted in either mode can always be
+     * decrypted regardless of this setting.
+     *
+     * @param symmetricEncryptionMode
+     *            either {@link #CBC_ENCRYPTION_MODE} or {@link #GCM_ENCRYPTION_MODE}
+     */
+    public void setSymmetricEncryptionMode(final String symmetricEncryptionMode) {
+        if (!CBC_ENCRYPTION_MODE.equals(symmetricEncryptionMode)
+                && !GCM_ENCRYPTION_MODE.equals(symmetricEncryptionMode)) {
+            throw new IllegalArgumentException("Unsupported symmetric encryption mode: " + symmetricEncryptionMode);
+        }
+        this.symmetricEncryptionMode = symmetricEncryptionMode;
+    }
+
+    /**
+     * Get the name of the DynamoDB field used to store packed attributes. Defaults to
+     * {@link #DEFAULT_PACKED_FIELD}.
+     *
+     * @return the name of the DynamoDB field used to store packed attributes
+     * @see #setPackEncryptedAttributes(boolean)
+     */
+    public String getPackedAttributesFieldName() {
+        return packedAttributesFieldName;
+    }
+
+    /**
+     * Set the name of the DynamoDB field used to store packed attributes.
+     *
+     * @param packedAttributesFieldName
+     */
+    public void setPackedAttributesFieldName(final String packedAttributesFieldName) {
+        this.packedAttributesFieldName = packedAttributesFieldName;
+    }
+
+    /**
+     * @return whether newly encrypted records are packed
+     * @see #setPackEncryptedAttributes(boolean)
+     */
+    public boolean isPackEncryptedAttributes() {
+        return packEncryptedAttributes;
+    }
+
+    /**
+     * When enabled, all attributes of a record which are to be encrypted are marshalled together
+     * and stored as a single encrypted attribute named by
+     * {@link #getPackedAttributesFieldName()}, rather than being encrypted one by one. This saves
+     * the IV and padding of every attribute but the first, along with the cost of initializing
+     * the cipher for each of them, at the price of having to decrypt all of them to read any one.
+     *
+     * Packing is recorded in the material description of each record, so records can always be
+     * decrypted regardless of this setting. Defaults to <code>false</code>.
+     *
+     * @param packEncryptedAttributes
+     */
+    public void setPackEncryptedAttributes(final boolean packEncryptedAttributes) {
+        this.packEncryptedAttributes = packEncryptedAttributes;
+    }
     
     /**
      * Marshalls the <code>description</code> into a ByteBuffer by outputting
@@ -606,4 +1075,78 @@ public class DynamoDBEncryptor {
         buffer.get(result);
         return result;
     }
+
+    /**
+     * A record whose signature has been verified, along with what is needed to decrypt its
+     * attributes.
+     */
+    private static final class VerifiedRecord implements LazilyDecryptedItem.AttributeDecryptor {
+        private final Map<String, AttributeValue> itemAttributes;
+        private final SecretKey decryptionKey;
+        private final String encryptionMode;
+        private final ByteBuffer packed;
+
+        VerifiedRecord(Map<String, AttributeValue> itemAttributes, SecretKey decryptionKey,
+                String encryptionMode, ByteBuffer packed) {
+            this.itemAttributes = itemAttributes;
+            this.decryptionKey = decryptionKey;
+            this.encryptionMode = encryptionMode;
+            this.packed = packed;
+        }
+
+        /**
+         * Decrypts the packed attributes of this record, if any. Packed attributes may not
+         * also be present individually nor be marked as plaintext by <code>plan</code>.
+         */
+        Map<String, AttributeValue> unpack(EncryptionPlan plan, CryptoPrimitiveCache primitives)
+                throws GeneralSecurityException {
+            if (packed == null) {
+                return Collections.emptyMap();
+            }
+            final Map<String, AttributeValue> result = decrypt(packed, primitives).getM();
+            if (result == null) {
+                throw new IllegalArgumentException("Malformed packed attributes");
+            }
+            for (String name : result.keySet()) {
+                final int idx = plan.indexOf(name);
+                if (itemAttributes.containsKey(name) || (idx >= 0 && !plan.isEncrypted(idx))) {
+                    throw new IllegalArgumentException("Unexpected packed attribute: " + name);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public AttributeValue decrypt(ByteBuffer encrypted) throws GeneralSecurityException {
+            return decrypt(encrypted, CryptoPrimitiveCache.get());
+        }
+
+        AttributeValue decrypt(ByteBuffer encrypted, CryptoPrimitiveCache primitives)
+                throws GeneralSecurityException {
+            ByteBuffer plainText;
+            ByteBuffer cipherText = encrypted.asReadOnlyBuffer();
+            cipherText.rewind();
+            if (decryptionKey instanceof DelegatedKey) {
+                plainText = ByteBuffer.wrap(((DelegatedKey)decryptionKey).decrypt(toByteArray(cipherText), null, encryptionMode));
+            } else if (encryptionMode.endsWith(GCM_ENCRYPTION_MODE)) {
+                final Cipher cipher = primitives.getCipher(encryptionMode);
+                byte[] iv = new byte[GCM_IV_LENGTH];
+                cipherText.get(iv);
+                cipher.init(Cipher.DECRYPT_MODE, decryptionKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+                plainText = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
+                cipher.doFinal(cipherText, plainText);
+                plainText.rewind();
+            } else {
+                final int blockSize = getBlockSize(encryptionMode);
+                final Cipher cipher = primitives.getCipher(encryptionMode);
+                byte[] iv = new byte[blockSize];
+                cipherText.get(iv);
+                cipher.init(Cipher.DECRYPT_MODE, decryptionKey, new IvParameterSpec(iv), Utils.getRng());
+                plainText = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
+                cipher.doFinal(cipherText, plainText);
+                plainText.rewind();
+            }
+            return AttributeValueMarshaller.unmarshall(plainText);
+        }
+    }
 }
@@ -15,7 +15,6 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
@@ -27,9 +26,6 @@ import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,6 +35,8 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CryptoPrimitiveCache;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.DigestCache;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
@@ -51,6 +49,13 @@ class DynamoDBSigner {
             new ConcurrentHashMap<String, DynamoDBSigner>();
 
     protected static final Charset UTF8 = Charset.forName("UTF-8");
+    // Attribute names and associated data (which names the table) repeat across items, so their
+    // digests are only calculated once. The bounds comfortably exceed any realistic schema.
+    private static final DigestCache NAME_DIGESTS = new DigestCache("SHA-256", 10000);
+    private static final DigestCache ASSOCIATED_DATA_DIGESTS = new DigestCache("SHA-256", 1000);
+    private static final byte[] EMPTY_DIGEST = sha256(new byte[0]);
+    private static final byte[] ENCRYPTED_DIGEST = sha256("ENCRYPTED".getBytes(UTF8));
+    private static final byte[] PLAINTEXT_DIGEST = sha256("PLAINTEXT".getBytes(UTF8));
     private final SecureRandom rnd;
     private final SecretKey hmacComparisonKey;
     private final String signingAlgorithm;
@@ -92,23 +97,35 @@ class DynamoDBSigner {
 
     void verifySignature(Map<String, AttributeValue> itemAttributes, Map<String, Set<EncryptionFlags>> attributeFlags,
             byte[] associatedData, Key verificationKey, ByteBuffer signature) throws GeneralSecurityException {
+        verifySignature(itemAttributes, EncryptionPlan.compile(attributeFlags), associatedData, verificationKey,
+                signature, CryptoPrimitiveCache.get());
+    }
+
+    /**
+     * As {@link #verifySignature(Map, Map, byte[], Key, ByteBuffer)}, but driven by a compiled
+     * <code>plan</code> and taking all JCA primitives from <code>primitives</code> so that both
+     * may be reused across records.
+     */
+    void verifySignature(Map<String, AttributeValue> itemAttributes, EncryptionPlan plan,
+            byte[] associatedData, Key verificationKey, ByteBuffer signature, CryptoPrimitiveCache primitives)
+            throws GeneralSecurityException {
         if (verificationKey instanceof DelegatedKey) {
             DelegatedKey dKey = (DelegatedKey)verificationKey;
-            byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
+            byte[] stringToSign = calculateStringToSign(itemAttributes, plan, associatedData, primitives);
             if (!dKey.verify(stringToSign, toByteArray(signature), dKey.getAlgorithm())) {
                 throw new SignatureException("Bad signature");
             }
         } else if (verificationKey instanceof SecretKey) {
-            byte[] calculatedSig = calculateSignature(itemAttributes, attributeFlags, associatedData, (SecretKey)verificationKey);
-            if (!safeEquals(signature, calculatedSig)) {
+            byte[] calculatedSig = calculateSignature(itemAttributes, plan, associatedData,
+                    (SecretKey)verificationKey, primitives);
+            if (!safeEquals(signature, calculatedSig, primitives)) {
                 throw new SignatureException("Bad signature");
             }
         } else if (verificationKey instanceof PublicKey) {
             PublicKey integrityKey = (PublicKey)verificationKey;
-            byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
-            Signature sig = Signature.getInstance(getSigningAlgorithm());
+            Signature sig = primitives.getSignature(getSigningAlgorithm());
             sig.initVerify(integrityKey);
-            sig.update(stringToSign);
+            writeStringToSign(itemAttributes, plan, associatedData, primitives, sig::update);
             if (!sig.verify(toByteArray(signature))) {
                 throw new SignatureException("Bad signature");
             }
@@ -120,42 +137,60 @@ class DynamoDBSigner {
     static byte[] calculateStringToSign(Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags, byte[] associatedData)
             throws NoSuchAlgorithmException {
+        return calculateStringToSign(itemAttributes, EncryptionPlan.compile(attributeFlags), associatedData,
+                CryptoPrimitiveCache.get());
+    }
+
+    static byte[] calculateStringToSign(Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan, byte[] associatedData,
+            CryptoPrimitiveCache primitives) throws NoSuchAlgorithmException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            List<String> attrNames = new ArrayList<String>(itemAttributes.keySet());
-            Collections.sort(attrNames);
-            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            if (associatedData != null) {
-                out.write(sha256.digest(associatedData));
+            writeStringToSign(itemAttributes, plan, associatedData, primitives,
+                    digest -> out.write(digest, 0, digest.length));
+        } catch (NoSuchAlgorithmException ex) {
+            throw ex;
+        } catch (GeneralSecurityException ex) {
+            // Due to the objects in use, no other exception is possible.
+            throw new RuntimeException("Unexpected exception", ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Streams the string to sign into <code>sink</code>, one digest at a time. Attribute values
+     * are marshalled straight into the digest, so no copy of the item is ever made. The plan is
+     * already in signing order, so nothing needs to be sorted here.
+     */
+    private static void writeStringToSign(Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan, byte[] associatedData,
+            CryptoPrimitiveCache primitives, DigestSink sink) throws GeneralSecurityException {
+        MessageDigest sha256 = primitives.getMessageDigest("SHA-256");
+        if (associatedData != null) {
+            sink.update(ASSOCIATED_DATA_DIGESTS.digest(associatedData, sha256));
+        } else {
+            sink.update(EMPTY_DIGEST);
+        }
+
+        for (int idx = 0; idx < plan.size(); idx++) {
+            if (!plan.isSigned(idx)) {
+                continue;
+            }
+            String name = plan.getName(idx);
+            AttributeValue tmp = itemAttributes.get(name);
+            if (tmp == null) {
+                continue;
+            }
+            sink.update(NAME_DIGESTS.digest(name, sha256));
+            if (plan.isEncrypted(idx)) {
+                sink.update(ENCRYPTED_DIGEST);
             } else {
-                out.write(sha256.digest());
+                sink.update(PLAINTEXT_DIGEST);
             }
-            sha256.reset();
 
-            for (String name : attrNames) {
-                Set<EncryptionFlags> set = attributeFlags.get(name);
-                if(set != null && set.contains(EncryptionFlags.SIGN)) {
-                    AttributeValue tmp = itemAttributes.get(name);
-                    out.write(sha256.digest(name.getBytes(UTF8)));
-                    sha256.reset();
-                    if (set.contains(EncryptionFlags.ENCRYPT)) {
-                        sha256.update("ENCRYPTED".getBytes(UTF8));
-                    } else {
-                        sha256.update("PLAINTEXT".getBytes(UTF8));
-                    }
-                    out.write(sha256.digest());
-
-                    sha256.reset();
-
-                    sha256.update(AttributeValueMarshaller.marshall(tmp));
-                    out.write(sha256.digest());
-                    sha256.reset();
-                }
-            }
-            return out.toByteArray();
-        } catch (IOException ex) {
-            // Due to the objects in use, an IOException is not possible.
-            throw new RuntimeException("Unexpected exception", ex);
+            AttributeValueMarshaller.marshall(tmp, sha256);
+            sink.update(sha256.digest());
+            sha256.reset();
         }
     }
 
@@ -167,12 +202,25 @@ class DynamoDBSigner {
             Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags,
             byte[] associatedData, Key key) throws GeneralSecurityException {
+        return calculateSignature(itemAttributes, EncryptionPlan.compile(attributeFlags), associatedData, key,
+                CryptoPrimitiveCache.get());
+    }
+
+    /**
+     * As {@link #calculateSignature(Map, Map, byte[], Key)}, but driven by a compiled
+     * <code>plan</code> and taking all JCA primitives from <code>primitives</code> so that both
+     * may be reused across records.
+     */
+    byte[] calculateSignature(
+            Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan,
+            byte[] associatedData, Key key, CryptoPrimitiveCache primitives) throws GeneralSecurityException {
         if (key instanceof DelegatedKey) {
-            return calculateSignature(itemAttributes, attributeFlags, associatedData, (DelegatedKey) key);
+            return calculateSignature(itemAttributes, plan, associatedData, (DelegatedKey) key, primitives);
         } else if (key instanceof SecretKey) {
-            return calculateSignature(itemAttributes, attributeFlags, associatedData, (SecretKey) key);
+            return calculateSignature(itemAttributes, plan, associatedData, (SecretKey) key, primitives);
         } else if (key instanceof PrivateKey) {
-            return calculateSignature(itemAttributes, attributeFlags, associatedData, (PrivateKey) key);
+            return calculateSignature(itemAttributes, plan, associatedData, (PrivateKey) key, primitives);
         } else {
             throw new IllegalArgumentException("No integrity key provided");
         }
@@ -181,33 +229,60 @@ class DynamoDBSigner {
     byte[] calculateSignature(Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags, byte[] associatedData,
             DelegatedKey key) throws GeneralSecurityException {
-        byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
+        return calculateSignature(itemAttributes, EncryptionPlan.compile(attributeFlags), associatedData, key,
+                CryptoPrimitiveCache.get());
+    }
+
+    private byte[] calculateSignature(Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan, byte[] associatedData,
+            DelegatedKey key, CryptoPrimitiveCache primitives) throws GeneralSecurityException {
+        byte[] stringToSign = calculateStringToSign(itemAttributes, plan, associatedData, primitives);
         return key.sign(stringToSign, key.getAlgorithm());
     }
 
     byte[] calculateSignature(Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags, byte[] associatedData,
             SecretKey key) throws GeneralSecurityException {
+        return calculateSignature(itemAttributes, EncryptionPlan.compile(attributeFlags), associatedData, key,
+                CryptoPrimitiveCache.get());
+    }
+
+    private byte[] calculateSignature(Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan, byte[] associatedData,
+            SecretKey key, CryptoPrimitiveCache primitives) throws GeneralSecurityException {
         if (key instanceof DelegatedKey) {
-            return calculateSignature(itemAttributes, attributeFlags, associatedData, (DelegatedKey)key);
+            return calculateSignature(itemAttributes, plan, associatedData, (DelegatedKey)key, primitives);
         }
-        byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
-        Mac hmac = Mac.getInstance(key.getAlgorithm());
-        hmac.init(key);
-        hmac.update(stringToSign);
+        Mac hmac = primitives.getMac(key);
+        writeStringToSign(itemAttributes, plan, associatedData, primitives, hmac::update);
         return hmac.doFinal();
     }
 
     byte[] calculateSignature(Map<String, AttributeValue> itemAttributes,
             Map<String, Set<EncryptionFlags>> attributeFlags, byte[] associatedData,
             PrivateKey key) throws GeneralSecurityException {
-        byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
-        Signature sig = Signature.getInstance(signingAlgorithm);
+        return calculateSignature(itemAttributes, EncryptionPlan.compile(attributeFlags), associatedData, key,
+                CryptoPrimitiveCache.get());
+    }
+
+    private byte[] calculateSignature(Map<String, AttributeValue> itemAttributes,
+            EncryptionPlan plan, byte[] associatedData,
+            PrivateKey key, CryptoPrimitiveCache primitives) throws GeneralSecurityException {
+        Signature sig = primitives.getSignature(signingAlgorithm);
         sig.initSign(key, rnd);
-        sig.update(stringToSign);
+        writeStringToSign(itemAttributes, plan, associatedData, primitives, sig::update);
         return sig.sign();
     }
 
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256.
+            throw new RuntimeException("Unexpected exception", ex);
+        }
+    }
+
     String getSigningAlgorithm() {
         return signingAlgorithm;
     }
@@ -215,11 +290,10 @@ class DynamoDBSigner {
     /**
      * Constant-time equality check.
      */
-    private boolean safeEquals(ByteBuffer signature, byte[] calculatedSig) {
+    private boolean safeEquals(ByteBuffer signature, byte[] calculatedSig, CryptoPrimitiveCache primitives) {
         try {
             signature.rewind();
-            Mac hmac = Mac.getInstance(hmacComparisonKey.getAlgorithm());
-            hmac.init(hmacComparisonKey);
+            Mac hmac = primitives.getMac(hmacComparisonKey);
             hmac.update(signature);
             byte[] signatureHash = hmac.doFinal();
 
@@ -246,4 +320,11 @@ class DynamoDBSigner {
             return result;
         }
     }
+
+    /**
+     * Receives the string to sign in pieces, such as a {@link Mac} or {@link Signature}.
+     */
+    private interface DigestSink {
+        void update(byte[] digest) throws GeneralSecurityException;
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled, immutable form of the <code>Map&lt;String, Set&lt;EncryptionFlags&gt;&gt;</code>
+ * accepted by {@link DynamoDBEncryptor}. Compiling a plan once per table or model class and
+ * reusing it for every item avoids rebuilding and re-sorting the attribute flags on each call.
+ *
+ * Attributes are held in the order in which they are signed. Attributes without any flags are
+ * dropped when the plan is compiled, as are any attributes of an item which the plan does not
+ * mention; neither are encrypted nor signed.
+ *
+ * This class is thread-safe.
+ *
+ * @see DynamoDBEncryptor#encryptRecord(Map, EncryptionPlan, EncryptionContext)
+ * @see DynamoDBEncryptor#decryptRecord(Map, EncryptionPlan, EncryptionContext)
+ */
+public final class EncryptionPlan {
+    private static final byte SIGN = 1;
+    private static final byte ENCRYPT = 2;
+
+    private final String[] names;
+    private final byte[] flags;
+    private final boolean empty;
+    // The most recent result of withSignedAttribute, which is almost always asked for the same name
+    private volatile Map.Entry<String, EncryptionPlan> derived;
+
+    private EncryptionPlan(String[] names, byte[] flags, boolean empty) {
+        this.names = names;
+        this.flags = flags;
+        this.empty = empty;
+    }
+
+    /**
+     * Compiles <code>attributeFlags</code> into a plan. Later changes to
+     * <code>attributeFlags</code> do not affect the plan.
+     */
+    public static EncryptionPlan compile(Map<String, Set<EncryptionFlags>> attributeFlags) {
+        final List<String> flagged = new ArrayList<String>(attributeFlags.size());
+        for (Map.Entry<String, Set<EncryptionFlags>> entry : attributeFlags.entrySet()) {
+            if (entry.getValue() != null && !entry.getValue().isEmpty()) {
+                flagged.add(entry.getKey());
+            }
+        }
+        final String[] names = flagged.toArray(new String[flagged.size()]);
+        // Same ordering as the signature
+        Arrays.sort(names);
+        final byte[] flags = new byte[names.length];
+        for (int idx = 0; idx < names.length; idx++) {
+            final Set<EncryptionFlags> set = attributeFlags.get(names[idx]);
+            if (set.contains(EncryptionFlags.SIGN)) {
+                flags[idx] |= SIGN;
+            }
+            if (set.contains(EncryptionFlags.ENCRYPT)) {
+                flags[idx] |= ENCRYPT;
+            }
+        }
+        // An empty map (as opposed to one which only lists untouched attributes) means the item
+        // is returned unchanged, without even a signature.
+        return new EncryptionPlan(names, flags, attributeFlags.isEmpty());
+    }
+
+    /**
+     * Returns <code>true</code> if this plan was compiled from an empty map, in which case items
+     * are passed through without being encrypted or signed.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Returns the names of all attributes with at least one flag, in signing order.
+     */
+    public List<String> getAttributeNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Returns the flags for <code>attributeName</code>, which are empty for attributes which are
+     * neither encrypted nor signed.
+     */
+    public Set<EncryptionFlags> getFlags(String attributeName) {
+        final EnumSet<EncryptionFlags> result = EnumSet.noneOf(EncryptionFlags.class);
+        final int idx = indexOf(attributeName);
+        if (idx >= 0) {
+            if (isSigned(idx)) {
+                result.add(EncryptionFlags.SIGN);
+            }
+            if (isEncrypted(idx)) {
+                result.add(EncryptionFlags.ENCRYPT);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns a plan identical to this one except that <code>attributeName</code> is signed but
+     * not encrypted.
+     */
+    EncryptionPlan withSignedAttribute(String attributeName) {
+        final int idx = indexOf(attributeName);
+        if (idx >= 0 && flags[idx] == SIGN) {
+            return this;
+        }
+        final Map.Entry<String, EncryptionPlan> cached = derived;
+        if (cached != null && cached.getKey().equals(attributeName)) {
+            return cached.getValue();
+        }
+        final String[] newNames;
+        final byte[] newFlags;
+        if (idx >= 0) {
+            newNames = names;
+            newFlags = flags.clone();
+            newFlags[idx] = SIGN;
+        } else {
+            final int insertion = -(idx + 1);
+            newNames = new String[names.length + 1];
+            newFlags = new byte[names.length + 1];
+            System.arraycopy(names, 0, newNames, 0, insertion);
+            System.arraycopy(flags, 0, newFlags, 0, insertion);
+            newNames[insertion] = attributeName;
+            newFlags[insertion] = SIGN;
+            System.arraycopy(names, insertion, newNames, insertion + 1, names.length - insertion);
+            System.arraycopy(flags, insertion, newFlags, insertion + 1, names.length - insertion);
+        }
+        final EncryptionPlan result = new EncryptionPlan(newNames, newFlags, false);
+        derived = new AbstractMap.SimpleImmutableEntry<String, EncryptionPlan>(attributeName, result);
+        return result;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String getName(int idx) {
+        return names[idx];
+    }
+
+    boolean isSigned(int idx) {
+        return (flags[idx] & SIGN) != 0;
+    }
+
+    boolean isEncrypted(int idx) {
+        return (flags[idx] & ENCRYPT) != 0;
+    }
+
+    /**
+     * Returns the position of <code>attributeName</code> in this plan, or a negative number if it
+     * has no flags.
+     */
+    int indexOf(String attributeName) {
+        return Arrays.binarySearch(names, attributeName);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("EncryptionPlan [");
+        for (int idx = 0; idx < names.length; idx++) {
+            if (idx > 0) {
+                sb.append(", ");
+            }
+            sb.append(names[idx]).append('=').append(getFlags(names[idx]));
+        }
+        return sb.append(']').toString();
+    }
+}
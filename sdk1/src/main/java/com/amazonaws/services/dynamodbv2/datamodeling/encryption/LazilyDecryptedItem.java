@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Read-only view of a verified record whose encrypted attributes are decrypted on first access.
+ *
+ * @see DynamoDBEncryptor#decryptRecordLazily(Map, EncryptionPlan, EncryptionContext)
+ */
+final class LazilyDecryptedItem extends AbstractMap<String, AttributeValue> {
+    private final Map<String, AttributeValue> itemAttributes;
+    private final Map<String, ByteBuffer> cipherTexts;
+    private final Map<String, AttributeValue> decrypted = new ConcurrentHashMap<>();
+    private final AttributeDecryptor decryptor;
+    private final Set<Map.Entry<String, AttributeValue>> entrySet = new EntrySet();
+
+    /**
+     * @param itemAttributes
+     *            the verified record, with encrypted attributes still in their encrypted form
+     * @param cipherTexts
+     *            the (verified) ciphertexts of all encrypted attributes, by name
+     * @param decryptor
+     *            used to decrypt the ciphertexts
+     */
+    LazilyDecryptedItem(Map<String, AttributeValue> itemAttributes, Map<String, ByteBuffer> cipherTexts,
+            AttributeDecryptor decryptor) {
+        this.itemAttributes = itemAttributes;
+        this.cipherTexts = cipherTexts;
+        this.decryptor = decryptor;
+    }
+
+    @Override
+    public AttributeValue get(Object key) {
+        final ByteBuffer cipherText = cipherTexts.get(key);
+        if (cipherText == null) {
+            return itemAttributes.get(key);
+        }
+        final AttributeValue result = decrypted.get(key);
+        if (result != null) {
+            return result;
+        }
+        return decrypted.computeIfAbsent((String) key, name -> {
+            try {
+                return decryptor.decrypt(cipherText);
+            } catch (GeneralSecurityException ex) {
+                throw new AmazonClientException("Unable to decrypt attribute " + name, ex);
+            }
+        });
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return itemAttributes.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return itemAttributes.size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        // Listing the attributes must not decrypt them
+        return Collections.unmodifiableSet(itemAttributes.keySet());
+    }
+
+    @Override
+    public Set<Map.Entry<String, AttributeValue>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Returns <code>true</code> if the attribute <code>name</code> has already been decrypted or
+     * was never encrypted in the first place.
+     */
+    boolean isDecrypted(String name) {
+        return !cipherTexts.containsKey(name) || decrypted.containsKey(name);
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, AttributeValue>> {
+        @Override
+        public Iterator<Map.Entry<String, AttributeValue>> iterator() {
+            final Iterator<String> names = itemAttributes.keySet().iterator();
+            return new Iterator<Map.Entry<String, AttributeValue>>() {
+                @Override
+                public boolean hasNext() {
+                    return names.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, AttributeValue> next() {
+                    final String name = names.next();
+                    return new AbstractMap.SimpleImmutableEntry<>(name, get(name));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return itemAttributes.size();
+        }
+    }
+
+    /**
+     * Decrypts and unmarshalls a single attribute value.
+     */
+    interface AttributeDecryptor {
+        AttributeValue decrypt(ByteBuffer cipherText) throws GeneralSecurityException;
+    }
+}
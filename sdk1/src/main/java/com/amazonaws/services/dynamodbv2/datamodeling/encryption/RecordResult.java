@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * The outcome of encrypting or decrypting a single record as part of one of the batch operations
+ * on {@link DynamoDBEncryptor}. Exactly one of {@link #getItem()} and {@link #getException()} is
+ * non-null.
+ *
+ * This class is immutable.
+ *
+ * @see DynamoDBEncryptor#encryptRecords(java.util.List, Map, EncryptionContext)
+ * @see DynamoDBEncryptor#decryptRecords(java.util.List, Map, EncryptionContext)
+ */
+public final class RecordResult {
+    private final Map<String, AttributeValue> item;
+    private final Exception exception;
+
+    private RecordResult(Map<String, AttributeValue> item, Exception exception) {
+        this.item = item;
+        this.exception = exception;
+    }
+
+    static RecordResult success(Map<String, AttributeValue> item) {
+        return new RecordResult(item, null);
+    }
+
+    static RecordResult failure(Exception exception) {
+        return new RecordResult(null, exception);
+    }
+
+    /**
+     * Returns <code>true</code> if the record was processed without error.
+     */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /**
+     * Returns the encrypted or decrypted record, or <code>null</code> if processing failed.
+     */
+    public Map<String, AttributeValue> getItem() {
+        return item;
+    }
+
+    /**
+     * Returns the reason this record could not be processed, or <code>null</code> if it was
+     * processed successfully.
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordResult [item=" + item + ", exception=" + exception + "]";
+    }
+}
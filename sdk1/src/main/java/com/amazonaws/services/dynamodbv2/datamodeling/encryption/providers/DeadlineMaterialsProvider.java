@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+
+/**
+ * Limits how long callers wait for materials from another {@link EncryptionMaterialsProvider},
+ * such as one which calls KMS or a {@link MostRecentProvider} whose store is slow. Each call is
+ * run on the given executor and the caller waits for at most the given timeout. Calls which take
+ * longer carry on in the background, so that whatever they retrieve is cached by the underlying
+ * provider for later callers, but their result is discarded.
+ *
+ * When a call takes too long, or the executor rejects it, materials the underlying provider
+ * already has cached are returned instead where it supports this. Currently only a
+ * {@link MostRecentProvider} does: it returns its current provider for encryption, within the
+ * bounds of its TTL and any max staleness, and any cached version for decryption. Otherwise a
+ * {@link MaterialsTimeoutException} is thrown.
+ *
+ * The executor should be bounded, for instance a {@link java.util.concurrent.ThreadPoolExecutor}
+ * with a bounded queue, so that a stalled dependency cannot accumulate unbounded work; callers
+ * then fail fast when it is full. It is not shut down by this provider.
+ */
+public class DeadlineMaterialsProvider implements EncryptionMaterialsProvider {
+    private final EncryptionMaterialsProvider delegate;
+    private final Executor executor;
+    private final long timeoutNanos;
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param delegate
+     *            the provider to retrieve materials from
+     * @param executor
+     *            runs the calls to <code>delegate</code>
+     * @param timeoutMillis
+     *            how long in milliseconds to wait for materials when no other timeout is given
+     */
+    public DeadlineMaterialsProvider(final EncryptionMaterialsProvider delegate, final Executor executor,
+            final long timeoutMillis) {
+        this.delegate = checkNotNull(delegate, "delegate must not be null");
+        this.executor = checkNotNull(executor, "executor must not be null");
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative");
+        }
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    @Override
+    public EncryptionMaterials getEncryptionMaterials(final EncryptionContext context) {
+        return getEncryptionMaterials(context, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns encryption materials from the underlying provider, waiting for at most
+     * <code>timeout</code>.
+     *
+     * @throws MaterialsTimeoutException
+     *             if the materials could not be retrieved in time and none are cached
+     */
+    public EncryptionMaterials getEncryptionMaterials(final EncryptionContext context, final long timeout,
+            final TimeUnit unit) {
+        return call(() -> delegate.getEncryptionMaterials(context),
+                () -> delegate instanceof MostRecentProvider
+                        ? ((MostRecentProvider) delegate).getCachedEncryptionMaterials(context) : null,
+                timeout, unit);
+    }
+
+    @Override
+    public DecryptionMaterials getDecryptionMaterials(final EncryptionContext context) {
+        return getDecryptionMaterials(context, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns decryption materials from the underlying provider, waiting for at most
+     * <code>timeout</code>.
+     *
+     * @throws MaterialsTimeoutException
+     *             if the materials could not be retrieved in time and none are cached
+     */
+    public DecryptionMaterials getDecryptionMaterials(final EncryptionContext context, final long timeout,
+            final TimeUnit unit) {
+        return call(() -> delegate.getDecryptionMaterials(context),
+                () -> delegate instanceof MostRecentProvider
+                        ? ((MostRecentProvider) delegate).getCachedDecryptionMaterials(context) : null,
+                timeout, unit);
+    }
+
+    /**
+     * Refreshes the underlying provider on the calling thread.
+     */
+    @Override
+    public void refresh() {
+        delegate.refresh();
+    }
+
+    /**
+     * Returns the number of calls which did not complete in time or were rejected by the
+     * executor, whether or not cached materials were returned instead.
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the number of calls answered with cached materials after a timeout.
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    private <T> T call(final Supplier<T> retrieve, final Supplier<T> cached, final long timeout,
+            final TimeUnit unit) {
+        final CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(retrieve, executor);
+        } catch (final RejectedExecutionException ex) {
+            return fallBack(cached, new MaterialsTimeoutException("Unable to retrieve materials: executor is full", ex));
+        }
+        try {
+            return future.get(timeout, unit);
+        } catch (final TimeoutException ex) {
+            return fallBack(cached, new MaterialsTimeoutException(
+                    "Unable to retrieve materials within " + unit.toMillis(timeout) + " ms", ex));
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new AmazonClientException(ex.getCause());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while retrieving materials", ex);
+        }
+    }
+
+    private <T> T fallBack(final Supplier<T> cached, final MaterialsTimeoutException ex) {
+        timeouts.incrementAndGet();
+        final T result;
+        try {
+            result = cached.get();
+        } catch (final RuntimeException fallbackEx) {
+            ex.addSuppressed(fallbackEx);
+            throw ex;
+        }
+        if (result == null) {
+            throw ex;
+        }
+        fallbacks.incrementAndGet();
+        return result;
+    }
+
+    private static <V> V checkNotNull(final V ref, final String errMsg) {
+        if (ref == null) {
+            throw new NullPointerException(errMsg);
+        } else {
+            return ref;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Controls which results of calls to KMS a {@link DirectKmsMaterialProvider} may reuse. By
+ * default nothing is reused and every record gets its own data key, exactly as when no
+ * configuration is given.
+ *
+ * This class is immutable.
+ */
+public final class DirectKmsCachingConfig {
+    private final long encryptionMaterialsMaxAgeMillis;
+    private final long encryptionMaterialsMaxItems;
+    private final long encryptionMaterialsMaxBytes;
+    private final boolean tableScopedDataKeys;
+    private final long decryptionMaterialsTtlMillis;
+    private final boolean coalesceDecrypts;
+    private final int dataKeyPoolSize;
+    private final long dataKeyPoolMaxAgeMillis;
+    private final Executor dataKeyPoolExecutor;
+    private final int maxCacheEntries;
+
+    private DirectKmsCachingConfig(Builder builder) {
+        encryptionMaterialsMaxAgeMillis = builder.encryptionMaterialsMaxAgeMillis;
+        encryptionMaterialsMaxItems = builder.encryptionMaterialsMaxItems;
+        encryptionMaterialsMaxBytes = builder.encryptionMaterialsMaxBytes;
+        tableScopedDataKeys = builder.tableScopedDataKeys;
+        decryptionMaterialsTtlMillis = builder.decryptionMaterialsTtlMillis;
+        coalesceDecrypts = builder.coalesceDecrypts;
+        dataKeyPoolSize = builder.dataKeyPoolSize;
+        dataKeyPoolMaxAgeMillis = builder.dataKeyPoolMaxAgeMillis;
+        dataKeyPoolExecutor = builder.dataKeyPoolExecutor;
+        maxCacheEntries = builder.maxCacheEntries;
+    }
+
+    /**
+     * Returns <code>true</code> if data keys may be reused to encrypt more than one record.
+     */
+    public boolean isEncryptionMaterialsCachingEnabled() {
+        return encryptionMaterialsMaxAgeMillis > 0 && encryptionMaterialsMaxItems > 1;
+    }
+
+    /**
+     * Returns the length of time in milliseconds for which a data key may be used for encryption.
+     */
+    public long getEncryptionMaterialsMaxAgeMillis() {
+        return encryptionMaterialsMaxAgeMillis;
+    }
+
+    /**
+     * Returns the maximum number of records which may be encrypted under the same data key.
+     */
+    public long getEncryptionMaterialsMaxItems() {
+        return encryptionMaterialsMaxItems;
+    }
+
+    /**
+     * Returns the maximum number of plaintext bytes which may be encrypted under the same data
+     * key. The size of a record is that of all of its attributes, whether encrypted or not.
+     */
+    public long getEncryptionMaterialsMaxBytes() {
+        return encryptionMaterialsMaxBytes;
+    }
+
+    /**
+     * Returns <code>true</code> if new records are encrypted under a KMS encryption context which
+     * leaves out their hash and range keys, so that a data key may be reused across items.
+     */
+    public boolean isTableScopedDataKeys() {
+        return tableScopedDataKeys;
+    }
+
+    /**
+     * Returns <code>true</code> if decrypted data keys may be reused to decrypt more than one
+     * record.
+     */
+    public boolean isDecryptionMaterialsCachingEnabled() {
+        return decryptionMaterialsTtlMillis > 0;
+    }
+
+    /**
+     * Returns the length of time in milliseconds for which a decrypted data key is kept.
+     */
+    public long getDecryptionMaterialsTtlMillis() {
+        return decryptionMaterialsTtlMillis;
+    }
+
+    /**
+     * Returns <code>true</code> if concurrent requests to decrypt the same data key share a single
+     * call to KMS.
+     */
+    public boolean isCoalesceDecrypts() {
+        return coalesceDecrypts;
+    }
+
+    /**
+     * Returns <code>true</code> if data keys are generated ahead of time.
+     */
+    public boolean isDataKeyPoolEnabled() {
+        return dataKeyPoolSize > 0;
+    }
+
+    /**
+     * Returns the number of data keys kept ready for each KMS encryption context.
+     */
+    public int getDataKeyPoolSize() {
+        return dataKeyPoolSize;
+    }
+
+    /**
+     * Returns the length of time in milliseconds for which a data key generated ahead of time may
+     * wait in the pool before it is discarded unused.
+     */
+    public long getDataKeyPoolMaxAgeMillis() {
+        return dataKeyPoolMaxAgeMillis;
+    }
+
+    /**
+     * Returns the executor used to generate data keys ahead of time, or <code>null</code> if the
+     * pool is disabled.
+     */
+    public Executor getDataKeyPoolExecutor() {
+        return dataKeyPoolExecutor;
+    }
+
+    /**
+     * Returns the maximum number of distinct KMS encryption contexts (or, for decryption, data
+     * keys) for which results are kept in each cache.
+     */
+    public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "DirectKmsCachingConfig [encryptionMaterialsMaxAgeMillis=" + encryptionMaterialsMaxAgeMillis
+                + ", encryptionMaterialsMaxItems=" + encryptionMaterialsMaxItems
+                + ", encryptionMaterialsMaxBytes=" + encryptionMaterialsMaxBytes
+                + ", tableScopedDataKeys=" + tableScopedDataKeys
+                + ", decryptionMaterialsTtlMillis=" + decryptionMaterialsTtlMillis
+                + ", coalesceDecrypts=" + coalesceDecrypts
+                + ", dataKeyPoolSize=" + dataKeyPoolSize
+                + ", dataKeyPoolMaxAgeMillis=" + dataKeyPoolMaxAgeMillis
+                + ", maxCacheEntries=" + maxCacheEntries + "]";
+    }
+
+    public static final class Builder {
+        private static final long DEFAULT_DATA_KEY_POOL_MAX_AGE_MILLIS = 60000;
+
+        private long encryptionMaterialsMaxAgeMillis = 0;
+        private long encryptionMaterialsMaxItems = Long.MAX_VALUE;
+        private long encryptionMaterialsMaxBytes = Long.MAX_VALUE;
+        private boolean tableScopedDataKeys = false;
+        private long decryptionMaterialsTtlMillis = 0;
+        private boolean coalesceDecrypts = false;
+        private int dataKeyPoolSize = 0;
+        private long dataKeyPoolMaxAgeMillis = DEFAULT_DATA_KEY_POOL_MAX_AGE_MILLIS;
+        private Executor dataKeyPoolExecutor = null;
+        private int maxCacheEntries = 1000;
+
+        /**
+         * Defaults to no caching at all.
+         */
+        public Builder() {
+        }
+
+        public DirectKmsCachingConfig build() {
+            return new DirectKmsCachingConfig(this);
+        }
+
+        /**
+         * Allows a data key to be reused for encryption for up to <code>maxAgeMillis</code>
+         * milliseconds after it was generated. As the KMS encryption context of each record
+         * includes its table name and keys, a data key is only ever reused for records with the
+         * same table name and keys, unless {@link #withTableScopedDataKeys(boolean)} is enabled.
+         * A value of zero (the default) disables reuse.
+         */
+        public Builder withEncryptionMaterialsMaxAgeMillis(long maxAgeMillis) {
+            this.encryptionMaterialsMaxAgeMillis = checkNotNegative(maxAgeMillis, "maxAgeMillis");
+            return this;
+        }
+
+        /**
+         * Limits the number of records encrypted under a single data key. Unlimited by default.
+         */
+        public Builder withEncryptionMaterialsMaxItems(long maxItems) {
+            this.encryptionMaterialsMaxItems = checkNotNegative(maxItems, "maxItems");
+            return this;
+        }
+
+        /**
+         * Limits the number of plaintext bytes encrypted under a single data key. Unlimited by
+         * default.
+         */
+        public Builder withEncryptionMaterialsMaxBytes(long maxBytes) {
+            this.encryptionMaterialsMaxBytes = checkNotNegative(maxBytes, "maxBytes");
+            return this;
+        }
+
+        /**
+         * When enabled, new records are encrypted under a KMS encryption context made of the
+         * table name and algorithms only, leaving out the record's hash and range keys, and the
+         * material description records this. Data keys reused under
+         * {@link #withEncryptionMaterialsMaxAgeMillis(long)}, or generated ahead of time by
+         * {@link #withDataKeyPool(int, Executor)}, can then be shared by every item written to a
+         * table rather than only by rewrites of the same item. Records are decrypted according
+         * to their material description whatever this setting, but versions of this library
+         * which predate it cannot decrypt records written with it. Disabled by default.
+         *
+         * This weakens what KMS enforces and records. KMS no longer binds a data key to a single
+         * item, so key policies and grants conditioned on the encryption context, and the
+         * encryption context logged by CloudTrail for each decrypt, can only distinguish tables,
+         * not items; and whoever is allowed to decrypt the data key of one item can decrypt every
+         * other item sharing it. The keys of a record remain covered by its signature when they
+         * are signed, so records still cannot be moved between items undetected.
+         */
+        public Builder withTableScopedDataKeys(boolean tableScopedDataKeys) {
+            this.tableScopedDataKeys = tableScopedDataKeys;
+            return this;
+        }
+
+        /**
+         * Keeps each data key decrypted by KMS, along with the keys derived from it, for up to
+         * <code>ttlMillis</code> milliseconds so that other records protected by the same data
+         * key (such as the same item being read again) can be decrypted without calling KMS. A
+         * value of zero (the default) disables caching.
+         */
+        public Builder withDecryptionMaterialsTtlMillis(long ttlMillis) {
+            this.decryptionMaterialsTtlMillis = checkNotNegative(ttlMillis, "ttlMillis");
+            return this;
+        }
+
+        /**
+         * When enabled, threads which need the same data key (under the same KMS encryption
+         * context) decrypted at the same time wait for and share the result of a single call to
+         * KMS, rather than each calling KMS. This avoids bursts of identical requests when a hot
+         * item is read by many threads at once, for instance just after a deployment or a call to
+         * {@link DirectKmsMaterialProvider#refresh()}. Disabled by default.
+         */
+        public Builder withCoalesceDecrypts(boolean coalesceDecrypts) {
+            this.coalesceDecrypts = coalesceDecrypts;
+            return this;
+        }
+
+        /**
+         * Keeps up to <code>poolSize</code> data keys generated ahead of time for each KMS
+         * encryption context which {@link DirectKmsMaterialProvider#getEncryptionMaterials} has
+         * been asked for more than once, so that new data keys for it rarely have to be waited
+         * for. The pool for a context is topped up by tasks submitted to <code>executor</code>
+         * whenever a key is taken from it; a call only waits on KMS if the pool is empty. Pooled
+         * data keys which have not been used within a minute are discarded. A pool size of zero
+         * (the default) disables the pool.
+         *
+         * As the KMS encryption context of each record includes its table name and keys, a
+         * pooled data key can only be used for a record with the same table name and keys as the
+         * one it was generated for. The pool therefore only helps when the same items are written
+         * over and over again, or when records are encrypted without their keys in the
+         * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext}.
+         * Contexts seen only once never have keys generated ahead of time, so that writing
+         * distinct items costs no more calls to KMS than without the pool.
+         *
+         * Pooled data keys are used just like freshly generated ones, including being reused
+         * within the limits set by the other options. Calls to
+         * {@link DirectKmsMaterialProvider#generateDataKey} made in the background receive the
+         * encryption context of the record which most recently took a key from the pool, minus
+         * all of its attributes other than the hash and range keys.
+         */
+        public Builder withDataKeyPool(int poolSize, Executor executor) {
+            return withDataKeyPool(poolSize, DEFAULT_DATA_KEY_POOL_MAX_AGE_MILLIS, executor);
+        }
+
+        /**
+         * As {@link #withDataKeyPool(int, Executor)}, but discards pooled data keys which have
+         * not been used within <code>maxAgeMillis</code> milliseconds of being generated.
+         */
+        public Builder withDataKeyPool(int poolSize, long maxAgeMillis, Executor executor) {
+            if (poolSize < 0) {
+                throw new IllegalArgumentException("poolSize must not be negative");
+            }
+            if (maxAgeMillis <= 0) {
+                throw new IllegalArgumentException("maxAgeMillis must be positive");
+            }
+            if (poolSize > 0 && executor == null) {
+                throw new NullPointerException("executor must not be null");
+            }
+            this.dataKeyPoolSize = poolSize;
+            this.dataKeyPoolMaxAgeMillis = maxAgeMillis;
+            this.dataKeyPoolExecutor = poolSize > 0 ? executor : null;
+            return this;
+        }
+
+        /**
+         * Limits the number of entries kept in each cache, after which the least recently used
+         * are discarded. Defaults to 1000.
+         */
+        public Builder withMaxCacheEntries(int maxCacheEntries) {
+            if (maxCacheEntries < 1) {
+                throw new IllegalArgumentException("maxCacheEntries " + maxCacheEntries + " must be at least 1");
+            }
+            this.maxCacheEntries = maxCacheEntries;
+            return this;
+        }
+
+        private static long checkNotNegative(long value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return value;
+        }
+    }
+}
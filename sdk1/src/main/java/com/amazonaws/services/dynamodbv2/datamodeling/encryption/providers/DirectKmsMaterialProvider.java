@@ -21,8 +21,10 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.Decry
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.SymmetricRawMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.WrappedRawMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Base64;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Hkdf;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.LRUCache;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.kms.AWSKMS;
 import com.amazonaws.services.kms.model.DecryptRequest;
@@ -31,6 +33,8 @@ import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
 import com.amazonaws.services.kms.model.GenerateDataKeyResult;
 import com.amazonaws.util.StringUtils;
 import com.amazonaws.util.VersionInfoUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -39,6 +43,16 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.WrappedRawMaterials.CONTENT_KEY_ALGORITHM;
 import static com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.WrappedRawMaterials.ENVELOPE_KEY;
@@ -50,6 +64,8 @@ import static com.amazonaws.services.dynamodbv2.datamodeling.encryption.material
  * included in the KMS EncryptionContext for wrapping/unwrapping the key. This
  * means that records cannot be copied/moved between tables without re-encryption.
  *
+ * Data keys can optionally be reused within limits; see {@link DirectKmsCachingConfig}.
+ *
  * @see <a href="http://docs.aws.amazon.com/kms/latest/developerguide/encrypt-context.html">KMS Encryption Context</a>
  */
 public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
@@ -63,9 +79,12 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
     private static final String DEFAULT_ENC_ALG = "AES/256";
     private static final String DEFAULT_SIG_ALG = "HmacSHA256/256";
     private static final String KEY_COVERAGE = "*keys*";
+    /** Coverage of records whose KMS encryption context leaves out their hash and range keys. */
+    private static final String TABLE_COVERAGE = "*table*";
     private static final String KDF_ALG = "HmacSHA256";
     private static final String KDF_SIG_INFO = "Signing";
     private static final String KDF_ENC_INFO = "Encryption";
+    private static final Log LOG = LogFactory.getLog(DirectKmsMaterialProvider.class);
 
     private final AWSKMS kms;
     private final String encryptionKeyId;
@@ -76,12 +95,34 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
     private final String sigKeyAlg;
     private final int sigKeyLength;
     private final String sigKeyDesc;
+    private final DirectKmsCachingConfig cachingConfig;
+    private final LRUCache<CachedDataKey> dataKeyCache;
+    private final AtomicLong dataKeyCacheHits = new AtomicLong();
+    private final AtomicLong dataKeyCacheMisses = new AtomicLong();
+    private final LRUCache<DecryptedDataKey> decryptedDataKeyCache;
+    private final AtomicLong decryptedDataKeyCacheHits = new AtomicLong();
+    private final AtomicLong decryptedDataKeyCacheMisses = new AtomicLong();
+    private final AtomicLong decryptedDataKeyCacheEvictions = new AtomicLong();
+    private final ConcurrentHashMap<String, CompletableFuture<DecryptedDataKey>> inFlightDecrypts;
+    private final AtomicLong coalescedDecrypts = new AtomicLong();
+    private final LRUCache<DataKeyPool> dataKeyPools;
+    private final AtomicLong dataKeyPoolDepth = new AtomicLong();
+    private final AtomicLong dataKeyPoolStalls = new AtomicLong();
 
     public DirectKmsMaterialProvider(AWSKMS kms) {
         this(kms, null);
     }
 
     public DirectKmsMaterialProvider(AWSKMS kms, String encryptionKeyId, Map<String, String> materialDescription) {
+        this(kms, encryptionKeyId, materialDescription, new DirectKmsCachingConfig.Builder().build());
+    }
+
+    /**
+     * @param cachingConfig
+     *            which results of calls to KMS may be reused
+     */
+    public DirectKmsMaterialProvider(AWSKMS kms, String encryptionKeyId, Map<String, String> materialDescription,
+            DirectKmsCachingConfig cachingConfig) {
         this.kms = kms;
         this.encryptionKeyId = encryptionKeyId;
         this.description = materialDescription != null ?
@@ -103,6 +144,30 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
         parts = sigKeyDesc.split("/", 2);
         this.sigKeyAlg = parts[0];
         this.sigKeyLength = parts.length == 2 ? Integer.parseInt(parts[1]) : 256;
+
+        this.cachingConfig = checkNotNull(cachingConfig, "cachingConfig must not be null");
+        this.dataKeyCache = cachingConfig.isEncryptionMaterialsCachingEnabled()
+                ? new LRUCache<CachedDataKey>(cachingConfig.getMaxCacheEntries()) : null;
+        this.decryptedDataKeyCache = cachingConfig.isDecryptionMaterialsCachingEnabled()
+                ? new LRUCache<DecryptedDataKey>(cachingConfig.getMaxCacheEntries(),
+                        new LRUCache.RemovalListener<DecryptedDataKey>() {
+                            @Override
+                            public void onRemoval(Map.Entry<String, DecryptedDataKey> entry) {
+                                decryptedDataKeyCacheEvictions.incrementAndGet();
+                            }
+                        })
+                : null;
+        this.inFlightDecrypts = cachingConfig.isCoalesceDecrypts()
+                ? new ConcurrentHashMap<String, CompletableFuture<DecryptedDataKey>>() : null;
+        this.dataKeyPools = cachingConfig.isDataKeyPoolEnabled()
+                ? new LRUCache<DataKeyPool>(cachingConfig.getMaxCacheEntries(),
+                        new LRUCache.RemovalListener<DataKeyPool>() {
+                            @Override
+                            public void onRemoval(Map.Entry<String, DataKeyPool> entry) {
+                                entry.getValue().drain();
+                            }
+                        })
+                : null;
     }
 
     public DirectKmsMaterialProvider(AWSKMS kms, String encryptionKeyId) {
@@ -120,13 +185,76 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
         ec.put("*" + CONTENT_KEY_ALGORITHM + "*", providedEncAlg);
         ec.put("*" + SIGNING_KEY_ALGORITHM + "*", providedSigAlg);
 
-        populateKmsEcFromEc(context, ec);
+        populateKmsEcFromEc(context, ec, !TABLE_COVERAGE.equals(materialDescription.get(COVERED_ATTR_CTX_KEY)));
+
+        final String envelopeKey = materialDescription.get(ENVELOPE_KEY);
+        final String cacheKey = decryptedDataKeyCache != null || inFlightDecrypts != null
+                ? buildCacheKey(envelopeKey, ec) : null;
+        DecryptedDataKey dataKey = null;
+        if (decryptedDataKeyCache != null) {
+            final DecryptedDataKey cached = decryptedDataKeyCache.get(cacheKey);
+            if (cached != null && !cached.isExpired()) {
+                decryptedDataKeyCacheHits.incrementAndGet();
+                dataKey = cached;
+            } else {
+                decryptedDataKeyCacheMisses.incrementAndGet();
+            }
+        }
+        if (dataKey == null) {
+            dataKey = inFlightDecrypts != null
+                    ? coalescedDecryptDataKey(cacheKey, envelopeKey, ec, context)
+                    : decryptDataKey(envelopeKey, ec, context);
+            if (decryptedDataKeyCache != null) {
+                decryptedDataKeyCache.add(cacheKey, dataKey);
+            }
+        }
+        // Validation may depend on the record, so it is repeated for every one
+        validateEncryptionKeyId(dataKey.keyId, context);
+        return dataKey.toMaterials(materialDescription);
+    }
+
+    /**
+     * As {@link #decryptDataKey(String, Map, EncryptionContext)}, except that concurrent calls
+     * with the same <code>cacheKey</code> share the result of the first.
+     */
+    private DecryptedDataKey coalescedDecryptDataKey(final String cacheKey, final String envelopeKey,
+            final Map<String, String> ec, final EncryptionContext context) {
+        final CompletableFuture<DecryptedDataKey> future = new CompletableFuture<>();
+        final CompletableFuture<DecryptedDataKey> inFlight = inFlightDecrypts.putIfAbsent(cacheKey, future);
+        if (inFlight != null) {
+            coalescedDecrypts.incrementAndGet();
+            try {
+                return inFlight.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                } else if (ex.getCause() instanceof Error) {
+                    throw (Error) ex.getCause();
+                }
+                throw new DynamoDBMappingException(ex.getCause());
+            }
+        }
+        try {
+            final DecryptedDataKey result = decryptDataKey(envelopeKey, ec, context);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightDecrypts.remove(cacheKey, future);
+        }
+    }
+
+    private DecryptedDataKey decryptDataKey(final String envelopeKey, final Map<String, String> ec,
+            final EncryptionContext context) {
+        final String providedEncAlg = ec.get("*" + CONTENT_KEY_ALGORITHM + "*");
+        final String providedSigAlg = ec.get("*" + SIGNING_KEY_ALGORITHM + "*");
 
         DecryptRequest request = appendUserAgent(new DecryptRequest());
-        request.setCiphertextBlob(ByteBuffer.wrap(Base64.decode(materialDescription.get(ENVELOPE_KEY))));
+        request.setCiphertextBlob(ByteBuffer.wrap(Base64.decode(envelopeKey)));
         request.setEncryptionContext(ec);
         final DecryptResult decryptResult = decrypt(request, context);
-        validateEncryptionKeyId(decryptResult.getKeyId(), context);
 
         final Hkdf kdf;
         try {
@@ -144,7 +272,81 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
         final SecretKey encryptionKey = new SecretKeySpec(kdf.deriveKey(KDF_ENC_INFO, encLength / 8), encAlgParts[0]);
         final SecretKey macKey = new SecretKeySpec(kdf.deriveKey(KDF_SIG_INFO, sigLength / 8), sigAlgParts[0]);
 
-        return new SymmetricRawMaterials(encryptionKey, macKey, materialDescription);
+        return new DecryptedDataKey(encryptionKey, macKey, decryptResult.getKeyId());
+    }
+
+    /**
+     * Returns the number of times {@link #getEncryptionMaterials(EncryptionContext)} reused a
+     * cached data key.
+     */
+    public long getDataKeyCacheHits() {
+        return dataKeyCacheHits.get();
+    }
+
+    /**
+     * Returns the number of times {@link #getEncryptionMaterials(EncryptionContext)} had to
+     * generate a new data key while caching was enabled.
+     */
+    public long getDataKeyCacheMisses() {
+        return dataKeyCacheMisses.get();
+    }
+
+    /**
+     * Returns the number of times {@link #getDecryptionMaterials(EncryptionContext)} reused a
+     * cached decrypted data key.
+     */
+    public long getDecryptedDataKeyCacheHits() {
+        return decryptedDataKeyCacheHits.get();
+    }
+
+    /**
+     * Returns the number of times {@link #getDecryptionMaterials(EncryptionContext)} had to call
+     * KMS while caching was enabled.
+     */
+    public long getDecryptedDataKeyCacheMisses() {
+        return decryptedDataKeyCacheMisses.get();
+    }
+
+    /**
+     * Returns the number of decrypted data keys removed from the cache, either to make room for
+     * others or by {@link #refresh()}.
+     */
+    public long getDecryptedDataKeyCacheEvictions() {
+        return decryptedDataKeyCacheEvictions.get();
+    }
+
+    /**
+     * Returns the number of decrypted data keys currently cached.
+     */
+    public int getDecryptedDataKeyCacheSize() {
+        return decryptedDataKeyCache != null ? decryptedDataKeyCache.size() : 0;
+    }
+
+    /**
+     * Returns the number of times {@link #getDecryptionMaterials(EncryptionContext)} shared the
+     * result of a call to KMS made by another thread, rather than making its own.
+     */
+    public long getCoalescedDecrypts() {
+        return coalescedDecrypts.get();
+    }
+
+    /**
+     * Returns the number of data keys generated ahead of time and not yet used, across all pools.
+     */
+    public long getDataKeyPoolDepth() {
+        return dataKeyPoolDepth.get();
+    }
+
+    /**
+     * Returns the number of times {@link #getEncryptionMaterials(EncryptionContext)} found the
+     * data key pool empty and had to wait for KMS.
+     */
+    public long getDataKeyPoolStalls() {
+        return dataKeyPoolStalls.get();
+    }
+
+    public DirectKmsCachingConfig getCachingConfig() {
+        return cachingConfig;
     }
 
     @Override
@@ -152,25 +354,47 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
         final Map<String, String> ec = new HashMap<>();
         ec.put("*" + CONTENT_KEY_ALGORITHM + "*", dataKeyDesc);
         ec.put("*" + SIGNING_KEY_ALGORITHM + "*", sigKeyDesc);
-        populateKmsEcFromEc(context, ec);
+        populateKmsEcFromEc(context, ec, !cachingConfig.isTableScopedDataKeys());
 
         final String keyId = selectEncryptionKeyId(context);
         if (StringUtils.isNullOrEmpty(keyId)) {
             throw new DynamoDBMappingException("Encryption key id is empty.");
         }
+        final String cacheKey = dataKeyCache != null || dataKeyPools != null ? buildCacheKey(keyId, ec) : null;
+        if (dataKeyCache == null) {
+            return generateEncryptionMaterials(keyId, ec, context, cacheKey);
+        }
 
-        final GenerateDataKeyRequest req = appendUserAgent(new GenerateDataKeyRequest());
-        req.setKeyId(keyId);
-        // NumberOfBytes parameter is used because we're not using this key as an AES-256 key,
-        // we're using it as an HKDF-SHA256 key.
-        req.setNumberOfBytes(256 / 8);
-        req.setEncryptionContext(ec);
+        final CachedDataKey cached = dataKeyCache.get(cacheKey);
+        if (cached != null && cached.tryUse(context)) {
+            dataKeyCacheHits.incrementAndGet();
+            return cached.materials;
+        }
+        dataKeyCacheMisses.incrementAndGet();
+        final CachedDataKey fresh = new CachedDataKey(generateEncryptionMaterials(keyId, ec, context, cacheKey));
+        if (fresh.tryUse(context)) {
+            dataKeyCache.add(cacheKey, fresh);
+        }
+        return fresh.materials;
+    }
 
-        final GenerateDataKeyResult dataKeyResult = generateDataKey(req, context);
+    private SymmetricRawMaterials generateEncryptionMaterials(final String keyId, final Map<String, String> ec,
+            final EncryptionContext context, final String cacheKey) {
+        GenerateDataKeyResult dataKeyResult = null;
+        if (dataKeyPools != null) {
+            dataKeyResult = getDataKeyPool(cacheKey, keyId, ec).take(context);
+            if (dataKeyResult == null) {
+                dataKeyPoolStalls.incrementAndGet();
+            }
+        }
+        if (dataKeyResult == null) {
+            dataKeyResult = generateDataKey(newGenerateDataKeyRequest(keyId, ec), context);
+        }
 
         final Map<String, String> materialDescription = new HashMap<>();
         materialDescription.putAll(description);
-        materialDescription.put(COVERED_ATTR_CTX_KEY, KEY_COVERAGE);
+        materialDescription.put(COVERED_ATTR_CTX_KEY,
+                cachingConfig.isTableScopedDataKeys() ? TABLE_COVERAGE : KEY_COVERAGE);
         materialDescription.put(KEY_WRAPPING_ALGORITHM, "kms");
         materialDescription.put(CONTENT_KEY_ALGORITHM, dataKeyDesc);
         materialDescription.put(SIGNING_KEY_ALGORITHM, sigKeyDesc);
@@ -190,6 +414,43 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
         return new SymmetricRawMaterials(encryptionKey, signatureKey, materialDescription);
     }
 
+    private static GenerateDataKeyRequest newGenerateDataKeyRequest(final String keyId, final Map<String, String> ec) {
+        final GenerateDataKeyRequest req = appendUserAgent(new GenerateDataKeyRequest());
+        req.setKeyId(keyId);
+        // NumberOfBytes parameter is used because we're not using this key as an AES-256 key,
+        // we're using it as an HKDF-SHA256 key.
+        req.setNumberOfBytes(256 / 8);
+        req.setEncryptionContext(ec);
+        return req;
+    }
+
+    private DataKeyPool getDataKeyPool(final String cacheKey, final String keyId, final Map<String, String> ec) {
+        synchronized (dataKeyPools) {
+            DataKeyPool pool = dataKeyPools.get(cacheKey);
+            if (pool == null) {
+                pool = new DataKeyPool(keyId, ec);
+                dataKeyPools.add(cacheKey, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Returns a copy of <code>context</code> without any attributes other than the hash and range
+     * keys, so that pools do not hold on to record contents.
+     */
+    private static EncryptionContext keysOnly(final EncryptionContext context) {
+        final Map<String, AttributeValue> keys = new HashMap<>();
+        if (context.getAttributeValues() != null) {
+            for (String name : new String[] {context.getHashKeyName(), context.getRangeKeyName()}) {
+                if (name != null && context.getAttributeValues().containsKey(name)) {
+                    keys.put(name, context.getAttributeValues().get(name));
+                }
+            }
+        }
+        return new EncryptionContext.Builder(context).withAttributeValues(keys).build();
+    }
+
     /**
      * Get encryption key id that is used to create the {@link EncryptionMaterials}.
      *
@@ -262,8 +523,20 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
      * <dd>{@code RangeKeyValue}</dd>
      * <dt>{@link #TABLE_NAME_EC_KEY}</dt>
      * <dd>{@code TableName}</dd>
+     * The hash and range keys are left out unless {@code includeKeys} is set.
      */
-    private static void populateKmsEcFromEc(EncryptionContext context, Map<String, String> kmsEc) {
+    private static void populateKmsEcFromEc(EncryptionContext context, Map<String, String> kmsEc,
+            boolean includeKeys) {
+        if (includeKeys) {
+            populateKmsEcFromKeys(context, kmsEc);
+        }
+        final String tableName = context.getTableName();
+        if (tableName != null) {
+            kmsEc.put(TABLE_NAME_EC_KEY, tableName);
+        }
+    }
+
+    private static void populateKmsEcFromKeys(EncryptionContext context, Map<String, String> kmsEc) {
         final String hashKeyName = context.getHashKeyName();
         if (hashKeyName != null) {
             final AttributeValue hashKey = context.getAttributeValues().get(hashKeyName);
@@ -290,10 +563,44 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
                 throw new UnsupportedOperationException("DirectKmsMaterialProvider only supports String, Number, and Binary RangeKeys");
             }
         }
+    }
 
-        final String tableName = context.getTableName();
-        if (tableName != null) {
-            kmsEc.put(TABLE_NAME_EC_KEY, tableName);
+    /**
+     * Builds an unambiguous cache key from the KMS key id and encryption context.
+     */
+    private static String buildCacheKey(final String keyId, final Map<String, String> ec) {
+        final StringBuilder result = new StringBuilder();
+        appendCacheKeyPart(result, keyId);
+        for (Map.Entry<String, String> entry : new TreeMap<>(ec).entrySet()) {
+            appendCacheKeyPart(result, entry.getKey());
+            appendCacheKeyPart(result, entry.getValue());
+        }
+        return result.toString();
+    }
+
+    private static void appendCacheKeyPart(final StringBuilder sb, final String part) {
+        if (part == null) {
+            sb.append("-1:");
+        } else {
+            sb.append(part.length()).append(':').append(part);
+        }
+    }
+
+    private static long getSize(final EncryptionContext context) {
+        long result = 0;
+        if (context.getAttributeValues() != null) {
+            for (AttributeValue value : context.getAttributeValues().values()) {
+                result += AttributeValueMarshaller.getMarshalledSize(value);
+            }
+        }
+        return result;
+    }
+
+    private static <V> V checkNotNull(final V ref, final String errMsg) {
+        if (ref == null) {
+            throw new NullPointerException(errMsg);
+        } else {
+            return ref;
         }
     }
 
@@ -309,8 +616,169 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
         return request;
     }
 
+    /**
+     * Discards all cached data keys.
+     */
     @Override
     public void refresh() {
-        // No action needed
+        if (dataKeyCache != null) {
+            dataKeyCache.clear();
+        }
+        if (decryptedDataKeyCache != null) {
+            decryptedDataKeyCache.clear();
+        }
+        if (dataKeyPools != null) {
+            dataKeyPools.clear();
+        }
+    }
+
+    /**
+     * Data keys generated ahead of time for a single KMS encryption context. Nothing is generated
+     * until the context has been asked for a second time.
+     */
+    private final class DataKeyPool {
+        private final String keyId;
+        private final Map<String, String> ec;
+        private final ConcurrentLinkedQueue<PooledDataKey> dataKeys = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        private final AtomicBoolean reused = new AtomicBoolean();
+        private volatile EncryptionContext context;
+        private volatile boolean drained = false;
+
+        DataKeyPool(String keyId, Map<String, String> ec) {
+            this.keyId = keyId;
+            this.ec = ec;
+        }
+
+        /**
+         * Returns a pooled data key, or <code>null</code> if there are none left, and starts
+         * topping up the pool if this is not the first time it was asked.
+         */
+        GenerateDataKeyResult take(EncryptionContext recordContext) {
+            PooledDataKey result;
+            while ((result = dataKeys.poll()) != null) {
+                size.decrementAndGet();
+                dataKeyPoolDepth.decrementAndGet();
+                if (!result.isExpired()) {
+                    break;
+                }
+            }
+            context = keysOnly(recordContext);
+            if (reused.getAndSet(true)) {
+                refill();
+            }
+            return result != null ? result.dataKey : null;
+        }
+
+        /**
+         * Discards all pooled data keys and stops any further refills.
+         */
+        void drain() {
+            drained = true;
+            while (dataKeys.poll() != null) {
+                size.decrementAndGet();
+                dataKeyPoolDepth.decrementAndGet();
+            }
+        }
+
+        private void refill() {
+            if (drained || size.get() >= cachingConfig.getDataKeyPoolSize() || !refilling.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                cachingConfig.getDataKeyPoolExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (!drained && size.get() < cachingConfig.getDataKeyPoolSize()) {
+                                dataKeys.add(new PooledDataKey(
+                                        generateDataKey(newGenerateDataKeyRequest(keyId, ec), context)));
+                                size.incrementAndGet();
+                                dataKeyPoolDepth.incrementAndGet();
+                            }
+                        } catch (RuntimeException ex) {
+                            // Callers will generate their own data keys and retry the refill
+                            LOG.warn("Unable to generate data keys ahead of time under " + keyId, ex);
+                        } finally {
+                            refilling.set(false);
+                        }
+                        if (drained) {
+                            drain();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                refilling.set(false);
+            }
+        }
+    }
+
+    /**
+     * A data key waiting in a {@link DataKeyPool}.
+     */
+    private final class PooledDataKey {
+        private final GenerateDataKeyResult dataKey;
+        private final long created = System.nanoTime();
+
+        PooledDataKey(GenerateDataKeyResult dataKey) {
+            this.dataKey = dataKey;
+        }
+
+        boolean isExpired() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - created) >= cachingConfig.getDataKeyPoolMaxAgeMillis();
+        }
+    }
+
+    /**
+     * The keys derived from a data key decrypted by KMS.
+     */
+    private final class DecryptedDataKey {
+        private final SecretKey encryptionKey;
+        private final SecretKey macKey;
+        private final String keyId;
+        private final long created = System.nanoTime();
+
+        DecryptedDataKey(SecretKey encryptionKey, SecretKey macKey, String keyId) {
+            this.encryptionKey = encryptionKey;
+            this.macKey = macKey;
+            this.keyId = keyId;
+        }
+
+        boolean isExpired() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - created) >= cachingConfig.getDecryptionMaterialsTtlMillis();
+        }
+
+        SymmetricRawMaterials toMaterials(Map<String, String> materialDescription) {
+            return new SymmetricRawMaterials(encryptionKey, macKey, materialDescription);
+        }
+    }
+
+    /**
+     * Encryption materials along with how much they have been used.
+     */
+    private final class CachedDataKey {
+        private final SymmetricRawMaterials materials;
+        private final long created = System.nanoTime();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        CachedDataKey(SymmetricRawMaterials materials) {
+            this.materials = materials;
+        }
+
+        /**
+         * Records one more record, returning <code>false</code> if that would exceed the limits,
+         * in which case this data key must not be used again. The record is only sized if there
+         * is a limit on bytes and the other limits still allow it.
+         */
+        boolean tryUse(EncryptionContext context) {
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - created) >= cachingConfig.getEncryptionMaterialsMaxAgeMillis()
+                    || items.incrementAndGet() > cachingConfig.getEncryptionMaterialsMaxItems()) {
+                return false;
+            }
+            return cachingConfig.getEncryptionMaterialsMaxBytes() == Long.MAX_VALUE
+                    || bytes.addAndGet(getSize(context)) <= cachingConfig.getEncryptionMaterialsMaxBytes();
+        }
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * Thrown by a {@link DeadlineMaterialsProvider} when materials could not be retrieved in time,
+ * either because the underlying provider did not return before the deadline or because there was
+ * no capacity to call it.
+ */
+public class MaterialsTimeoutException extends AmazonClientException {
+    private static final long serialVersionUID = 1L;
+
+    public MaterialsTimeoutException(final String message) {
+        super(message);
+    }
+
+    public MaterialsTimeoutException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
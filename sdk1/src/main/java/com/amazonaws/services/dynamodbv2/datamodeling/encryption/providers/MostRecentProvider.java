@@ -12,29 +12,62 @@
  */
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore;
-import com.amazonaws.services.dynamodbv2.datamodeling.internal.LRUCache;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore.ScheduledProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.ConcurrentLRUCache;
 
 /**
  * This meta-Provider encrypts data with the most recent version of keying materials from a
  * {@link ProviderStore} and decrypts using whichever version is appropriate. It also caches the
- * results from the {@link ProviderStore} to avoid excessive load on the backing systems. The cache
- * is not currently configurable.
+ * results from the {@link ProviderStore} to avoid excessive load on the backing systems. The size
+ * of the cache, and how long old versions are kept, may be set with a
+ * {@link MostRecentProviderConfig}.
+ *
+ * By default, the first call to {@link #getEncryptionMaterials(EncryptionContext)} after the TTL
+ * has passed checks for a new version while other callers carry on with the current one. A
+ * {@link MostRecentProviderConfig} may instead move these checks onto a background executor, and
+ * may have the provider rotate to a new version on a schedule.
  */
 public class MostRecentProvider implements EncryptionMaterialsProvider {
+    private static final Log LOG = LogFactory.getLog(MostRecentProvider.class);
     private static final long MILLI_TO_NANO = 1000000L;
     private static final long TTL_GRACE_IN_NANO = 500 * MILLI_TO_NANO;
+    private static final long FAILED_CHECK_RETRY_IN_NANO = 500 * MILLI_TO_NANO;
     private final ProviderStore keystore;
     protected final String defaultMaterialName;
     private final long ttlInNanos;
-    private final LRUCache<EncryptionMaterialsProvider> cache;
-    private final LRUCache<LockedState> currentVersions;
+    private final MostRecentProviderConfig config;
+    private final long rotationLeadTimeMillis;
+    private final long maxStalenessNanos;
+    /** Age past which callers wait for the current provider to be updated. */
+    private final long maxAgeNanos;
+    private final ConcurrentLRUCache<EncryptionMaterialsProvider> cache;
+    private final ConcurrentLRUCache<LockedState> currentVersions;
+    /** Messages of the failures for versions which do not exist, or null if these aren't kept. */
+    private final ConcurrentLRUCache<String> missingVersions;
 
     /**
      * Creates a new {@link MostRecentProvider}.
@@ -43,11 +76,41 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
      *            The length of time in milliseconds to cache the most recent provider
      */
     public MostRecentProvider(final ProviderStore keystore, final String materialName, final long ttlInMillis) {
+        this(keystore, materialName, ttlInMillis, new MostRecentProviderConfig.Builder().build());
+    }
+
+    /**
+     * Creates a new {@link MostRecentProvider} with the given optional settings.
+     * 
+     * @param ttlInMillis
+     *            The length of time in milliseconds to cache the most recent provider
+     */
+    public MostRecentProvider(final ProviderStore keystore, final String materialName, final long ttlInMillis,
+            final MostRecentProviderConfig config) {
         this.keystore = checkNotNull(keystore, "keystore must not be null");
         this.defaultMaterialName = materialName;
         this.ttlInNanos = ttlInMillis * MILLI_TO_NANO;
-        this.cache = new LRUCache<EncryptionMaterialsProvider>(1000);
-        this.currentVersions = new LRUCache<>(1000);
+        this.config = checkNotNull(config, "config must not be null");
+        this.rotationLeadTimeMillis = config.getRotationLeadTimeMillis() > 0
+                ? config.getRotationLeadTimeMillis() : 2 * ttlInMillis;
+        if (config.getRotationPeriodMillis() > 0 && rotationLeadTimeMillis <= ttlInMillis) {
+            throw new IllegalArgumentException("rotationLeadTimeMillis must be longer than the TTL");
+        }
+        if (config.getRotationPeriodMillis() > 0 && !keystore.supportsActivationTimes()) {
+            throw new IllegalArgumentException(
+                    "rotationPeriodMillis requires a keystore which supports activation times");
+        }
+        this.cache = new ConcurrentLRUCache.Builder<EncryptionMaterialsProvider>(config.getMaxCacheEntries())
+                .withExpireAfterWriteMillis(config.getCacheTtlMillis())
+                .build();
+        this.currentVersions = new ConcurrentLRUCache.Builder<LockedState>(config.getMaxCacheEntries()).build();
+        this.maxStalenessNanos = config.getMaxStalenessMillis() * MILLI_TO_NANO;
+        this.maxAgeNanos = ttlInNanos + (maxStalenessNanos > 0 ? maxStalenessNanos : TTL_GRACE_IN_NANO);
+        this.missingVersions = config.getNegativeCacheTtlMillis() > 0
+                ? new ConcurrentLRUCache.Builder<String>(config.getMaxCacheEntries())
+                        .withExpireAfterWriteMillis(config.getNegativeCacheTtlMillis())
+                        .build()
+                : null;
     }
 
     @Override
@@ -56,44 +119,38 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
         final LockedState ls = getCurrentVersion(materialName);
 
         final State s = ls.getState();
+        if (s.provider != null && ls.isRefreshScheduled() && System.nanoTime() - s.lastUpdated <= maxAgeNanos) {
+            // A background task keeps this up to date. If its checks have been failing for longer
+            // than that, fall through and check here instead.
+            return s.getActiveProvider().getEncryptionMaterials(context);
+        }
+        if (s.provider == null && config.getRefreshExecutor() != null) {
+            return loadAndScheduleRefresh(materialName, ls).getActiveProvider().getEncryptionMaterials(context);
+        }
         if (s.provider != null && System.nanoTime() - s.lastUpdated <= ttlInNanos) {
-            return s.provider.getEncryptionMaterials(context);
+            return s.getActiveProvider().getEncryptionMaterials(context);
         }
-        if (s.provider == null || System.nanoTime() - s.lastUpdated > ttlInNanos + TTL_GRACE_IN_NANO) {
-            // Either we don't have a provider at all, or we're more than 500 milliseconds past
-            // our update time. Either way, grab the lock and force an update.
+        if (s.provider == null || System.nanoTime() - s.lastUpdated > maxAgeNanos) {
+            // Either we don't have a provider at all, or we're more than 500 milliseconds (or the
+            // max staleness) past our update time. Either way, grab the lock and force an update.
             ls.lock();
-        } else if (!ls.tryLock()) {
-            // If we can't get the lock immediately, just use the current provider
-            return s.provider.getEncryptionMaterials(context);
+        } else if (ls.isBackingOff() || !ls.tryLock()) {
+            // If a check has just failed, or we can't get the lock immediately, just use the
+            // current provider
+            return s.getActiveProvider().getEncryptionMaterials(context);
         }
 
         try {
-            final long newVersion = keystore.getMaxVersion(materialName);
-            final long currentVersion;
-            final EncryptionMaterialsProvider currentProvider;
-            if (newVersion < 0) {
-                // First version of the material, so we want to allow creation
-                currentVersion = 0;
-                currentProvider = keystore.getOrCreate(materialName, currentVersion);
-                cache.add(buildCacheKey(materialName, currentVersion), currentProvider);
-            } else if (newVersion != s.currentVersion) {
-                // We're retrieving an existing version, so we avoid the creation
-                // flow as it is slower
-                currentVersion = newVersion;
-                currentProvider = keystore.getProvider(materialName, currentVersion);
-                cache.add(buildCacheKey(materialName, currentVersion), currentProvider);
-            } else {
-                // Our version hasn't changed, so we'll just re-use the existing
-                // provider to avoid the overhead of retrieving and building a new one
-                currentVersion = newVersion;
-                currentProvider = s.provider;
-                // There is no need to add this to the cache as it's already there
+            return updateState(materialName, ls).getActiveProvider().getEncryptionMaterials(context);
+        } catch (RuntimeException ex) {
+            final State current = ls.getState();
+            if (maxStalenessNanos == 0 || current.provider == null || isTooStale(current)) {
+                throw ex;
             }
-
-            ls.update(currentProvider, currentVersion);
-
-            return ls.getState().provider.getEncryptionMaterials(context);
+            ls.backOff(FAILED_CHECK_RETRY_IN_NANO);
+            LOG.warn("Unable to check for a new version of " + materialName + ", continuing with version "
+                    + current.getActiveVersion(), ex);
+            return current.getActiveProvider().getEncryptionMaterials(context);
         } finally {
             ls.unlock();
         }
@@ -105,19 +162,222 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
                 context.getMaterialDescription());
         EncryptionMaterialsProvider provider = cache.get(buildCacheKey(materialName, version));
         if (provider == null) {
-            provider = keystore.getProvider(materialName, version);
+            checkNotMissing(materialName, version);
+            try {
+                provider = keystore.getProvider(materialName, version);
+            } catch (IndexOutOfBoundsException ex) {
+                rememberMissing(materialName, version, ex);
+                throw ex;
+            }
             cache.add(buildCacheKey(materialName, version), provider);
         }
         return provider.getDecryptionMaterials(context);
     }
 
     /**
-     * Completely empties the cache of both the current and old versions.
+     * Asynchronous form of {@link #getDecryptionMaterials(EncryptionContext)}. If the version
+     * needed is not already cached, it is retrieved with
+     * {@link ProviderStore#getProviderAsync(String, long)}, so the calling thread is not blocked
+     * if the {@link ProviderStore} supports asynchronous retrieval.
+     */
+    public CompletableFuture<DecryptionMaterials> getDecryptionMaterialsAsync(final EncryptionContext context) {
+        final String materialName;
+        final long version;
+        final EncryptionMaterialsProvider cached;
+        try {
+            materialName = getMaterialName(context);
+            version = keystore.getVersionFromMaterialDescription(context.getMaterialDescription());
+            cached = cache.get(buildCacheKey(materialName, version));
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached.getDecryptionMaterials(context));
+            }
+            checkNotMissing(materialName, version);
+        } catch (final RuntimeException ex) {
+            final CompletableFuture<DecryptionMaterials> result = new CompletableFuture<>();
+            result.completeExceptionally(ex);
+            return result;
+        }
+        return keystore.getProviderAsync(materialName, version).whenComplete((provider, ex) -> {
+            if (ex != null) {
+                rememberMissing(materialName, version,
+                        ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }
+        }).thenApply(provider -> {
+            cache.add(buildCacheKey(materialName, version), provider);
+            return provider.getDecryptionMaterials(context);
+        });
+    }
+
+    /**
+     * Retrieves the newest <code>lastNVersions</code> versions of <code>materialName</code> from
+     * the {@link ProviderStore} and caches them, so that records protected by recent versions can
+     * be decrypted without waiting on the store. Unless versions are rotated on a schedule, the
+     * newest version also becomes the current version used for encryption, as if it had just been
+     * checked for, so encryption does not wait on the store until the TTL has passed. With
+     * scheduled rotation the current version depends on activation times, which are not
+     * retrieved here, so the first encryption still checks the store. This is meant to be called
+     * before a newly started service takes traffic. The versions are retrieved together with
+     * {@link ProviderStore#getProviders(String, Collection)}. Versions which do not exist are
+     * skipped.
+     *
+     * @return the number of versions cached
+     */
+    public int preload(final String materialName, final int lastNVersions) {
+        if (lastNVersions < 1) {
+            throw new IllegalArgumentException("lastNVersions must be at least 1");
+        }
+        final long maxVersion = keystore.getMaxVersion(materialName);
+        final List<Long> versions = new ArrayList<>();
+        for (long version = maxVersion; version >= 0 && version > maxVersion - lastNVersions; version--) {
+            versions.add(version);
+        }
+        final Map<Long, EncryptionMaterialsProvider> providers = cacheProviders(materialName, versions);
+        final EncryptionMaterialsProvider newest = providers.get(maxVersion);
+        if (newest != null && config.getRotationPeriodMillis() <= 0) {
+            final LockedState ls = getCurrentVersion(materialName);
+            ls.lock();
+            try {
+                // Don't go back to this version if a caller has already found a newer one
+                if (ls.getState().currentVersion < maxVersion) {
+                    ls.update(newest, maxVersion);
+                }
+                if (config.getRefreshExecutor() != null && !ls.isRefreshScheduled()) {
+                    scheduleRefresh(materialName, ls);
+                }
+            } finally {
+                ls.unlock();
+            }
+        }
+        return providers.size();
+    }
+
+    /**
+     * Returns the decryption materials for each of <code>contexts</code>, in order, as
+     * {@link #getDecryptionMaterials(EncryptionContext)} would. Versions which are not already
+     * cached are first retrieved together, with one call to
+     * {@link ProviderStore#getProviders(String, Collection)} per material, rather than one at a
+     * time. This suits decrypting a page of query or scan results written under many versions.
+     *
+     * The result is all or nothing: if any version does not exist, or cannot be retrieved, this
+     * throws as {@link #getDecryptionMaterials(EncryptionContext)} would and no materials are
+     * returned. The versions which were retrieved remain cached, so callers which need the rest of
+     * the batch can decrypt the other records individually without going back to the store.
+     */
+    public List<DecryptionMaterials> getDecryptionMaterials(final List<EncryptionContext> contexts) {
+        final Map<String, Set<Long>> missing = new HashMap<>();
+        final List<String> cacheKeys = new ArrayList<>(contexts.size());
+        for (final EncryptionContext context : contexts) {
+            final String materialName = getMaterialName(context);
+            final long version = keystore.getVersionFromMaterialDescription(context.getMaterialDescription());
+            final String cacheKey = buildCacheKey(materialName, version);
+            cacheKeys.add(cacheKey);
+            if (cache.peek(cacheKey) == null
+                    && (missingVersions == null || missingVersions.peek(cacheKey) == null)) {
+                missing.computeIfAbsent(materialName, name -> new HashSet<>()).add(version);
+            }
+        }
+        final Set<String> notFound = new HashSet<>();
+        for (final Map.Entry<String, Set<Long>> entry : missing.entrySet()) {
+            final Map<Long, EncryptionMaterialsProvider> providers = cacheProviders(entry.getKey(), entry.getValue());
+            for (final Long version : entry.getValue()) {
+                if (!providers.containsKey(version)) {
+                    notFound.add(buildCacheKey(entry.getKey(), version));
+                }
+            }
+        }
+        // Fail before any materials are built, and without asking the store again for versions it
+        // has just said don't exist
+        for (final String cacheKey : cacheKeys) {
+            if (notFound.contains(cacheKey)) {
+                throw new IndexOutOfBoundsException("No material found: " + cacheKey);
+            }
+        }
+        final List<DecryptionMaterials> result = new ArrayList<>(contexts.size());
+        for (final EncryptionContext context : contexts) {
+            result.add(getDecryptionMaterials(context));
+        }
+        return result;
+    }
+
+    private Map<Long, EncryptionMaterialsProvider> cacheProviders(final String materialName,
+            final Collection<Long> versions) {
+        if (versions.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<Long, EncryptionMaterialsProvider> providers = keystore.getProviders(materialName, versions);
+        for (final Map.Entry<Long, EncryptionMaterialsProvider> entry : providers.entrySet()) {
+            cache.add(buildCacheKey(materialName, entry.getKey()), entry.getValue());
+        }
+        for (final Long version : versions) {
+            if (!providers.containsKey(version)) {
+                rememberMissing(materialName, version,
+                        new IndexOutOfBoundsException("No material found: " + materialName + "#" + version));
+            }
+        }
+        return providers;
+    }
+
+    private void checkNotMissing(final String materialName, final long version) {
+        if (missingVersions != null) {
+            final String message = missingVersions.get(buildCacheKey(materialName, version));
+            if (message != null) {
+                throw new IndexOutOfBoundsException(message);
+            }
+        }
+    }
+
+    private void rememberMissing(final String materialName, final long version, final Throwable ex) {
+        if (missingVersions != null && ex instanceof IndexOutOfBoundsException) {
+            missingVersions.add(buildCacheKey(materialName, version), String.valueOf(ex.getMessage()));
+        }
+    }
+
+    /**
+     * Returns encryption materials from the current provider if there is one which callers may
+     * still use without waiting on the {@link ProviderStore}, or null otherwise. This never
+     * blocks.
+     */
+    EncryptionMaterials getCachedEncryptionMaterials(final EncryptionContext context) {
+        final LockedState ls = currentVersions.peek(getMaterialName(context));
+        if (ls == null) {
+            return null;
+        }
+        final State s = ls.getState();
+        if (s.provider == null || System.nanoTime() - s.lastUpdated > maxAgeNanos) {
+            return null;
+        }
+        return s.getActiveProvider().getEncryptionMaterials(context);
+    }
+
+    /**
+     * Returns decryption materials if the version needed is cached, or null otherwise. This never
+     * blocks.
+     */
+    DecryptionMaterials getCachedDecryptionMaterials(final EncryptionContext context) {
+        final long version = keystore.getVersionFromMaterialDescription(context.getMaterialDescription());
+        final EncryptionMaterialsProvider provider = cache.peek(buildCacheKey(getMaterialName(context), version));
+        return provider == null ? null : provider.getDecryptionMaterials(context);
+    }
+
+    /**
+     * Returns whether <code>s</code> is too old to use even though checks for a new version fail.
+     */
+    private boolean isTooStale(final State s) {
+        return maxStalenessNanos > 0 && System.nanoTime() - s.lastUpdated > ttlInNanos + maxStalenessNanos;
+    }
+
+    /**
+     * Completely empties the cache of both the current and old versions, and forgets which
+     * versions were found not to exist. Any background checks for new versions stop and are
+     * started again the next time each material is used.
      */
     @Override
     public void refresh() {
         currentVersions.clear();
         cache.clear();
+        if (missingVersions != null) {
+            missingVersions.clear();
+        }
     }
 
     public String getMaterialName() {
@@ -128,12 +388,46 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
         return ttlInNanos / MILLI_TO_NANO;
     }
 
+    public MostRecentProviderConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the number of times a provider for a specific version was found in the cache.
+     */
+    public long getProviderCacheHits() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Returns the number of times a provider for a specific version had to be retrieved from the
+     * {@link ProviderStore}.
+     */
+    public long getProviderCacheMisses() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Returns the number of times the current version of a material was found in the cache.
+     */
+    public long getCurrentVersionCacheHits() {
+        return currentVersions.getHitCount();
+    }
+
+    /**
+     * Returns the number of times the current version of a material was not in the cache and had
+     * to be looked up again.
+     */
+    public long getCurrentVersionCacheMisses() {
+        return currentVersions.getMissCount();
+    }
+
     /**
      * The current version of the materials being used for encryption. Returns -1 if we do not
      * currently have a current version.
      */
     public long getCurrentVersion() {
-        return getCurrentVersion(getMaterialName()).getState().currentVersion;
+        return getCurrentVersion(getMaterialName()).getState().getActiveVersion();
     }
 
     /**
@@ -148,11 +442,236 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
         return defaultMaterialName;
     }
 
+    /**
+     * Checks the keystore for a newer version of <code>materialName</code> and records the result.
+     * The lock on <code>ls</code> must be held.
+     */
+    private State updateState(final String materialName, final LockedState ls) {
+        if (config.getRotationPeriodMillis() > 0) {
+            return updateRotatingState(materialName, ls);
+        }
+        final State s = ls.getState();
+        final long newVersion = keystore.getMaxVersion(materialName);
+        final long currentVersion;
+        final EncryptionMaterialsProvider currentProvider;
+        if (newVersion < 0) {
+            // First version of the material, so we want to allow creation
+            currentVersion = 0;
+            currentProvider = keystore.getOrCreate(materialName, currentVersion);
+            cache.add(buildCacheKey(materialName, currentVersion), currentProvider);
+        } else if (newVersion != s.currentVersion) {
+            // We're retrieving an existing version, so we avoid the creation
+            // flow as it is slower
+            currentVersion = newVersion;
+            currentProvider = loadProvider(materialName, currentVersion);
+        } else {
+            // Our version hasn't changed, so we'll just re-use the existing
+            // provider to avoid the overhead of retrieving and building a new one
+            currentVersion = newVersion;
+            currentProvider = s.provider;
+            // There is no need to add this to the cache as it's already there
+        }
+
+        ls.update(currentProvider, currentVersion);
+        return ls.getState();
+    }
+
+    /**
+     * As {@link #updateState(String, LockedState)}, but for scheduled rotation. The current version
+     * is the newest one whose activation time has passed. The version after it, if it exists, is
+     * retrieved ahead of its activation time and used from then on. If there is no such version and
+     * the current one is due for rotation, it is created. The lock on <code>ls</code> must be held.
+     */
+    private State updateRotatingState(final String materialName, final LockedState ls) {
+        final State s = ls.getState();
+        final long now = System.currentTimeMillis();
+        long version = keystore.getMaxVersion(materialName);
+        if (version < 0) {
+            // First version of the material, which is active immediately and starts the schedule
+            cache.add(buildCacheKey(materialName, 0), keystore.getOrCreate(materialName, 0, now));
+            version = 0;
+        }
+
+        // Each version's provider and activation time are read together, so a version not already
+        // held costs a single retrieval from the store
+        ScheduledProvider current = getScheduledProvider(materialName, version, s);
+        ScheduledProvider next = null;
+        long nextVersion = -1;
+        while (current.getActivationTime() > now && version > 0) {
+            next = current;
+            nextVersion = version;
+            version--;
+            current = getScheduledProvider(materialName, version, s);
+        }
+        final EncryptionMaterialsProvider provider = current.getProvider();
+        final long activationTime = current.getActivationTime();
+
+        EncryptionMaterialsProvider nextProvider = null;
+        long nextActivationTime = 0;
+        if (next != null) {
+            nextProvider = next.getProvider();
+            nextActivationTime = next.getActivationTime();
+        } else if (now >= activationTime + config.getRotationPeriodMillis() - rotationLeadTimeMillis) {
+            // Create the next version early enough that every provider has retrieved it before it
+            // becomes active. Whoever creates it first decides when that is.
+            nextVersion = version + 1;
+            try {
+                keystore.getOrCreate(materialName, nextVersion,
+                        Math.max(activationTime + config.getRotationPeriodMillis(), now + rotationLeadTimeMillis));
+                // Another provider may have created it first with a different activation time, so
+                // read back what was stored, provider and activation time together
+                final ScheduledProvider created = keystore.getScheduledProvider(materialName, nextVersion);
+                nextProvider = created.getProvider();
+                nextActivationTime = created.getActivationTime();
+                cache.add(buildCacheKey(materialName, nextVersion), nextProvider);
+            } catch (RuntimeException ex) {
+                // Carry on with the current version and try again on the next check
+                LOG.warn("Unable to create version " + nextVersion + " of " + materialName, ex);
+                nextProvider = null;
+                nextVersion = -1;
+            }
+        }
+
+        ls.update(new State(provider, version, activationTime, nextProvider, nextVersion, nextActivationTime));
+        return ls.getState();
+    }
+
+    private ScheduledProvider getScheduledProvider(final String materialName, final long version, final State s) {
+        if (version == s.currentVersion) {
+            return new ScheduledProvider(s.provider, s.activationTime);
+        } else if (version == s.nextVersion) {
+            return new ScheduledProvider(s.nextProvider, s.nextActivationTime);
+        }
+        final ScheduledProvider result = keystore.getScheduledProvider(materialName, version);
+        cache.add(buildCacheKey(materialName, version), result.getProvider());
+        return result;
+    }
+
+    private EncryptionMaterialsProvider loadProvider(final String materialName, final long version) {
+        final EncryptionMaterialsProvider cached = cache.get(buildCacheKey(materialName, version));
+        if (cached != null) {
+            // Already used for decryption, or preloaded
+            return cached;
+        }
+        final EncryptionMaterialsProvider provider = keystore.getProvider(materialName, version);
+        cache.add(buildCacheKey(materialName, version), provider);
+        return provider;
+    }
+
+    /**
+     * Loads the first provider for <code>materialName</code> and hands further checks for new
+     * versions over to the refresh executor.
+     */
+    private State loadAndScheduleRefresh(final String materialName, final LockedState ls) {
+        ls.lock();
+        try {
+            State s = ls.getState();
+            if (s.provider == null) {
+                s = updateState(materialName, ls);
+                scheduleRefresh(materialName, ls);
+            }
+            return s;
+        } finally {
+            ls.unlock();
+        }
+    }
+
+    private void scheduleRefresh(final String materialName, final LockedState ls) {
+        // Always refresh a little early rather than late so that no caller sees a provider older
+        // than the TTL, while spreading out the load on the keystore.
+        final long delay = Math.max(MILLI_TO_NANO,
+                (long) (ttlInNanos * (1 - config.getRefreshJitter() * ThreadLocalRandom.current().nextDouble())));
+        try {
+            config.getRefreshExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    backgroundRefresh(materialName, ls);
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+            ls.setRefreshScheduled(true);
+        } catch (RejectedExecutionException ex) {
+            // Callers will check for new versions themselves
+            ls.setRefreshScheduled(false);
+        }
+    }
+
+    private void backgroundRefresh(final String materialName, final LockedState ls) {
+        // Peek, so that this check alone doesn't keep an unused material in the cache
+        if (currentVersions.peek(materialName) != ls) {
+            // Evicted or explicitly refreshed, so nobody will read this state again
+            ls.setRefreshScheduled(false);
+            return;
+        }
+        if (config.getRotationPeriodMillis() > 0) {
+            // Rotation may involve several dependent calls, so it is done synchronously, holding
+            // this executor thread and the lock until the store responds
+            ls.lock();
+            try {
+                updateState(materialName, ls);
+            } catch (RuntimeException ex) {
+                LOG.warn("Unable to check for a new version of " + materialName, ex);
+            } finally {
+                ls.unlock();
+            }
+            scheduleRefresh(materialName, ls);
+            return;
+        }
+        // Use the asynchronous store methods so that the refresh executor's threads are not held
+        // while waiting on the store
+        final State s = ls.getState();
+        final CompletableFuture<State> next;
+        try {
+            next = keystore.getMaxVersionAsync(materialName).thenCompose(newVersion -> {
+                if (newVersion < 0) {
+                    return keystore.getOrCreateAsync(materialName, 0).thenApply(p -> new State(p, 0));
+                } else if (newVersion != s.currentVersion) {
+                    final EncryptionMaterialsProvider cached = cache.get(buildCacheKey(materialName, newVersion));
+                    if (cached != null) {
+                        return CompletableFuture.completedFuture(new State(cached, newVersion));
+                    }
+                    return keystore.getProviderAsync(materialName, newVersion)
+                            .thenApply(p -> new State(p, newVersion));
+                } else {
+                    return CompletableFuture.completedFuture(new State(s.provider, newVersion));
+                }
+            });
+        } catch (RuntimeException ex) {
+            LOG.warn("Unable to check for a new version of " + materialName, ex);
+            scheduleRefresh(materialName, ls);
+            return;
+        }
+        next.whenComplete((state, ex) -> {
+            if (ex != null) {
+                // Keep serving the current provider and try again later
+                LOG.warn("Unable to check for a new version of " + materialName, ex);
+            } else {
+                if (state.provider != s.provider) {
+                    cache.add(buildCacheKey(materialName, state.currentVersion), state.provider);
+                }
+                // This runs on whichever thread completed the store's future, which must not wait
+                // behind callers on the lock. A caller holding it is checking for a new version
+                // itself, so this result can be dropped and the next refresh scheduled as usual.
+                if (ls.tryLock()) {
+                    try {
+                        // A caller may have moved on to a newer version while this check was running
+                        if (state.currentVersion >= ls.getState().currentVersion) {
+                            ls.update(state.provider, state.currentVersion);
+                        }
+                    } finally {
+                        ls.unlock();
+                    }
+                }
+            }
+            scheduleRefresh(materialName, ls);
+        });
+    }
+
     private LockedState getCurrentVersion(final String materialName) {
         final LockedState result = currentVersions.get(materialName);
         if (result == null) {
-            currentVersions.add(materialName, new LockedState());
-            return currentVersions.get(materialName);
+            final LockedState created = new LockedState();
+            final LockedState existing = currentVersions.putIfAbsent(materialName, created);
+            return existing == null ? created : existing;
         } else {
             return result;
         }
@@ -176,11 +695,33 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
     private static class LockedState {
         private final ReentrantLock lock = new ReentrantLock(true);
         private volatile AtomicReference<State> state = new AtomicReference<>(new State());
+        private volatile boolean refreshScheduled = false;
+        private volatile long retryAfter = 0;
 
         public State getState() {
             return state.get();
         }
 
+        public boolean isRefreshScheduled() {
+            return refreshScheduled;
+        }
+
+        public void setRefreshScheduled(boolean refreshScheduled) {
+            this.refreshScheduled = refreshScheduled;
+        }
+
+        /**
+         * Returns whether a check for a new version failed too recently to try again.
+         */
+        public boolean isBackingOff() {
+            final long retryAfter = this.retryAfter;
+            return retryAfter != 0 && System.nanoTime() - retryAfter < 0;
+        }
+
+        public void backOff(long nanos) {
+            retryAfter = System.nanoTime() + nanos;
+        }
+
         public void unlock() {
             lock.unlock();
         }
@@ -194,10 +735,14 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
         }
 
         public void update(EncryptionMaterialsProvider provider, long currentVersion) {
+            update(new State(provider, currentVersion));
+        }
+
+        public void update(State newState) {
             if (!lock.isHeldByCurrentThread()) {
                 throw new IllegalStateException("Lock not held by current thread");
             }
-            state.set(new State(provider, currentVersion));
+            state.set(newState);
         }
     }
 
@@ -205,15 +750,41 @@ public class MostRecentProvider implements EncryptionMaterialsProvider {
         public final EncryptionMaterialsProvider provider;
         public final long currentVersion;
         public final long lastUpdated;
+        public final long activationTime;
+        /** The version to switch to at nextActivationTime, if any. */
+        public final EncryptionMaterialsProvider nextProvider;
+        public final long nextVersion;
+        public final long nextActivationTime;
 
         public State() {
             this(null, -1);
         }
 
         public State(EncryptionMaterialsProvider provider, long currentVersion) {
+            this(provider, currentVersion, 0, null, -1, 0);
+        }
+
+        public State(EncryptionMaterialsProvider provider, long currentVersion, long activationTime,
+                EncryptionMaterialsProvider nextProvider, long nextVersion, long nextActivationTime) {
             this.provider = provider;
             this.currentVersion = currentVersion;
             this.lastUpdated = currentVersion == -1 ? 0 : System.nanoTime();
+            this.activationTime = activationTime;
+            this.nextProvider = nextProvider;
+            this.nextVersion = nextVersion;
+            this.nextActivationTime = nextActivationTime;
+        }
+
+        private boolean isNextActive() {
+            return nextProvider != null && System.currentTimeMillis() >= nextActivationTime;
+        }
+
+        public EncryptionMaterialsProvider getActiveProvider() {
+            return isNextActive() ? nextProvider : provider;
+        }
+
+        public long getActiveVersion() {
+            return isNextActive() ? nextVersion : currentVersion;
         }
     }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Optional settings for a {@link MostRecentProvider}. The defaults match the behavior of a
+ * provider constructed without any configuration.
+ *
+ * This class is immutable.
+ */
+public final class MostRecentProviderConfig {
+    private final ScheduledExecutorService refreshExecutor;
+    private final double refreshJitter;
+    private final int maxCacheEntries;
+    private final long cacheTtlMillis;
+    private final long rotationPeriodMillis;
+    private final long rotationLeadTimeMillis;
+    private final long maxStalenessMillis;
+    private final long negativeCacheTtlMillis;
+
+    private MostRecentProviderConfig(Builder builder) {
+        refreshExecutor = builder.refreshExecutor;
+        refreshJitter = builder.refreshJitter;
+        maxCacheEntries = builder.maxCacheEntries;
+        cacheTtlMillis = builder.cacheTtlMillis;
+        rotationPeriodMillis = builder.rotationPeriodMillis;
+        rotationLeadTimeMillis = builder.rotationLeadTimeMillis;
+        maxStalenessMillis = builder.maxStalenessMillis;
+        negativeCacheTtlMillis = builder.negativeCacheTtlMillis;
+    }
+
+    /**
+     * Returns the executor used to check for new versions in the background, or
+     * <code>null</code> if callers check for new versions themselves.
+     */
+    public ScheduledExecutorService getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * Returns the largest fraction of the TTL by which background checks for new versions may be
+     * brought forward.
+     */
+    public double getRefreshJitter() {
+        return refreshJitter;
+    }
+
+    /**
+     * Returns the maximum number of materials, and separately of versions, which are cached.
+     */
+    public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    /**
+     * Returns the length of time in milliseconds for which a provider for a specific version is
+     * cached, or zero if it is kept until evicted.
+     */
+    public long getCacheTtlMillis() {
+        return cacheTtlMillis;
+    }
+
+    /**
+     * Returns the length of time in milliseconds for which each version is used for encryption
+     * before the next one is activated, or zero if versions are only created by callers of
+     * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore#newProvider(String)}.
+     */
+    public long getRotationPeriodMillis() {
+        return rotationPeriodMillis;
+    }
+
+    /**
+     * Returns how long in milliseconds before its activation time each version is created, or
+     * zero to use twice the TTL of the {@link MostRecentProvider}.
+     */
+    public long getRotationLeadTimeMillis() {
+        return rotationLeadTimeMillis;
+    }
+
+    /**
+     * Returns how long in milliseconds past the TTL the current provider may still be used for
+     * encryption while checks for new versions fail, or zero if failed checks are not hidden from
+     * callers.
+     */
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    /**
+     * Returns the length of time in milliseconds for which a version found not to exist is
+     * remembered, or zero if it is not.
+     */
+    public long getNegativeCacheTtlMillis() {
+        return negativeCacheTtlMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MostRecentProviderConfig [refreshExecutor=" + refreshExecutor
+                + ", refreshJitter=" + refreshJitter
+                + ", maxCacheEntries=" + maxCacheEntries
+                + ", cacheTtlMillis=" + cacheTtlMillis
+                + ", rotationPeriodMillis=" + rotationPeriodMillis
+                + ", rotationLeadTimeMillis=" + rotationLeadTimeMillis
+                + ", maxStalenessMillis=" + maxStalenessMillis
+                + ", negativeCacheTtlMillis=" + negativeCacheTtlMillis + "]";
+    }
+
+    public static final class Builder {
+        private ScheduledExecutorService refreshExecutor = null;
+        private double refreshJitter = 0.1;
+        private int maxCacheEntries = 1000;
+        private long cacheTtlMillis = 0;
+        private long rotationPeriodMillis = 0;
+        private long rotationLeadTimeMillis = 0;
+        private long maxStalenessMillis = 0;
+        private long negativeCacheTtlMillis = 0;
+
+        public Builder() {
+        }
+
+        public MostRecentProviderConfig build() {
+            return new MostRecentProviderConfig(this);
+        }
+
+        /**
+         * Checks for new versions of each material on <code>refreshExecutor</code> once per TTL,
+         * rather than in whichever call to
+         * {@link MostRecentProvider#getEncryptionMaterials} first finds the TTL exceeded. Callers
+         * then never wait on the {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore}
+         * except for the first use of each material (or the first use after
+         * {@link MostRecentProvider#refresh()}), and read the current provider without locking.
+         * If the background checks keep failing, callers check for new versions themselves once
+         * the current one is older than the TTL plus the maximum staleness (or a short grace
+         * period without one), rather than use it indefinitely.
+         *
+         * Background checks stop for materials which are evicted from the cache or cleared by
+         * {@link MostRecentProvider#refresh()}. If <code>refreshExecutor</code> is shut down,
+         * callers fall back to checking for new versions themselves. The executor is not shut
+         * down by the provider.
+         *
+         * Without scheduled rotation, each check uses the asynchronous methods of the
+         * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore}
+         * and does not hold an executor thread while the store responds. With rotation, a check
+         * may make several dependent calls to the store, so it makes them synchronously on the
+         * executor's thread, holding the material's lock.
+         */
+        public Builder withRefreshExecutor(ScheduledExecutorService refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        /**
+         * Brings each background check forward by a random amount of up to
+         * <code>refreshJitter</code> times the TTL, so that many hosts started together do not
+         * all query the store at the same moment. Defaults to 0.1.
+         */
+        public Builder withRefreshJitter(double refreshJitter) {
+            if (!(refreshJitter >= 0 && refreshJitter < 1)) {
+                throw new IllegalArgumentException("refreshJitter must be at least 0 and less than 1");
+            }
+            this.refreshJitter = refreshJitter;
+            return this;
+        }
+
+        /**
+         * Limits the number of providers for specific versions which are cached, and separately
+         * the number of materials whose current version is tracked. Providers which were only
+         * used once are evicted before those used repeatedly, so that a burst of reads of records
+         * under many old versions or materials does not push out those in regular use. Defaults
+         * to 1000.
+         */
+        public Builder withMaxCacheEntries(int maxCacheEntries) {
+            if (maxCacheEntries < 1) {
+                throw new IllegalArgumentException("maxCacheEntries " + maxCacheEntries + " must be at least 1");
+            }
+            this.maxCacheEntries = maxCacheEntries;
+            return this;
+        }
+
+        /**
+         * Discards cached providers for specific versions <code>ttlMillis</code> milliseconds
+         * after they were retrieved from the store, so that they are retrieved again the next
+         * time they are needed. This does not affect how often the current version is checked,
+         * which is governed by the TTL of the {@link MostRecentProvider}. Zero (the default) keeps
+         * providers until they are evicted.
+         */
+        public Builder withCacheTtlMillis(long cacheTtlMillis) {
+            if (cacheTtlMillis < 0) {
+                throw new IllegalArgumentException("cacheTtlMillis must not be negative");
+            }
+            this.cacheTtlMillis = cacheTtlMillis;
+            return this;
+        }
+
+        /**
+         * Rotates each material every <code>rotationPeriodMillis</code> milliseconds. The next
+         * version is created in the
+         * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore}
+         * ahead of time, together with the time at which it becomes active, by whichever
+         * provider first finds it due. Every provider then retrieves it on its next check for new
+         * versions and switches to it at that time, without waiting on the store, so that all
+         * hosts change version together. The store must support activation times (see
+         * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore#supportsActivationTimes()}),
+         * or the {@link MostRecentProvider} constructor throws an
+         * {@link IllegalArgumentException}.
+         *
+         * Versions created without an activation time, such as those which existed before
+         * rotation was enabled, are treated as due for rotation. Zero (the default) disables
+         * rotation.
+         */
+        public Builder withRotationPeriodMillis(long rotationPeriodMillis) {
+            if (rotationPeriodMillis < 0) {
+                throw new IllegalArgumentException("rotationPeriodMillis must not be negative");
+            }
+            this.rotationPeriodMillis = rotationPeriodMillis;
+            return this;
+        }
+
+        /**
+         * Creates each version <code>rotationLeadTimeMillis</code> milliseconds before it becomes
+         * active. This must be longer than the TTL of the {@link MostRecentProvider}, so that
+         * every provider has found the new version before it is used. Zero (the default) uses
+         * twice the TTL.
+         */
+        public Builder withRotationLeadTimeMillis(long rotationLeadTimeMillis) {
+            if (rotationLeadTimeMillis < 0) {
+                throw new IllegalArgumentException("rotationLeadTimeMillis must not be negative");
+            }
+            this.rotationLeadTimeMillis = rotationLeadTimeMillis;
+            return this;
+        }
+
+        /**
+         * Keeps using the current provider for encryption for up to
+         * <code>maxStalenessMillis</code> milliseconds past the TTL while checks for new versions
+         * fail, for instance because the store is throttled or unavailable. During this time a
+         * single caller retries the check at most every 500 milliseconds and all other callers
+         * carry on without waiting; failures are logged rather than thrown. Once the provider is
+         * older than this, callers wait on the check and see its failure as they would without
+         * this setting. This also bounds how long a background refresh which keeps failing may
+         * leave the provider unchanged. Zero (the default) throws failed checks to the caller
+         * which made them.
+         */
+        public Builder withMaxStalenessMillis(long maxStalenessMillis) {
+            if (maxStalenessMillis < 0) {
+                throw new IllegalArgumentException("maxStalenessMillis must not be negative");
+            }
+            this.maxStalenessMillis = maxStalenessMillis;
+            return this;
+        }
+
+        /**
+         * Remembers for <code>negativeCacheTtlMillis</code> milliseconds that a version needed
+         * for decryption does not exist, and fails further requests for it straight away rather
+         * than asking the store again. Keep this short, as a version may be missing only until it
+         * has been replicated from another region. Zero (the default) asks the store every time.
+         */
+        public Builder withNegativeCacheTtlMillis(long negativeCacheTtlMillis) {
+            if (negativeCacheTtlMillis < 0) {
+                throw new IllegalArgumentException("negativeCacheTtlMillis must not be negative");
+            }
+            this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.MostRecentProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.ConcurrentLRUCache;
+
+/**
+ * Caches the providers returned by another {@link ProviderStore}. As a given version of a material
+ * never changes once created, cached providers are kept until evicted to make room for others.
+ *
+ * A single instance may be shared by many {@link MostRecentProvider}s (for instance, one per table
+ * or tenant) so that each version is retrieved and decrypted once per process rather than once per
+ * {@link MostRecentProvider}. Concurrent requests for the same uncached version wait for and share
+ * the result of a single retrieval.
+ *
+ * Activation times are cached alongside the providers, and are read together with them from the
+ * underlying store with {@link ProviderStore#getScheduledProvider(String, long)}. Calls to
+ * {@link #getMaxVersion(String)} are not cached.
+ */
+public class CachingProviderStore extends ProviderStore {
+    private final ProviderStore delegate;
+    private final ConcurrentLRUCache<EncryptionMaterialsProvider> cache;
+    private final ConcurrentLRUCache<Long> activationTimes;
+    private final ConcurrentHashMap<String, CompletableFuture<EncryptionMaterialsProvider>> inFlight =
+            new ConcurrentHashMap<>();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+
+    /**
+     * @param delegate
+     *            the store to retrieve uncached providers from
+     * @param maxEntries
+     *            the maximum number of providers to cache
+     */
+    public CachingProviderStore(final ProviderStore delegate, final int maxEntries) {
+        this.delegate = checkNotNull(delegate, "delegate must not be null");
+        this.cache = new ConcurrentLRUCache.Builder<EncryptionMaterialsProvider>(maxEntries).build();
+        this.activationTimes = new ConcurrentLRUCache.Builder<Long>(maxEntries).build();
+    }
+
+    @Override
+    public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
+        final String key = buildCacheKey(materialName, version);
+        final EncryptionMaterialsProvider cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final CompletableFuture<EncryptionMaterialsProvider> future = new CompletableFuture<>();
+        final CompletableFuture<EncryptionMaterialsProvider> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedLoads.incrementAndGet();
+            return join(existing);
+        }
+        try {
+            // Another thread may have finished loading it since we checked
+            EncryptionMaterialsProvider result = cache.peek(key);
+            if (result == null) {
+                result = delegate.getProvider(materialName, version);
+                cache.add(key, result);
+            }
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterialsProvider> getProviderAsync(final String materialName,
+            final long version) {
+        final String key = buildCacheKey(materialName, version);
+        final EncryptionMaterialsProvider cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<EncryptionMaterialsProvider> future = new CompletableFuture<>();
+        final CompletableFuture<EncryptionMaterialsProvider> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedLoads.incrementAndGet();
+            // Each caller gets its own future, so that none of them can complete or cancel the
+            // shared one for the others
+            return existing.thenApply(Function.identity());
+        }
+        final CompletableFuture<EncryptionMaterialsProvider> load;
+        try {
+            load = delegate.getProviderAsync(materialName, version);
+        } catch (RuntimeException | Error ex) {
+            // Don't leave later callers waiting on a retrieval which never started
+            inFlight.remove(key, future);
+            future.completeExceptionally(ex);
+            return future.thenApply(Function.identity());
+        }
+        load.whenComplete((result, ex) -> {
+            if (ex == null) {
+                cache.add(key, result);
+            }
+            inFlight.remove(key, future);
+            if (ex == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null
+                        ? ex.getCause() : ex);
+            }
+        });
+        return future.thenApply(Function.identity());
+    }
+
+    /**
+     * Returns the cached versions directly and retrieves the rest from the underlying store
+     * together, with a single call to its {@link ProviderStore#getProviders(String, Collection)}.
+     * Versions which another request is already retrieving are not retrieved again; this waits for
+     * and shares that request's result instead.
+     */
+    @Override
+    public Map<Long, EncryptionMaterialsProvider> getProviders(final String materialName,
+            final Collection<Long> versions) {
+        final Map<Long, EncryptionMaterialsProvider> result = new HashMap<>();
+        final Map<Long, CompletableFuture<EncryptionMaterialsProvider>> owned = new HashMap<>();
+        final Map<Long, CompletableFuture<EncryptionMaterialsProvider>> shared = new HashMap<>();
+        for (final Long version : new LinkedHashSet<>(versions)) {
+            final String key = buildCacheKey(materialName, version);
+            final EncryptionMaterialsProvider cached = cache.get(key);
+            if (cached != null) {
+                result.put(version, cached);
+                continue;
+            }
+            final CompletableFuture<EncryptionMaterialsProvider> future = new CompletableFuture<>();
+            final CompletableFuture<EncryptionMaterialsProvider> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                coalescedLoads.incrementAndGet();
+                shared.put(version, existing);
+            } else {
+                owned.put(version, future);
+            }
+        }
+        try {
+            loadProviders(materialName, owned, result);
+        } finally {
+            for (final Map.Entry<Long, CompletableFuture<EncryptionMaterialsProvider>> entry : owned.entrySet()) {
+                inFlight.remove(buildCacheKey(materialName, entry.getKey()), entry.getValue());
+            }
+        }
+        for (final Map.Entry<Long, CompletableFuture<EncryptionMaterialsProvider>> entry : shared.entrySet()) {
+            try {
+                result.put(entry.getKey(), join(entry.getValue()));
+            } catch (final IndexOutOfBoundsException ex) {
+                // Versions which do not exist are left out, as by the underlying store
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the versions whose retrieval this request claimed, completing each one's future
+     * for any other requests waiting on it.
+     */
+    private void loadProviders(final String materialName,
+            final Map<Long, CompletableFuture<EncryptionMaterialsProvider>> owned,
+            final Map<Long, EncryptionMaterialsProvider> result) {
+        final List<Long> missing = new ArrayList<>();
+        for (final Map.Entry<Long, CompletableFuture<EncryptionMaterialsProvider>> entry : owned.entrySet()) {
+            // Another request may have finished loading it since we checked
+            final EncryptionMaterialsProvider cached = cache.peek(buildCacheKey(materialName, entry.getKey()));
+            if (cached != null) {
+                result.put(entry.getKey(), cached);
+                entry.getValue().complete(cached);
+            } else {
+                missing.add(entry.getKey());
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        final Map<Long, EncryptionMaterialsProvider> loaded;
+        try {
+            loaded = delegate.getProviders(materialName, missing);
+        } catch (RuntimeException | Error ex) {
+            for (final Long version : missing) {
+                owned.get(version).completeExceptionally(ex);
+            }
+            throw ex;
+        }
+        for (final Long version : missing) {
+            final EncryptionMaterialsProvider provider = loaded.get(version);
+            if (provider != null) {
+                cache.add(buildCacheKey(materialName, version), provider);
+                result.put(version, provider);
+                owned.get(version).complete(provider);
+            } else {
+                owned.get(version).completeExceptionally(
+                        new IndexOutOfBoundsException("No material found: " + materialName + "#" + version));
+            }
+        }
+    }
+
+    @Override
+    public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId) {
+        final EncryptionMaterialsProvider result = delegate.getOrCreate(materialName, nextId);
+        cache.add(buildCacheKey(materialName, nextId), result);
+        return result;
+    }
+
+    @Override
+    public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId,
+            final long activationTimeMillis) {
+        final EncryptionMaterialsProvider result = delegate.getOrCreate(materialName, nextId, activationTimeMillis);
+        cache.add(buildCacheKey(materialName, nextId), result);
+        return result;
+    }
+
+    @Override
+    public boolean supportsActivationTimes() {
+        return delegate.supportsActivationTimes();
+    }
+
+    @Override
+    public long getActivationTime(final String materialName, final long version) {
+        final Long cached = activationTimes.get(buildCacheKey(materialName, version));
+        if (cached != null) {
+            return cached;
+        }
+        return getScheduledProvider(materialName, version).getActivationTime();
+    }
+
+    @Override
+    public ScheduledProvider getScheduledProvider(final String materialName, final long version) {
+        final String key = buildCacheKey(materialName, version);
+        final Long activationTime = activationTimes.get(key);
+        final EncryptionMaterialsProvider provider = activationTime != null ? cache.get(key) : null;
+        if (provider != null) {
+            return new ScheduledProvider(provider, activationTime);
+        }
+        final ScheduledProvider result = delegate.getScheduledProvider(materialName, version);
+        cache.add(key, result.getProvider());
+        activationTimes.add(key, result.getActivationTime());
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterialsProvider> getOrCreateAsync(final String materialName,
+            final long nextId) {
+        return delegate.getOrCreateAsync(materialName, nextId).thenApply(result -> {
+            cache.add(buildCacheKey(materialName, nextId), result);
+            return result;
+        });
+    }
+
+    @Override
+    public long getMaxVersion(final String materialName) {
+        return delegate.getMaxVersion(materialName);
+    }
+
+    @Override
+    public CompletableFuture<Long> getMaxVersionAsync(final String materialName) {
+        return delegate.getMaxVersionAsync(materialName);
+    }
+
+    @Override
+    public long getVersionFromMaterialDescription(final Map<String, String> description) {
+        return delegate.getVersionFromMaterialDescription(description);
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+        cache.clear();
+        activationTimes.clear();
+    }
+
+    /**
+     * Returns the number of times a provider was found in the cache.
+     */
+    public long getCacheHits() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Returns the number of times a provider was not found in the cache.
+     */
+    public long getCacheMisses() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Returns the number of times a request waited for another request's retrieval of the same
+     * version rather than retrieving it again.
+     */
+    public long getCoalescedLoads() {
+        return coalescedLoads.get();
+    }
+
+    private static EncryptionMaterialsProvider join(final CompletableFuture<EncryptionMaterialsProvider> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new AmazonClientException(ex.getCause());
+        }
+    }
+
+    private static String buildCacheKey(final String materialName, final long version) {
+        // Versions never contain '#', so this is unambiguous even if material names do
+        return version + "#" + materialName;
+    }
+
+    private static <V> V checkNotNull(final V ref, final String errMsg) {
+        if (ref == null) {
+            throw new NullPointerException(errMsg);
+        } else {
+            return ref;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Provides a collection of EncryptionMaterialProviders backed by a local, append-only file rather
+ * than a DynamoDB table. Materials are stored in the same form as in a {@link MetaStore}, with
+ * their keys encrypted by the {@link DynamoDBEncryptor} passed to the constructor, and are
+ * interchangeable with those of a {@link MetaStore}: {@link MetaStore#replicate(String, long,
+ * FileProviderStore)} copies versions into the file, so that a process may start from local disk
+ * rather than querying DynamoDB for each version it needs.
+ *
+ * The whole file is read when the store is opened and each new version is appended and flushed
+ * to disk before it is returned. A partially written entry left at the end of the file by a crash
+ * is discarded when the file is next opened; a damaged entry anywhere else fails the open and
+ * leaves the file unchanged. The file must not be shared by stores which are open at the same
+ * time, so it is locked while the store is open and opening a second store on it, in the same
+ * process or another, fails. On platforms where file locks are only advisory, this does not
+ * protect against other programs which write to the file.
+ */
+public class FileProviderStore extends ProviderStore implements Closeable {
+    private static final Log LOG = LogFactory.getLog(FileProviderStore.class);
+    private static final int MAGIC = 0x44444250; // "DDBP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /** Length and checksum of each entry. */
+    private static final int ENTRY_OVERHEAD = 8;
+    private static final String CONTEXT_TABLE_NAME = "FileProviderStore";
+    private static final Set<String> DO_NOT_ENCRYPT = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList(MetaStore.DEFAULT_HASH_KEY, MetaStore.DEFAULT_RANGE_KEY)));
+
+    private final ConcurrentHashMap<String, NavigableMap<Long, Map<String, AttributeValue>>> items =
+            new ConcurrentHashMap<>();
+    private final Path path;
+    private final FileChannel channel;
+    private final DynamoDBEncryptor encryptor;
+    private final EncryptionContext ctx;
+
+    /**
+     * Opens the store in the specified file, creating the file if it does not exist.
+     *
+     * @param path the file holding the materials.
+     * @param encryptor used to encrypt and decrypt the keys of each material. It must be able to
+     *        decrypt the materials already in the file.
+     * @throws IOException if the file cannot be read, is not a FileProviderStore file, has a
+     *         damaged entry before its last one, or is already open in another store.
+     */
+    public FileProviderStore(final Path path, final DynamoDBEncryptor encryptor) throws IOException {
+        this.path = checkNotNull(path, "path must not be null");
+        this.encryptor = checkNotNull(encryptor, "encryptor must not be null");
+        this.ctx = new EncryptionContext.Builder().withTableName(CONTEXT_TABLE_NAME)
+                .withHashKeyName(MetaStore.DEFAULT_HASH_KEY)
+                .withRangeKeyName(MetaStore.DEFAULT_RANGE_KEY).build();
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            lock();
+            load();
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
+        return MetaStore.buildProvider(decrypt(getItem(materialName, version)));
+    }
+
+    @Override
+    public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId) {
+        putIfAbsent(MetaStore.newMaterialItem(materialName, nextId));
+        return getProvider(materialName, nextId);
+    }
+
+    @Override
+    public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId,
+            final long activationTimeMillis) {
+        putIfAbsent(MetaStore.newMaterialItem(materialName, nextId, activationTimeMillis));
+        return getProvider(materialName, nextId);
+    }
+
+    @Override
+    public boolean supportsActivationTimes() {
+        return true;
+    }
+
+    @Override
+    public long getActivationTime(final String materialName, final long version) {
+        return MetaStore.parseActivationTime(decrypt(getItem(materialName, version)));
+    }
+
+    @Override
+    public ScheduledProvider getScheduledProvider(final String materialName, final long version) {
+        final Map<String, AttributeValue> plaintext = decrypt(getItem(materialName, version));
+        return new ScheduledProvider(MetaStore.buildProvider(plaintext), MetaStore.parseActivationTime(plaintext));
+    }
+
+    @Override
+    public long getMaxVersion(final String materialName) {
+        final NavigableMap<Long, Map<String, AttributeValue>> versions = items.get(materialName);
+        return versions == null || versions.isEmpty() ? -1L : versions.lastKey();
+    }
+
+    @Override
+    public long getVersionFromMaterialDescription(final Map<String, String> description) {
+        return MetaStore.parseVersion(description);
+    }
+
+    /**
+     * Returns the file holding the materials.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Closes the file. Providers already returned remain usable.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Encrypts and appends a plaintext material item unless the file already holds that version.
+     */
+    synchronized void putIfAbsent(final Map<String, AttributeValue> plaintext) {
+        final String materialName = plaintext.get(MetaStore.DEFAULT_HASH_KEY).getS();
+        final long version = Long.parseLong(plaintext.get(MetaStore.DEFAULT_RANGE_KEY).getN());
+        final NavigableMap<Long, Map<String, AttributeValue>> versions = items.get(materialName);
+        if (versions != null && versions.containsKey(version)) {
+            return;
+        }
+        final Map<String, AttributeValue> ciphertext;
+        try {
+            ciphertext = encryptor.encryptAllFieldsExcept(plaintext, ctx, DO_NOT_ENCRYPT);
+        } catch (final GeneralSecurityException ex) {
+            throw new AmazonClientException(ex);
+        }
+        final ByteBuffer payload = AttributeValueMarshaller.marshall(new AttributeValue().withM(ciphertext));
+        final ByteBuffer entry = ByteBuffer.allocate(payload.remaining() + ENTRY_OVERHEAD);
+        entry.putInt(payload.remaining());
+        entry.putInt(checksum(payload));
+        entry.put(payload);
+        entry.flip();
+        long start = -1;
+        try {
+            start = channel.size();
+            while (entry.hasRemaining()) {
+                channel.write(entry, start + entry.position());
+            }
+            channel.force(false);
+        } catch (final IOException ex) {
+            // Don't leave a partial entry in front of the next one
+            if (start >= 0) {
+                try {
+                    channel.truncate(start);
+                } catch (final IOException truncateEx) {
+                    ex.addSuppressed(truncateEx);
+                }
+            }
+            throw new AmazonClientException("Unable to write material to " + path, ex);
+        }
+        add(ciphertext);
+    }
+
+    /**
+     * Locks the whole file until the channel is closed.
+     */
+    private void lock() throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (final OverlappingFileLockException ex) {
+            // Held by another store in this process
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException(path + " is already open in another FileProviderStore");
+        }
+    }
+
+    private void load() throws IOException {
+        final long size = channel.size();
+        if (size == 0) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            return;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(path + " is too large");
+        }
+        final ByteBuffer contents = ByteBuffer.allocate((int) size);
+        while (contents.hasRemaining()) {
+            if (channel.read(contents, contents.position()) < 0) {
+                throw new IOException("Unexpected end of " + path);
+            }
+        }
+        contents.flip();
+        if (contents.remaining() < HEADER_SIZE || contents.getInt() != MAGIC) {
+            throw new IOException(path + " is not a FileProviderStore file");
+        }
+        final int formatVersion = contents.getInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported FileProviderStore format " + formatVersion + " in " + path);
+        }
+        while (contents.remaining() >= ENTRY_OVERHEAD) {
+            final int start = contents.position();
+            final int length = contents.getInt();
+            final int expectedChecksum = contents.getInt();
+            if (length < 0) {
+                throw new IOException("Corrupt entry at offset " + start + " of " + path);
+            }
+            if (length > contents.remaining()) {
+                if (hasEntryAfter(contents, contents.position())) {
+                    // A complete entry follows, so this one was not cut short by a crash: its
+                    // length is damaged. Leave the file alone rather than discard what follows.
+                    throw new IOException("Corrupt length in entry at offset " + start + " of " + path);
+                }
+                // Runs past the end of the file, so this is the last entry and was never finished
+                contents.position(start);
+                break;
+            }
+            final ByteBuffer payload = contents.slice();
+            payload.limit(length);
+            if (checksum(payload) != expectedChecksum) {
+                if (contents.remaining() != length) {
+                    // Later entries were written after this one, so it was not cut short by a
+                    // crash. Leave the file alone rather than discard them.
+                    throw new IOException("Checksum mismatch in entry at offset " + start + " of " + path);
+                }
+                contents.position(start);
+                break;
+            }
+            contents.position(start + ENTRY_OVERHEAD + length);
+            add(AttributeValueMarshaller.unmarshall(payload).getM());
+        }
+        if (contents.hasRemaining()) {
+            LOG.warn("Discarding " + contents.remaining() + " bytes of incomplete entries at the end of " + path);
+            channel.truncate(contents.position());
+            channel.force(true);
+        }
+    }
+
+    private Map<String, AttributeValue> getItem(final String materialName, final long version) {
+        final NavigableMap<Long, Map<String, AttributeValue>> versions = items.get(materialName);
+        final Map<String, AttributeValue> item = versions != null ? versions.get(version) : null;
+        if (item == null) {
+            throw new IndexOutOfBoundsException("No material found: " + materialName + "#" + version);
+        }
+        return item;
+    }
+
+    private Map<String, AttributeValue> decrypt(final Map<String, AttributeValue> ciphertext) {
+        try {
+            return encryptor.decryptAllFieldsExcept(ciphertext, ctx, DO_NOT_ENCRYPT);
+        } catch (final GeneralSecurityException ex) {
+            throw new AmazonClientException(ex);
+        }
+    }
+
+    private void add(final Map<String, AttributeValue> ciphertext) {
+        final String materialName = ciphertext.get(MetaStore.DEFAULT_HASH_KEY).getS();
+        final long version = Long.parseLong(ciphertext.get(MetaStore.DEFAULT_RANGE_KEY).getN());
+        items.computeIfAbsent(materialName, name -> new ConcurrentSkipListMap<>())
+                .putIfAbsent(version, ciphertext);
+    }
+
+    /**
+     * Returns whether a complete entry with a valid checksum starts anywhere at or after
+     * <code>from</code>.
+     */
+    private static boolean hasEntryAfter(final ByteBuffer contents, final int from) {
+        for (int offset = from; offset <= contents.limit() - ENTRY_OVERHEAD; offset++) {
+            final int length = contents.getInt(offset);
+            if (length < 0 || length > contents.limit() - offset - ENTRY_OVERHEAD) {
+                continue;
+            }
+            final ByteBuffer payload = contents.duplicate();
+            payload.position(offset + ENTRY_OVERHEAD).limit(offset + ENTRY_OVERHEAD + length);
+            if (checksum(payload) == contents.getInt(offset + 4)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int checksum(final ByteBuffer payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static <V> V checkNotNull(final V ref, final String errMsg) {
+        if (ref == null) {
+            throw new NullPointerException(errMsg);
+        } else {
+            return ref;
+        }
+    }
+}
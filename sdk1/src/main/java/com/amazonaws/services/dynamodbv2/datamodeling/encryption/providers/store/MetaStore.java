@@ -14,13 +14,19 @@ package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.stor
 
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,7 +34,10 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
@@ -36,17 +45,23 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.Wrapp
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 
 /**
@@ -56,6 +71,15 @@ import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
  * Currently, this only supports AES-256 in AESWrap mode and HmacSHA256 for the providers persisted
  * in the table.
  *
+ * If the client passed to the constructor is an {@link AmazonDynamoDBAsync}, the asynchronous
+ * methods of {@link ProviderStore} use its asynchronous operations and do not block the calling
+ * thread. Otherwise they block, just like their synchronous forms. Note that the asynchronous
+ * client of the AWS SDK for Java 1.x still makes each request on a thread of its own
+ * <code>ExecutorService</code>, which waits on DynamoDB; these methods move that wait off the
+ * caller's thread rather than removing it. Retrieved materials are decrypted on the executor given
+ * to {@link #MetaStore(AmazonDynamoDB, String, DynamoDBEncryptor, ExtraDataSupplier, Executor)},
+ * or, without one, on the client's thread which completed the request.
+ *
  * @author rubin
  */
 public class MetaStore extends ProviderStore {
@@ -67,10 +91,17 @@ public class MetaStore extends ProviderStore {
     private static final String DEFAULT_INTEGRITY = "HmacSHA256";
     private static final String DEFAULT_ENCRYPTION = "AES";
     private static final String MATERIAL_TYPE_VERSION = "t";
+    private static final String ACTIVATION_TIME_FIELD = "act";
     private static final String META_ID = "amzn-ddb-meta-id";
 
-    private static final String DEFAULT_HASH_KEY = "N";
-    private static final String DEFAULT_RANGE_KEY = "V";
+    static final String DEFAULT_HASH_KEY = "N";
+    static final String DEFAULT_RANGE_KEY = "V";
+
+    /** Most keys DynamoDB accepts in a single BatchGetItem request. */
+    private static final int BATCH_GET_LIMIT = 100;
+    /** Most times unprocessed keys from a BatchGetItem request are retried. */
+    private static final int BATCH_GET_MAX_RETRIES = 8;
+    private static final long BATCH_GET_BASE_BACKOFF_MILLIS = 10;
 
     /** Default no-op implementation of {@link ExtraDataSupplier}. */
     private static final EmptyExtraDataSupplier EMPTY_EXTRA_DATA_SUPPLIER
@@ -85,6 +116,7 @@ public class MetaStore extends ProviderStore {
         tempEncryptedFields.add(ENCRYPTION_ALGORITHM_FIELD);
         tempEncryptedFields.add(INTEGRITY_KEY_FIELD);
         tempEncryptedFields.add(INTEGRITY_ALGORITHM_FIELD);
+        tempEncryptedFields.add(ACTIVATION_TIME_FIELD);
         ENCRYPTED_FIELDS = tempEncryptedFields;
     }
 
@@ -92,9 +124,11 @@ public class MetaStore extends ProviderStore {
     private final Set<String> doNotEncrypt;
     private final String tableName;
     private final AmazonDynamoDB ddb;
+    private final AmazonDynamoDBAsync asyncDdb;
     private final DynamoDBEncryptor encryptor;
     private final EncryptionContext ddbCtx;
     private final ExtraDataSupplier extraDataSupplier;
+    private final Executor decryptionExecutor;
 
     /**
      * Provides extra data that should be persisted along with the standard material data.
@@ -140,10 +174,30 @@ public class MetaStore extends ProviderStore {
      */
     public MetaStore(final AmazonDynamoDB ddb, final String tableName,
             final DynamoDBEncryptor encryptor, final ExtraDataSupplier extraDataSupplier) {
+        this(ddb, tableName, encryptor, extraDataSupplier, null);
+    }
+
+    /**
+     * Create a new MetaStore with specified table name and extra data supplier, which decrypts
+     * materials retrieved by its asynchronous methods and by
+     * {@link #getProviders(String, Collection)} on the given executor.
+     *
+     * @param ddb Interface for accessing DynamoDB.
+     * @param tableName DynamoDB table name for this {@link MetaStore}.
+     * @param encryptor used to perform crypto operations on the record attributes
+     * @param extraDataSupplier provides extra data that should be stored along with the material.
+     * @param decryptionExecutor runs the decryption of retrieved materials, or null to decrypt them
+     *        on the thread which completed the request.
+     */
+    public MetaStore(final AmazonDynamoDB ddb, final String tableName,
+            final DynamoDBEncryptor encryptor, final ExtraDataSupplier extraDataSupplier,
+            final Executor decryptionExecutor) {
         this.ddb = checkNotNull(ddb, "ddb must not be null");
+        this.asyncDdb = ddb instanceof AmazonDynamoDBAsync ? (AmazonDynamoDBAsync) ddb : null;
         this.tableName = checkNotNull(tableName, "tableName must not be null");
         this.encryptor = checkNotNull(encryptor, "encryptor must not be null");
         this.extraDataSupplier = checkNotNull(extraDataSupplier, "extraDataSupplier must not be null");
+        this.decryptionExecutor = decryptionExecutor;
 
         this.ddbCtx = new EncryptionContext.Builder().withTableName(this.tableName)
                 .withHashKeyName(DEFAULT_HASH_KEY).withRangeKeyName(DEFAULT_RANGE_KEY).build();
@@ -162,6 +216,44 @@ public class MetaStore extends ProviderStore {
         return decryptProvider(item);
     }
 
+    /**
+     * Retrieves all of the requested versions with consistent BatchGetItem requests, rather than
+     * one GetItem request per version. Keys left unprocessed by DynamoDB are retried with
+     * exponential backoff. The versions are decrypted in parallel on this store's decryption
+     * executor if it has one, or one after another on the calling thread otherwise.
+     *
+     * @throws AmazonClientException
+     *             if some keys remain unprocessed after several retries
+     */
+    @Override
+    public Map<Long, EncryptionMaterialsProvider> getProviders(final String materialName,
+            final Collection<Long> versions) {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (final Long version : new LinkedHashSet<>(versions)) {
+            keys.add(materialKey(materialName, version));
+        }
+        final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += BATCH_GET_LIMIT) {
+            items.addAll(batchGet(keys.subList(i, Math.min(keys.size(), i + BATCH_GET_LIMIT))));
+        }
+
+        final Map<Long, EncryptionMaterialsProvider> result = new HashMap<>();
+        if (decryptionExecutor == null) {
+            for (final Map<String, AttributeValue> item : items) {
+                result.put(Long.parseLong(item.get(DEFAULT_RANGE_KEY).getN()), decryptProvider(item));
+            }
+            return result;
+        }
+        final List<CompletableFuture<EncryptionMaterialsProvider>> decrypted = new ArrayList<>();
+        for (final Map<String, AttributeValue> item : items) {
+            decrypted.add(CompletableFuture.supplyAsync(() -> decryptProvider(item), decryptionExecutor));
+        }
+        for (int i = 0; i < items.size(); i++) {
+            result.put(Long.parseLong(items.get(i).get(DEFAULT_RANGE_KEY).getN()), join(decrypted.get(i)));
+        }
+        return result;
+    }
+
     @Override
     public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId) {
         final Map<String, AttributeValue> plaintext = createMaterialItem(materialName, nextId);
@@ -169,29 +261,103 @@ public class MetaStore extends ProviderStore {
         return decryptProvider(ciphertext);
     }
 
+    /**
+     * Creates the provider as {@link #getOrCreate(String, long)} does, with its activation time
+     * stored (encrypted) alongside its keys. Versions which record an activation time can still be
+     * read by older clients, which ignore it.
+     */
+    @Override
+    public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId,
+            final long activationTimeMillis) {
+        final Map<String, AttributeValue> plaintext = createMaterialItem(materialName, nextId);
+        plaintext.put(ACTIVATION_TIME_FIELD, new AttributeValue().withN(Long.toString(activationTimeMillis)));
+        final Map<String, AttributeValue> ciphertext = conditionalPut(getEncryptedText(plaintext));
+        return decryptProvider(ciphertext);
+    }
+
+    @Override
+    public boolean supportsActivationTimes() {
+        return true;
+    }
+
+    @Override
+    public long getActivationTime(final String materialName, final long version) {
+        return parseActivationTime(getPlainText(getMaterialItem(materialName, version)));
+    }
+
+    /**
+     * Retrieves and decrypts the version once for both its provider and its activation time.
+     */
+    @Override
+    public ScheduledProvider getScheduledProvider(final String materialName, final long version) {
+        final Map<String, AttributeValue> plaintext = getPlainText(getMaterialItem(materialName, version));
+        return new ScheduledProvider(buildProvider(plaintext), parseActivationTime(plaintext));
+    }
+
     @Override
     public long getMaxVersion(final String materialName) {
-        final List<Map<String, AttributeValue>> items = ddb.query(
-                new QueryRequest()
-                .withTableName(tableName)
-                .withConsistentRead(Boolean.TRUE)
-                .withKeyConditions(
-                        Collections.singletonMap(
-                                DEFAULT_HASH_KEY,
-                                new Condition().withComparisonOperator(
-                                        ComparisonOperator.EQ).withAttributeValueList(
-                                                new AttributeValue().withS(materialName))))
-                                                .withLimit(1).withScanIndexForward(false)
-                                                .withAttributesToGet(DEFAULT_RANGE_KEY)).getItems();
-        if (items.isEmpty()) {
-            return -1L;
-        } else {
-            return Long.parseLong(items.get(0).get(DEFAULT_RANGE_KEY).getN());
+        return parseMaxVersion(ddb.query(maxVersionQuery(materialName)));
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterialsProvider> getProviderAsync(final String materialName,
+            final long version) {
+        if (asyncDdb == null) {
+            return super.getProviderAsync(materialName, version);
+        }
+        return decryptProviderAsync(ddbGetAsync(materialKey(materialName, version))
+                .thenApply(item -> checkFound(item, materialName, version)));
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterialsProvider> getOrCreateAsync(final String materialName,
+            final long nextId) {
+        if (asyncDdb == null) {
+            return super.getOrCreateAsync(materialName, nextId);
+        }
+        final Map<String, AttributeValue> ciphertext;
+        try {
+            ciphertext = getEncryptedText(createMaterialItem(materialName, nextId));
+        } catch (final RuntimeException ex) {
+            return failedFuture(ex);
         }
+        final CompletableFuture<PutItemResult> put = new CompletableFuture<>();
+        asyncDdb.putItemAsync(conditionalPutRequest(ciphertext), completeWith(put));
+        final CompletableFuture<Map<String, AttributeValue>> item = put.handle((result, ex) -> {
+                    if (ex == null) {
+                        return CompletableFuture.completedFuture(ciphertext);
+                    } else if (unwrap(ex) instanceof ConditionalCheckFailedException) {
+                        // Somebody else created it first, so use theirs
+                        return ddbGetAsync(materialKey(materialName, nextId));
+                    } else {
+                        return ProviderStore.<Map<String, AttributeValue>>failedFuture(unwrap(ex));
+                    }
+                })
+                .thenCompose(future -> future);
+        return decryptProviderAsync(item);
+    }
+
+    @Override
+    public CompletableFuture<Long> getMaxVersionAsync(final String materialName) {
+        if (asyncDdb == null) {
+            return super.getMaxVersionAsync(materialName);
+        }
+        final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+        asyncDdb.queryAsync(maxVersionQuery(materialName), completeWith(result));
+        return result.thenApply(MetaStore::parseMaxVersion);
     }
 
     @Override
     public long getVersionFromMaterialDescription(final Map<String, String> description) {
+        return parseVersion(description);
+    }
+
+    static long parseActivationTime(final Map<String, AttributeValue> plaintext) {
+        final AttributeValue activationTime = plaintext.get(ACTIVATION_TIME_FIELD);
+        return activationTime == null ? 0L : Long.parseLong(activationTime.getN());
+    }
+
+    static long parseVersion(final Map<String, String> description) {
         final Matcher m = COMBINED_PATTERN.matcher(description.get(META_ID));
         if (m.matches()) {
             return Long.parseLong(m.group(2));
@@ -220,17 +386,61 @@ public class MetaStore extends ProviderStore {
         }
     }
 
+    /**
+     * Copies the intermediate keys for a version of a material into a {@link FileProviderStore},
+     * for instance so that a process can start from the local copy rather than from DynamoDB.
+     * Does nothing if the file already contains this version.
+     *
+     * @param materialName material name of the encryption material.
+     * @param version version of the encryption material.
+     * @param target the file to copy the encryption material to.
+     */
+    public void replicate(final String materialName, final long version, final FileProviderStore target) {
+        target.putIfAbsent(getPlainText(getMaterialItem(materialName, version)));
+    }
+
     private Map<String, AttributeValue> getMaterialItem(final String materialName, final long version) {
+        return checkFound(ddbGet(materialKey(materialName, version)), materialName, version);
+    }
+
+    private static Map<String, AttributeValue> materialKey(final String materialName, final long version) {
         final Map<String, AttributeValue> ddbKey = new HashMap<>();
         ddbKey.put(DEFAULT_HASH_KEY, new AttributeValue().withS(materialName));
         ddbKey.put(DEFAULT_RANGE_KEY, new AttributeValue().withN(Long.toString(version)));
-        final Map<String, AttributeValue> item = ddbGet(ddbKey);
+        return ddbKey;
+    }
+
+    private static Map<String, AttributeValue> checkFound(final Map<String, AttributeValue> item,
+            final String materialName, final long version) {
         if (item == null || item.isEmpty()) {
             throw new IndexOutOfBoundsException("No material found: " + materialName + "#" + version);
         }
         return item;
     }
 
+    private QueryRequest maxVersionQuery(final String materialName) {
+        return new QueryRequest()
+                .withTableName(tableName)
+                .withConsistentRead(Boolean.TRUE)
+                .withKeyConditions(
+                        Collections.singletonMap(
+                                DEFAULT_HASH_KEY,
+                                new Condition().withComparisonOperator(
+                                        ComparisonOperator.EQ).withAttributeValueList(
+                                                new AttributeValue().withS(materialName))))
+                                                .withLimit(1).withScanIndexForward(false)
+                                                .withAttributesToGet(DEFAULT_RANGE_KEY);
+    }
+
+    private static long parseMaxVersion(final QueryResult result) {
+        final List<Map<String, AttributeValue>> items = result.getItems();
+        if (items.isEmpty()) {
+            return -1L;
+        } else {
+            return Long.parseLong(items.get(0).get(DEFAULT_RANGE_KEY).getN());
+        }
+    }
+
     /**
      * Creates a DynamoDB Table with the correct properties to be used with a ProviderStore.
      *
@@ -289,9 +499,7 @@ public class MetaStore extends ProviderStore {
 
     private Map<String, AttributeValue> conditionalPut(final Map<String, AttributeValue> item) {
         try {
-            final PutItemRequest put = new PutItemRequest().withTableName(tableName).withItem(item)
-                    .withExpected(doesNotExist);
-            ddb.putItem(put);
+            ddb.putItem(conditionalPutRequest(item));
             return item;
         } catch (final ConditionalCheckFailedException ex) {
             final Map<String, AttributeValue> ddbKey = new HashMap<>();
@@ -301,10 +509,83 @@ public class MetaStore extends ProviderStore {
         }
     }
 
+    private PutItemRequest conditionalPutRequest(final Map<String, AttributeValue> item) {
+        return new PutItemRequest().withTableName(tableName).withItem(item).withExpected(doesNotExist);
+    }
+
     private Map<String, AttributeValue> ddbGet(final Map<String, AttributeValue> ddbKey) {
-        return ddb.getItem(
-                new GetItemRequest().withTableName(tableName).withConsistentRead(true)
-                .withKey(ddbKey)).getItem();
+        return ddb.getItem(getItemRequest(ddbKey)).getItem();
+    }
+
+    private CompletableFuture<Map<String, AttributeValue>> ddbGetAsync(final Map<String, AttributeValue> ddbKey) {
+        final CompletableFuture<GetItemResult> result = new CompletableFuture<>();
+        asyncDdb.getItemAsync(getItemRequest(ddbKey), completeWith(result));
+        return result.thenApply(GetItemResult::getItem);
+    }
+
+    private List<Map<String, AttributeValue>> batchGet(final List<Map<String, AttributeValue>> keys) {
+        final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(tableName,
+                new KeysAndAttributes().withKeys(keys).withConsistentRead(true));
+        for (int attempt = 0; ; attempt++) {
+            final BatchGetItemResult result = ddb.batchGetItem(
+                    new BatchGetItemRequest().withRequestItems(requestItems));
+            final List<Map<String, AttributeValue>> responses = result.getResponses().get(tableName);
+            if (responses != null) {
+                items.addAll(responses);
+            }
+            requestItems = result.getUnprocessedKeys();
+            if (requestItems == null || requestItems.isEmpty()) {
+                return items;
+            }
+            if (attempt == BATCH_GET_MAX_RETRIES) {
+                throw new AmazonClientException("Unable to retrieve all materials after "
+                        + BATCH_GET_MAX_RETRIES + " retries");
+            }
+            try {
+                Thread.sleep(BATCH_GET_BASE_BACKOFF_MILLIS << attempt);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while retrieving materials", ex);
+            }
+        }
+    }
+
+    private GetItemRequest getItemRequest(final Map<String, AttributeValue> ddbKey) {
+        return new GetItemRequest().withTableName(tableName).withConsistentRead(true).withKey(ddbKey);
+    }
+
+    /**
+     * Returns a handler which completes {@code future} with the result of the request.
+     */
+    private static <Q extends AmazonWebServiceRequest, R> AsyncHandler<Q, R> completeWith(
+            final CompletableFuture<R> future) {
+        return new AsyncHandler<Q, R>() {
+            @Override
+            public void onError(final Exception exception) {
+                future.completeExceptionally(exception);
+            }
+
+            @Override
+            public void onSuccess(final Q request, final R result) {
+                future.complete(result);
+            }
+        };
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static Throwable unwrap(final Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
     }
 
     /**
@@ -316,6 +597,26 @@ public class MetaStore extends ProviderStore {
      * @return newly generated plaintext material item.
      */
     private Map<String, AttributeValue> createMaterialItem(final String materialName, final long version) {
+        final Map<String, AttributeValue> plaintext = newMaterialItem(materialName, version);
+        plaintext.putAll(extraDataSupplier.getAttributes(materialName, version));
+        return plaintext;
+    }
+
+    /**
+     * Builds a plaintext material item with newly generated keys, the given activation time and no
+     * extra data.
+     */
+    static Map<String, AttributeValue> newMaterialItem(final String materialName, final long version,
+            final long activationTimeMillis) {
+        final Map<String, AttributeValue> plaintext = newMaterialItem(materialName, version);
+        plaintext.put(ACTIVATION_TIME_FIELD, new AttributeValue().withN(Long.toString(activationTimeMillis)));
+        return plaintext;
+    }
+
+    /**
+     * Builds a plaintext material item with newly generated keys and no extra data.
+     */
+    static Map<String, AttributeValue> newMaterialItem(final String materialName, final long version) {
         final SecretKeySpec encryptionKey = new SecretKeySpec(Utils.getRandom(32), DEFAULT_ENCRYPTION);
         final SecretKeySpec integrityKey = new SecretKeySpec(Utils.getRandom(32), DEFAULT_INTEGRITY);
 
@@ -327,14 +628,24 @@ public class MetaStore extends ProviderStore {
         plaintext.put(ENCRYPTION_ALGORITHM_FIELD, new AttributeValue().withS(encryptionKey.getAlgorithm()));
         plaintext.put(INTEGRITY_KEY_FIELD, new AttributeValue().withB(ByteBuffer.wrap(integrityKey.getEncoded())));
         plaintext.put(INTEGRITY_ALGORITHM_FIELD, new AttributeValue().withS(integrityKey.getAlgorithm()));
-        plaintext.putAll(extraDataSupplier.getAttributes(materialName, version));
-
         return plaintext;
     }
 
     private EncryptionMaterialsProvider decryptProvider(final Map<String, AttributeValue> item) {
-        final Map<String, AttributeValue> plaintext = getPlainText(item);
+        return buildProvider(getPlainText(item));
+    }
 
+    private CompletableFuture<EncryptionMaterialsProvider> decryptProviderAsync(
+            final CompletableFuture<Map<String, AttributeValue>> item) {
+        return decryptionExecutor == null
+                ? item.thenApply(this::decryptProvider)
+                : item.thenApplyAsync(this::decryptProvider, decryptionExecutor);
+    }
+
+    /**
+     * Builds the provider for a decrypted material item.
+     */
+    static EncryptionMaterialsProvider buildProvider(final Map<String, AttributeValue> plaintext) {
         final String type = plaintext.get(MATERIAL_TYPE_VERSION).getS();
         final SecretKey encryptionKey;
         final SecretKey integrityKey;
@@ -383,7 +694,7 @@ public class MetaStore extends ProviderStore {
         }
     }
 
-    private Map<String, String> buildDescription(final Map<String, AttributeValue> plaintext) {
+    private static Map<String, String> buildDescription(final Map<String, AttributeValue> plaintext) {
         return Collections.singletonMap(META_ID, plaintext.get(DEFAULT_HASH_KEY).getS() + "#"
                 + plaintext.get(DEFAULT_RANGE_KEY).getN());
     }
@@ -12,7 +12,10 @@
  */
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
 
@@ -46,6 +49,28 @@ public abstract class ProviderStore {
      */
     public abstract EncryptionMaterialsProvider getProvider(final String materialName, final long version);
 
+    /**
+     * Returns the providers with the specified name and versions, keyed by version. Versions which
+     * do not exist are left out of the result.
+     *
+     * The default implementation calls {@link #getProvider(String, long)} for each version in
+     * turn. Stores which can retrieve many versions at once override it.
+     */
+    public Map<Long, EncryptionMaterialsProvider> getProviders(final String materialName,
+            final Collection<Long> versions) {
+        final Map<Long, EncryptionMaterialsProvider> result = new HashMap<>();
+        for (final Long version : versions) {
+            if (!result.containsKey(version)) {
+                try {
+                    result.put(version, getProvider(materialName, version));
+                } catch (final IndexOutOfBoundsException ex) {
+                    // Left out
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Creates a new provider with a version one greater than the current max version. If multiple
      * clients attempt to create a provider with this same version simultaneously, they will
@@ -71,14 +96,140 @@ public abstract class ProviderStore {
         }
     }
 
+    /**
+     * Returns the provider with the specified name and version and creates it if it doesn't exist,
+     * recording that it should not be used for encryption before {@code activationTimeMillis}
+     * (in milliseconds since the epoch). If the provider already exists, its activation time is
+     * left unchanged.
+     *
+     * @throws UnsupportedOperationException
+     *             if a new provider cannot be created, or this store does not record activation
+     *             times
+     */
+    public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId,
+            final long activationTimeMillis) {
+        throw new UnsupportedOperationException("This ProviderStore does not support activation times.");
+    }
+
+    /**
+     * Returns whether this store records activation times, as needed by
+     * {@link #getOrCreate(String, long, long)}. The default implementation returns false.
+     */
+    public boolean supportsActivationTimes() {
+        return false;
+    }
+
+    /**
+     * Returns the time, in milliseconds since the epoch, from which the provider with the
+     * specified name and version should be used for encryption. Providers created without an
+     * activation time return 0, as do all providers of stores which do not record activation
+     * times.
+     *
+     * @throws IndexOutOfBoundsException
+     *             if {@code version} is not a valid version
+     */
+    public long getActivationTime(final String materialName, final long version) {
+        return 0L;
+    }
+
+    /**
+     * Returns the provider with the specified name and version together with its activation time,
+     * as {@link #getProvider(String, long)} and {@link #getActivationTime(String, long)} would.
+     *
+     * The default implementation calls both methods. Stores which can read both from a single
+     * retrieval override it.
+     *
+     * @throws IndexOutOfBoundsException
+     *             if {@code version} is not a valid version
+     */
+    public ScheduledProvider getScheduledProvider(final String materialName, final long version) {
+        return new ScheduledProvider(getProvider(materialName, version), getActivationTime(materialName, version));
+    }
+
     /**
      * Returns the maximum version number associated with {@code materialName}. If there are no
      * versions, returns -1.
      */
     public abstract long getMaxVersion(final String materialName);
 
+    /**
+     * Asynchronous form of {@link #getProvider(String, long)}. The future fails with an
+     * {@link IndexOutOfBoundsException} if {@code version} is not a valid version.
+     *
+     * The default implementation calls {@link #getProvider(String, long)} on the calling thread.
+     * Stores which can retrieve providers without blocking the calling thread override it.
+     */
+    public CompletableFuture<EncryptionMaterialsProvider> getProviderAsync(final String materialName,
+            final long version) {
+        try {
+            return CompletableFuture.completedFuture(getProvider(materialName, version));
+        } catch (final RuntimeException ex) {
+            return failedFuture(ex);
+        }
+    }
+
+    /**
+     * Asynchronous form of {@link #getOrCreate(String, long)}.
+     *
+     * The default implementation calls {@link #getOrCreate(String, long)} on the calling thread.
+     * Stores which can create providers without blocking the calling thread override it.
+     */
+    public CompletableFuture<EncryptionMaterialsProvider> getOrCreateAsync(final String materialName,
+            final long nextId) {
+        try {
+            return CompletableFuture.completedFuture(getOrCreate(materialName, nextId));
+        } catch (final RuntimeException ex) {
+            return failedFuture(ex);
+        }
+    }
+
+    /**
+     * Asynchronous form of {@link #getMaxVersion(String)}.
+     *
+     * The default implementation calls {@link #getMaxVersion(String)} on the calling thread.
+     * Stores which can look up versions without blocking the calling thread override it.
+     */
+    public CompletableFuture<Long> getMaxVersionAsync(final String materialName) {
+        try {
+            return CompletableFuture.completedFuture(getMaxVersion(materialName));
+        } catch (final RuntimeException ex) {
+            return failedFuture(ex);
+        }
+    }
+
     /**
      * Extracts the material version from {@code description}.
      */
     public abstract long getVersionFromMaterialDescription(final Map<String, String> description);
+
+    /**
+     * A provider and the time, in milliseconds since the epoch, from which it should be used for
+     * encryption.
+     */
+    public static final class ScheduledProvider {
+        private final EncryptionMaterialsProvider provider;
+        private final long activationTime;
+
+        public ScheduledProvider(final EncryptionMaterialsProvider provider, final long activationTime) {
+            this.provider = provider;
+            this.activationTime = activationTime;
+        }
+
+        public EncryptionMaterialsProvider getProvider() {
+            return provider;
+        }
+
+        public long getActivationTime() {
+            return activationTime;
+        }
+    }
+
+    /**
+     * Returns a future which has already failed with {@code ex}.
+     */
+    protected static <T> CompletableFuture<T> failedFuture(final Throwable ex) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(ex);
+        return result;
+    }
 }
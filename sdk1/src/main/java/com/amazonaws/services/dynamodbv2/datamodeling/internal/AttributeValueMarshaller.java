@@ -14,13 +14,13 @@
  */
 package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,6 +36,9 @@ public class AttributeValueMarshaller {
     private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final int TRUE_FLAG = 1;
     private static final int FALSE_FLAG = 0;
+    private static final int TAG_SIZE = 2;
+    private static final int LENGTH_SIZE = 4;
+    private static final int DIGEST_BUFFER_SIZE = 512;
 
     private AttributeValueMarshaller() {
         // Prevent instantiation
@@ -66,72 +69,109 @@ public class AttributeValueMarshaller {
      * @see java.io.DataInput
      */
     public static ByteBuffer marshall(final AttributeValue attributeValue) {
-        try (ByteArrayOutputStream resultBytes = new ByteArrayOutputStream();
-                DataOutputStream out = new DataOutputStream(resultBytes);) {
-            marshall(attributeValue, out);
-            out.close();
-            resultBytes.close();
-            return ByteBuffer.wrap(resultBytes.toByteArray());
-        } catch (final IOException ex) {
-            // Due to the objects in use, an IOException is not possible.
-            throw new RuntimeException("Unexpected exception", ex);
+        final List<byte[]> strings = new ArrayList<byte[]>();
+        final ByteBuffer result = ByteBuffer.allocate(size(attributeValue, strings));
+        write(attributeValue, new Output(result, null, strings));
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Writes the serialized form of <code>attributeValue</code> into <code>out</code> starting at
+     * its current position, which is advanced past the written data. Exactly
+     * {@link #getMarshalledSize(AttributeValue)} bytes are written, so callers can size a single
+     * (heap or direct) buffer up front. The byte order of <code>out</code> is ignored and left
+     * unchanged.
+     *
+     * @see #marshall(AttributeValue)
+     * @throws java.nio.BufferOverflowException
+     *             if <code>out</code> does not have enough space remaining
+     */
+    public static void marshall(final AttributeValue attributeValue, final ByteBuffer out) {
+        final List<byte[]> strings = new ArrayList<byte[]>();
+        size(attributeValue, strings);
+        final ByteOrder originalOrder = out.order();
+        out.order(ByteOrder.BIG_ENDIAN);
+        try {
+            write(attributeValue, new Output(out, null, strings));
+        } finally {
+            out.order(originalOrder);
         }
     }
 
-    private static void marshall(final AttributeValue attributeValue, final DataOutputStream out)
-            throws IOException {
-        
+    /**
+     * Feeds the serialized form of <code>attributeValue</code> into <code>digest</code> without
+     * materializing it. Apart from the encoded strings, only a small, fixed amount of memory is
+     * used regardless of the size of <code>attributeValue</code>. The digest is neither reset
+     * beforehand nor completed.
+     *
+     * @see #marshall(AttributeValue)
+     */
+    public static void marshall(final AttributeValue attributeValue, final MessageDigest digest) {
+        final List<byte[]> strings = new ArrayList<byte[]>();
+        size(attributeValue, strings);
+        final Output out = new Output(ByteBuffer.allocate(DIGEST_BUFFER_SIZE), digest, strings);
+        write(attributeValue, out);
+        out.flush();
+    }
+
+    /**
+     * Returns the exact number of bytes {@link #marshall(AttributeValue)} produces for
+     * <code>attributeValue</code>, without serializing it.
+     */
+    public static int getMarshalledSize(final AttributeValue attributeValue) {
+        return size(attributeValue, null);
+    }
+
+    /**
+     * Returns the marshalled size of <code>attributeValue</code> and, unless <code>strings</code>
+     * is <code>null</code>, appends the UTF-8 encoding of every string and (normalized) number it
+     * contains in the order {@link #write(AttributeValue, Output)} needs them. Numbers are parsed
+     * and strings encoded only here, so that writing does not repeat the work.
+     */
+    private static int size(final AttributeValue attributeValue, final List<byte[]> strings) {
         if (attributeValue.getB() != null) {
-            out.writeChar('b');
-            writeBytes(attributeValue.getB(), out);
+            return TAG_SIZE + bytesSize(attributeValue.getB());
         } else if (attributeValue.getBS() != null) {
-            out.writeChar('B');
-            writeBytesList(attributeValue.getBS(), out);
+            int size = TAG_SIZE + LENGTH_SIZE;
+            for (final ByteBuffer b : attributeValue.getBS()) {
+                size += bytesSize(b);
+            }
+            return size;
         } else if (attributeValue.getN() != null) {
-            out.writeChar('n');
-            writeString(trimZeros(attributeValue.getN()), out);
+            return TAG_SIZE + stringSize(trimZeros(attributeValue.getN()), strings);
         } else if (attributeValue.getNS() != null) {
-            out.writeChar('N');
-
             final List<String> ns = new ArrayList<String>(attributeValue.getNS().size());
             for (final String n : attributeValue.getNS()) {
                 ns.add(trimZeros(n));
             }
-            writeStringList(ns, out);
+            return TAG_SIZE + stringListSize(ns, strings);
         } else if (attributeValue.getS() != null) {
-            out.writeChar('s');
-            writeString(attributeValue.getS(), out);
+            return TAG_SIZE + stringSize(attributeValue.getS(), strings);
         } else if (attributeValue.getSS() != null) {
-            out.writeChar('S');
-            writeStringList(attributeValue.getSS(), out);
+            return TAG_SIZE + stringListSize(attributeValue.getSS(), strings);
         } else if (attributeValue.getBOOL() != null) {
-            out.writeChar('?');
-            out.writeByte((attributeValue.getBOOL() ? TRUE_FLAG : FALSE_FLAG));
+            return TAG_SIZE + 1;
         } else if (Boolean.TRUE.equals(attributeValue.getNULL())) {
-            out.writeChar('\0');
+            return TAG_SIZE;
         } else if (attributeValue.getL() != null) {
-            final List<AttributeValue> l = attributeValue.getL();
-            out.writeChar('L');
-            out.writeInt(l.size());
-            for (final AttributeValue attr : l) {
+            int size = TAG_SIZE + LENGTH_SIZE;
+            for (final AttributeValue attr : attributeValue.getL()) {
                 if (attr == null) {
                     throw new NullPointerException(
                         "Encountered null list entry value while marshalling attribute value "
                         + attributeValue);
                 }
-                marshall(attr, out);
+                size += size(attr, strings);
             }
+            return size;
         } else if (attributeValue.getM() != null) {
             final Map<String, AttributeValue> m = attributeValue.getM();
             final List<String> mKeys = new ArrayList<String>(m.keySet());
             Collections.sort(mKeys);
-            out.writeChar('M');
-            out.writeInt(m.size());
+            int size = TAG_SIZE + LENGTH_SIZE;
             for (final String mKey : mKeys) {
-                marshall(new AttributeValue().withS(mKey), out);
-                
                 final AttributeValue mValue = m.get(mKey);
-                
                 if (mValue == null) {
                     throw new NullPointerException(
                         "Encountered null map value for key "
@@ -139,7 +179,56 @@ public class AttributeValueMarshaller {
                         + " while marshalling attribute value "
                         + attributeValue);
                 }
-                marshall(mValue, out);
+                size += TAG_SIZE + stringSize(mKey, strings) + size(mValue, strings);
+            }
+            return size;
+        } else {
+            throw new IllegalArgumentException("A seemingly empty AttributeValue is indicative of invalid input or potential errors");
+        }
+    }
+
+    private static void write(final AttributeValue attributeValue, final Output out) {
+        if (attributeValue.getB() != null) {
+            out.putChar('b');
+            writeBytes(attributeValue.getB(), out);
+        } else if (attributeValue.getBS() != null) {
+            out.putChar('B');
+            writeBytesList(attributeValue.getBS(), out);
+        } else if (attributeValue.getN() != null) {
+            out.putChar('n');
+            writeString(out);
+        } else if (attributeValue.getNS() != null) {
+            out.putChar('N');
+            writeStringList(attributeValue.getNS().size(), out);
+        } else if (attributeValue.getS() != null) {
+            out.putChar('s');
+            writeString(out);
+        } else if (attributeValue.getSS() != null) {
+            out.putChar('S');
+            writeStringList(attributeValue.getSS().size(), out);
+        } else if (attributeValue.getBOOL() != null) {
+            out.putChar('?');
+            out.put((byte) (attributeValue.getBOOL() ? TRUE_FLAG : FALSE_FLAG));
+        } else if (Boolean.TRUE.equals(attributeValue.getNULL())) {
+            out.putChar('\0');
+        } else if (attributeValue.getL() != null) {
+            final List<AttributeValue> l = attributeValue.getL();
+            out.putChar('L');
+            out.putInt(l.size());
+            for (final AttributeValue attr : l) {
+                write(attr, out);
+            }
+        } else if (attributeValue.getM() != null) {
+            // Null values were already rejected while sizing
+            final Map<String, AttributeValue> m = attributeValue.getM();
+            final List<String> mKeys = new ArrayList<String>(m.keySet());
+            Collections.sort(mKeys);
+            out.putChar('M');
+            out.putInt(m.size());
+            for (final String mKey : mKeys) {
+                out.putChar('s');
+                writeString(out);
+                write(m.get(mKey), out);
             }
         } else {
             throw new IllegalArgumentException("A seemingly empty AttributeValue is indicative of invalid input or potential errors");
@@ -231,12 +320,20 @@ public class AttributeValueMarshaller {
         return number.stripTrailingZeros().toPlainString();
     }
 
-    private static void writeStringList(List<String> values, final DataOutputStream out) throws IOException {
+    private static int stringListSize(final List<String> values, final List<byte[]> strings) {
         final List<String> sorted = new ArrayList<String>(values);
         Collections.sort(sorted);
-        out.writeInt(sorted.size());
+        int size = LENGTH_SIZE;
         for (final String v : sorted) {
-            writeString(v, out);
+            size += stringSize(v, strings);
+        }
+        return size;
+    }
+
+    private static void writeStringList(final int count, final Output out) {
+        out.putInt(count);
+        for (int idx = 0; idx < count; idx++) {
+            writeString(out);
         }
     }
 
@@ -250,10 +347,18 @@ public class AttributeValueMarshaller {
         return ns;
     }
 
-    private static void writeString(String value, final DataOutputStream out) throws IOException {
-        final byte[] bytes = value.getBytes(UTF8);
-        out.writeInt(bytes.length);
-        out.write(bytes);
+    private static int stringSize(final String value, final List<byte[]> strings) {
+        final byte[] encoded = value.getBytes(UTF8);
+        if (strings != null) {
+            strings.add(encoded);
+        }
+        return LENGTH_SIZE + encoded.length;
+    }
+
+    private static void writeString(final Output out) {
+        final byte[] encoded = out.nextString();
+        out.putInt(encoded.length);
+        out.put(encoded);
     }
 
     private static String readString(final DataInputStream in) throws IOException,
@@ -269,10 +374,10 @@ public class AttributeValueMarshaller {
         return tmp;
     }
 
-    private static void writeBytesList(List<ByteBuffer> values, final DataOutputStream out) throws IOException {
+    private static void writeBytesList(List<ByteBuffer> values, final Output out) {
         final List<ByteBuffer> sorted = new ArrayList<ByteBuffer>(values);
         Collections.sort(sorted);
-        out.writeInt(sorted.size());
+        out.putInt(sorted.size());
         for (final ByteBuffer v : sorted) {
             writeBytes(v, out);
         }
@@ -287,13 +392,16 @@ public class AttributeValueMarshaller {
         return bs;
     }
 
-    private static void writeBytes(ByteBuffer value, final DataOutputStream out) throws IOException {
-        value = value.asReadOnlyBuffer();
-        value.rewind();
-        out.writeInt(value.remaining());
-        while (value.hasRemaining()) {
-            out.writeByte(value.get());
-        }
+    private static int bytesSize(final ByteBuffer value) {
+        // The whole buffer is written, regardless of its position
+        return LENGTH_SIZE + value.limit();
+    }
+
+    private static void writeBytes(final ByteBuffer value, final Output out) {
+        final ByteBuffer src = value.duplicate();
+        src.rewind();
+        out.putInt(src.remaining());
+        out.put(src);
     }
 
     private static ByteBuffer readBytes(final DataInputStream in) throws IOException {
@@ -302,4 +410,72 @@ public class AttributeValueMarshaller {
         in.readFully(buf);
         return ByteBuffer.wrap(buf);
     }
+
+    /**
+     * Destination for {@link #write(AttributeValue, Output)}. Either writes directly into a buffer
+     * which is known to be large enough or, when there is a digest, uses the buffer as a small
+     * scratch space which is flushed into the digest whenever it fills up. Strings are taken, in
+     * order, from those encoded by {@link #size(AttributeValue, List)}.
+     */
+    private static final class Output {
+        private final ByteBuffer buffer;
+        private final MessageDigest digest;
+        private final List<byte[]> strings;
+        private int nextString = 0;
+
+        Output(final ByteBuffer buffer, final MessageDigest digest, final List<byte[]> strings) {
+            this.buffer = buffer;
+            this.digest = digest;
+            this.strings = strings;
+        }
+
+        byte[] nextString() {
+            return strings.get(nextString++);
+        }
+
+        void putChar(final char value) {
+            ensureRemaining(TAG_SIZE);
+            buffer.putChar(value);
+        }
+
+        void putInt(final int value) {
+            ensureRemaining(LENGTH_SIZE);
+            buffer.putInt(value);
+        }
+
+        void put(final byte value) {
+            ensureRemaining(1);
+            buffer.put(value);
+        }
+
+        void put(final byte[] src) {
+            if (digest == null || src.length <= buffer.remaining()) {
+                buffer.put(src);
+            } else {
+                flush();
+                digest.update(src);
+            }
+        }
+
+        void put(final ByteBuffer src) {
+            if (digest == null) {
+                buffer.put(src);
+            } else {
+                flush();
+                digest.update(src);
+            }
+        }
+
+        void flush() {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+
+        private void ensureRemaining(final int length) {
+            if (digest != null && buffer.remaining() < length) {
+                flush();
+            }
+        }
+    }
 }
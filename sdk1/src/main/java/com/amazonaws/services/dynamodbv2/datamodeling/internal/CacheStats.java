@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+/**
+ * A snapshot of the statistics of a {@link ConcurrentLRUCache}.
+ *
+ * This class is immutable.
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long evictionWeight;
+    private final long refreshCount;
+    private final long refreshFailureCount;
+
+    CacheStats(final long hitCount, final long missCount, final long evictionCount, final long evictionWeight,
+            final long refreshCount, final long refreshFailureCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.refreshCount = refreshCount;
+        this.refreshFailureCount = refreshFailureCount;
+    }
+
+    /** Returns the number of reads which found an entry. */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /** Returns the number of reads which found no entry, or an expired one. */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** Returns the total number of reads. */
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /** Returns the fraction of reads which found an entry, or 1 if there have been no reads. */
+    public double getHitRate() {
+        final long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /** Returns the number of entries removed to make room for others, or because they expired. */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /** Returns the total weight of the entries counted by {@link #getEvictionCount()}. */
+    public long getEvictionWeight() {
+        return evictionWeight;
+    }
+
+    /** Returns the number of entries successfully reloaded. */
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    /** Returns the number of attempts to reload an entry which failed. */
+    public long getRefreshFailureCount() {
+        return refreshFailureCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats [hitCount=" + hitCount + ", missCount=" + missCount
+                + ", evictionCount=" + evictionCount + ", evictionWeight=" + evictionWeight
+                + ", refreshCount=" + refreshCount + ", refreshFailureCount=" + refreshFailureCount + "]";
+    }
+}
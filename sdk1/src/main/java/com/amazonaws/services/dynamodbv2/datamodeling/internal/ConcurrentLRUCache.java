@@ -0,0 +1,617 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.LRUCache.RemovalListener;
+
+/**
+ * A bounded cache for use by many threads at once. Unlike {@link LRUCache}, reads do not take a
+ * lock: entries are looked up in a {@link ConcurrentHashMap} and the access is recorded in one of
+ * several buffers, chosen by thread, which are replayed against the eviction order later by
+ * whichever thread next holds the eviction lock. Accesses may be dropped when a buffer is full, so
+ * the eviction order is approximate.
+ *
+ * Eviction follows a segmented LRU policy. New entries are placed on probation and only become
+ * protected once they are read again, and entries on probation are evicted first. A scan over
+ * many keys, each read once, therefore evicts other one-off entries rather than the entries
+ * which are in regular use.
+ *
+ * The capacity may be limited by the total weight of the entries as well as by their number.
+ * Entries may also expire, or be reloaded in the background, a fixed time after they were added.
+ * The {@link RemovalListener} (if any) is notified of each entry which is evicted, expires or is
+ * cleared, but not of entries which are replaced.
+ *
+ * @param <T>
+ *            value type
+ */
+@ThreadSafe
+public final class ConcurrentLRUCache<T> {
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    /** Share of the capacity reserved for entries which have been read since they were added. */
+    private static final double PROTECTED_SHARE = 0.8;
+    /** Number of buffered reads after which a reader tries to replay them. */
+    private static final int DRAIN_THRESHOLD = 32;
+    /** Number of buffered reads after which further reads are not recorded. A power of two. */
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int MAX_READ_BUFFERS = 16;
+    private static final long MILLI_TO_NANO = 1000000L;
+
+    private final ConcurrentHashMap<String, Node<T>> map = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final int maxProtected;
+    private final long maxWeight;
+    private final long maxProtectedWeight;
+    private final Weigher<T> weigher;
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+    private final Loader<T> loader;
+    private final Executor refreshExecutor;
+    private final RemovalListener<T> listener;
+
+    private final ReadBuffer<T>[] readBuffers;
+
+    /** Guards the eviction order and the counts below. */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Node<T> probation = Node.sentinel();
+    private final Node<T> protectedEntries = Node.sentinel();
+    private int size;
+    private int protectedSize;
+    private long weight;
+    private long protectedWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentLRUCache(final Builder<T> builder) {
+        this.maxSize = builder.maxSize;
+        this.maxProtected = Math.max(1, (int) (maxSize * PROTECTED_SHARE));
+        this.maxWeight = builder.maxWeight;
+        this.maxProtectedWeight = (long) (maxWeight * PROTECTED_SHARE);
+        this.weigher = builder.weigher;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+        this.loader = builder.loader;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.listener = builder.listener;
+
+        int buffers = 1;
+        while (buffers < Runtime.getRuntime().availableProcessors() && buffers < MAX_READ_BUFFERS) {
+            buffers <<= 1;
+        }
+        readBuffers = new ReadBuffer[buffers];
+        for (int i = 0; i < buffers; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+    }
+
+    /**
+     * Adds an entry to the cache, evicting other entries if necessary, and returns the value it
+     * replaced or <code>null</code>.
+     */
+    public T add(final String key, final T value) {
+        final Node<T> node = newNode(key, value);
+        final Node<T> old = map.put(key, node);
+        afterWrite(node, old);
+        return old == null || isExpired(old, node.writeTime) ? null : old.value;
+    }
+
+    /**
+     * Adds an entry unless the cache already holds one for <code>key</code>, in which case the
+     * existing value is returned. Returns <code>null</code> if the entry was added.
+     */
+    public T putIfAbsent(final String key, final T value) {
+        final Node<T> node = newNode(key, value);
+        while (true) {
+            final Node<T> existing = map.putIfAbsent(key, node);
+            if (existing == null) {
+                afterWrite(node, null);
+                return null;
+            }
+            if (!isExpired(existing, node.writeTime)) {
+                afterRead(existing);
+                return existing.value;
+            }
+            if (map.replace(key, existing, node)) {
+                afterWrite(node, existing);
+                return null;
+            }
+        }
+    }
+
+    /** Returns the value of the given key; or null if no such entry exists. */
+    public T get(final String key) {
+        final Node<T> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        final long now = now();
+        if (isExpired(node, now)) {
+            misses.increment();
+            remove(node);
+            return null;
+        }
+        hits.increment();
+        afterRead(node);
+        if (refreshAfterWriteNanos > 0 && now - node.writeTime > refreshAfterWriteNanos) {
+            refresh(node);
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the value of the given key, or null, without counting as a use of the entry or
+     * updating the statistics.
+     */
+    public T peek(final String key) {
+        final Node<T> node = map.get(key);
+        return node == null || isExpired(node, now()) ? null : node.value;
+    }
+
+    /**
+     * Returns the current size of the cache. Expired entries are included until they are next
+     * read or evicted.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the maximum size of the cache.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the maximum total weight of the cache, or {@link Long#MAX_VALUE} if only the number
+     * of entries is limited.
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), evictionWeight.sum(),
+                refreshes.sum(), refreshFailures.sum());
+    }
+
+    /** Returns the number of reads which found an entry. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** Returns the number of reads which found no entry, or an expired one. */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** Returns the number of entries removed to make room for others, or because they expired. */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Removes all entries, notifying the listener (if any) of each.
+     */
+    public void clear() {
+        final List<Entry<String, T>> removed = listener == null ? null : new ArrayList<Entry<String, T>>();
+        evictionLock.lock();
+        try {
+            drainReads();
+            clearQueue(probation, removed);
+            clearQueue(protectedEntries, removed);
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyRemoved(removed);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentLRUCache [size=" + size() + ", maxSize=" + maxSize + "]";
+    }
+
+    private void clearQueue(final Node<T> head, final List<Entry<String, T>> removed) {
+        while (head.next != head) {
+            final Node<T> node = head.next;
+            unlink(node);
+            if (map.remove(node.key, node) && removed != null) {
+                removed.add(new SimpleImmutableEntry<>(node.key, node.value));
+            }
+        }
+    }
+
+    private Node<T> newNode(final String key, final T value) {
+        checkNotNull(value, "value must not be null");
+        final int nodeWeight = weigher == null ? 1 : weigher.weigh(key, value);
+        if (nodeWeight < 0) {
+            throw new IllegalArgumentException("weight " + nodeWeight + " must not be negative");
+        }
+        return new Node<>(key, value, nodeWeight, now());
+    }
+
+    private void refresh(final Node<T> node) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final Node<T> reloaded = newNode(node.key, loader.load(node.key));
+                        refreshes.increment();
+                        // Only replace the entry we were asked to refresh
+                        if (map.replace(node.key, node, reloaded)) {
+                            afterWrite(reloaded, node);
+                        }
+                    } catch (Exception ex) {
+                        refreshFailures.increment();
+                        node.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refreshFailures.increment();
+            node.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Returns the current time, or 0 if entries neither expire nor refresh. Reading the clock is a
+     * noticeable share of the cost of a hit.
+     */
+    private long now() {
+        return expireAfterWriteNanos > 0 || refreshAfterWriteNanos > 0 ? System.nanoTime() : 0;
+    }
+
+    private boolean isExpired(final Node<T> node, final long now) {
+        return expireAfterWriteNanos > 0 && now - node.writeTime > expireAfterWriteNanos;
+    }
+
+    private void afterRead(final Node<T> node) {
+        final ReadBuffer<T> buffer =
+                readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        final int pending = buffer.offer(node);
+        if (pending >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void afterWrite(final Node<T> node, final Node<T> old) {
+        final List<Entry<String, T>> removed = new ArrayList<>();
+        evictionLock.lock();
+        try {
+            drainReads();
+            if (old != null && old.queue != 0) {
+                unlink(old);
+            }
+            // A later write for the same key may already have replaced this node
+            if (map.get(node.key) == node) {
+                linkLast(probation, node, PROBATION);
+            }
+            if (node.weight > maxWeight) {
+                // Don't evict everything else only to evict this entry too
+                evict(node, removed);
+            }
+            while (size > maxSize || weight > maxWeight) {
+                Node<T> victim = probation.next;
+                if (victim == probation || (victim == node && protectedEntries.next != protectedEntries)) {
+                    // Only evict the entry just written if there is nothing else left
+                    victim = protectedEntries.next;
+                }
+                evict(victim, removed);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyRemoved(removed);
+    }
+
+    /** Evicts an entry. The eviction lock must be held. */
+    private void evict(final Node<T> victim, final List<Entry<String, T>> removed) {
+        if (victim.queue != 0) {
+            unlink(victim);
+        }
+        if (map.remove(victim.key, victim)) {
+            evictions.increment();
+            evictionWeight.add(victim.weight);
+            removed.add(new SimpleImmutableEntry<>(victim.key, victim.value));
+        }
+    }
+
+    private void remove(final Node<T> node) {
+        boolean wasRemoved = false;
+        evictionLock.lock();
+        try {
+            if (node.queue != 0) {
+                unlink(node);
+            }
+            wasRemoved = map.remove(node.key, node);
+        } finally {
+            evictionLock.unlock();
+        }
+        if (wasRemoved) {
+            evictions.increment();
+            evictionWeight.add(node.weight);
+            notifyRemoved(Collections.<Entry<String, T>>singletonList(
+                    new SimpleImmutableEntry<>(node.key, node.value)));
+        }
+    }
+
+    /** Replays buffered reads. The eviction lock must be held. */
+    private void drainReads() {
+        for (ReadBuffer<T> buffer : readBuffers) {
+            Node<T> node;
+            while ((node = buffer.poll()) != null) {
+                if (node.queue == PROBATION) {
+                    unlink(node);
+                    linkLast(protectedEntries, node, PROTECTED);
+                    while (protectedSize > maxProtected || protectedWeight > maxProtectedWeight) {
+                        final Node<T> demoted = protectedEntries.next;
+                        unlink(demoted);
+                        linkLast(probation, demoted, PROBATION);
+                    }
+                } else if (node.queue == PROTECTED) {
+                    unlink(node);
+                    linkLast(protectedEntries, node, PROTECTED);
+                }
+                // Otherwise the entry has already been removed
+            }
+        }
+    }
+
+    private void linkLast(final Node<T> head, final Node<T> node, final int queue) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        node.queue = queue;
+        size++;
+        weight += node.weight;
+        if (queue == PROTECTED) {
+            protectedSize++;
+            protectedWeight += node.weight;
+        }
+    }
+
+    private void unlink(final Node<T> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        size--;
+        weight -= node.weight;
+        if (node.queue == PROTECTED) {
+            protectedSize--;
+            protectedWeight -= node.weight;
+        }
+        node.queue = 0;
+    }
+
+    private void notifyRemoved(final List<Entry<String, T>> removed) {
+        if (listener != null) {
+            for (Entry<String, T> entry : removed) {
+                listener.onRemoval(entry);
+            }
+        }
+    }
+
+    private static <V> V checkNotNull(final V ref, final String errMsg) {
+        if (ref == null) {
+            throw new NullPointerException(errMsg);
+        }
+        return ref;
+    }
+
+    /**
+     * A fixed ring of recent reads. Any thread may offer a read, and it is dropped if the ring is
+     * full or another thread claimed the same slot first; only the holder of the eviction lock
+     * polls.
+     */
+    private static final class ReadBuffer<T> {
+        final AtomicReferenceArray<Node<T>> ring = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        final AtomicLong writeCount = new AtomicLong();
+        volatile long readCount;
+
+        /**
+         * Records a read and returns the number of reads now pending. A read which is dropped
+         * because another thread claimed the slot returns 0.
+         */
+        int offer(final Node<T> node) {
+            final long head = readCount;
+            final long tail = writeCount.get();
+            final long size = tail - head;
+            if (size >= READ_BUFFER_SIZE) {
+                return READ_BUFFER_SIZE;
+            }
+            if (!writeCount.compareAndSet(tail, tail + 1)) {
+                return 0;
+            }
+            ring.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+            return (int) size + 1;
+        }
+
+        /**
+         * Returns the oldest read, or null if there is none or it has not been published yet. The
+         * eviction lock must be held.
+         */
+        Node<T> poll() {
+            final long head = readCount;
+            if (head == writeCount.get()) {
+                return null;
+            }
+            final int index = (int) (head & (READ_BUFFER_SIZE - 1));
+            final Node<T> node = ring.get(index);
+            if (node != null) {
+                ring.lazySet(index, null);
+                readCount = head + 1;
+            }
+            return node;
+        }
+    }
+
+    private static final class Node<T> {
+        final String key;
+        final T value;
+        final int weight;
+        final long writeTime;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        // Guarded by the eviction lock
+        int queue;
+        Node<T> prev;
+        Node<T> next;
+
+        Node(final String key, final T value, final int weight, final long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+
+        static <T> Node<T> sentinel() {
+            final Node<T> head = new Node<>(null, null, 0, 0);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+    }
+
+    /**
+     * Computes the weight of entries, for caches whose capacity is limited by weight.
+     */
+    public static interface Weigher<T> {
+        public int weigh(String key, T value);
+    }
+
+    /**
+     * Computes new values for entries which are refreshed.
+     */
+    public static interface Loader<T> {
+        public T load(String key) throws Exception;
+    }
+
+    public static final class Builder<T> {
+        private final int maxSize;
+        private long maxWeight = Long.MAX_VALUE;
+        private Weigher<T> weigher = null;
+        private long expireAfterWriteNanos = 0;
+        private long refreshAfterWriteNanos = 0;
+        private Loader<T> loader = null;
+        private Executor refreshExecutor = null;
+        private RemovalListener<T> listener = null;
+
+        /**
+         * @param maxSize
+         *            the maximum number of entries of the cache
+         */
+        public Builder(final int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("maxSize " + maxSize + " must be at least 1");
+            }
+            this.maxSize = maxSize;
+        }
+
+        public ConcurrentLRUCache<T> build() {
+            return new ConcurrentLRUCache<>(this);
+        }
+
+        /**
+         * Discards entries <code>millis</code> milliseconds after they were added. Zero (the
+         * default) keeps entries until they are evicted.
+         */
+        public Builder<T> withExpireAfterWriteMillis(final long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("millis must not be negative");
+            }
+            this.expireAfterWriteNanos = millisToNanos(millis);
+            return this;
+        }
+
+        /**
+         * Limits the total weight of the entries, as computed by <code>weigher</code>, in
+         * addition to their number. The weight of an entry is computed once, when it is added.
+         */
+        public Builder<T> withMaxWeight(final long maxWeight, final Weigher<T> weigher) {
+            if (maxWeight < 0) {
+                throw new IllegalArgumentException("maxWeight must not be negative");
+            }
+            this.maxWeight = maxWeight;
+            this.weigher = checkNotNull(weigher, "weigher must not be null");
+            return this;
+        }
+
+        /**
+         * Reloads entries which are read more than <code>millis</code> milliseconds after they
+         * were added. The reload is run on <code>executor</code>, and readers are given the
+         * existing value until it completes. If the reload fails, the existing value is kept and
+         * the next read tries again. Zero (the default) disables reloading.
+         */
+        public Builder<T> withRefreshAfterWriteMillis(final long millis, final Loader<T> loader,
+                final Executor executor) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("millis must not be negative");
+            }
+            if (millis > 0) {
+                this.loader = checkNotNull(loader, "loader must not be null");
+                this.refreshExecutor = checkNotNull(executor, "executor must not be null");
+            }
+            this.refreshAfterWriteNanos = millisToNanos(millis);
+            return this;
+        }
+
+        /**
+         * Sets an object which is notified after entries are evicted, expire or are cleared.
+         */
+        public Builder<T> withRemovalListener(final RemovalListener<T> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        private static long millisToNanos(final long millis) {
+            return millis > Long.MAX_VALUE / MILLI_TO_NANO ? Long.MAX_VALUE : millis * MILLI_TO_NANO;
+        }
+    }
+}
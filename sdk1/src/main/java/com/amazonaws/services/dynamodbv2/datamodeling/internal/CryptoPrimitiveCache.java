@@ -0,0 +1,302 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Holds on to JCA {@link Cipher}, {@link Mac}, {@link Signature} and {@link MessageDigest}
+ * instances so that they can be reused across many records rather than being looked up through
+ * the provider framework for every one. Instances are keyed by algorithm (or transformation) and
+ * provider, where a <code>null</code> provider means the highest priority provider at the time of
+ * the first lookup.
+ *
+ * Instances are handed out uninitialized (with the exception of {@link #getMac(Key, Provider)}),
+ * so callers must always call the appropriate <code>init</code> method before use. Callers must
+ * also be done with an instance before anything else may request one from the same cache.
+ *
+ * {@link #get()} returns a cache bound to the current thread, which is how the encryptor, the
+ * signer and {@link Hkdf} share instances. Thread-local pooling can be turned off by setting the
+ * system property {@value #POOLING_PROPERTY} to <code>false</code> or by calling
+ * {@link #setPoolingEnabled(boolean)}, in which case {@link #get()} returns a new cache every
+ * time. Applications which load this library in a container with pooled threads should call
+ * {@link #release()} on those threads when unloading it.
+ *
+ * Initialized {@link Mac}s hold on to their keys, so a thread-bound cache only keeps them between
+ * {@link #beginBatch()} and {@link #endBatch()}, and otherwise creates a new one for each call to
+ * {@link #getMac(Key, Provider)}. Keeping them for as long as the thread lives can be enabled by
+ * setting the system property {@value #KEYED_MAC_POOLING_PROPERTY} to <code>true</code> or by
+ * calling {@link #setKeyedMacPoolingEnabled(boolean)}. This avoids re-initializing the HMAC for
+ * every record when the same key objects are used for many records, as with a
+ * {@link com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.MostRecentProvider},
+ * at the cost of keeping up to eight keys reachable from each thread which has used the cache.
+ * Caches created with the constructor always keep them, as they are only as long lived as their
+ * owner.
+ *
+ * This class is <em>not</em> thread-safe.
+ */
+public final class CryptoPrimitiveCache {
+    /**
+     * System property which, when set to <code>false</code>, disables thread-local pooling.
+     */
+    public static final String POOLING_PROPERTY =
+            "com.amazonaws.services.dynamodbv2.datamodeling.cryptoPrimitivePooling";
+    /**
+     * System property which, when set to <code>true</code>, lets thread-bound caches keep
+     * initialized {@link Mac}s, and so their keys, outside of batches.
+     */
+    public static final String KEYED_MAC_POOLING_PROPERTY =
+            "com.amazonaws.services.dynamodbv2.datamodeling.cryptoPrimitivePooling.keyedMacs";
+    // Enough for the signing key and comparison key of several tables in flight on one thread.
+    private static final int MAX_KEYED_MACS = 8;
+    private static final ThreadLocal<CryptoPrimitiveCache> THREAD_CACHE =
+            ThreadLocal.withInitial(() -> new CryptoPrimitiveCache(true));
+    private static volatile boolean poolingEnabled =
+            !"false".equalsIgnoreCase(System.getProperty(POOLING_PROPERTY));
+    private static volatile boolean keyedMacPoolingEnabled =
+            "true".equalsIgnoreCase(System.getProperty(KEYED_MAC_POOLING_PROPERTY));
+
+    private final boolean threadBound;
+    private int batchDepth = 0;
+
+    private final Map<String, Cipher> ciphers = new HashMap<>();
+    private final Map<String, Mac> macs = new HashMap<>();
+    private final Map<KeyedMac, Mac> keyedMacs = new LinkedHashMap<KeyedMac, Mac>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<KeyedMac, Mac> eldest) {
+            return size() > MAX_KEYED_MACS;
+        }
+    };
+    private final Map<String, Signature> signatures = new HashMap<>();
+    private final Map<String, MessageDigest> digests = new HashMap<>();
+
+    public CryptoPrimitiveCache() {
+        this(false);
+    }
+
+    private CryptoPrimitiveCache(final boolean threadBound) {
+        this.threadBound = threadBound;
+    }
+
+    /**
+     * Returns the cache bound to the current thread, or a new cache if pooling is disabled.
+     */
+    public static CryptoPrimitiveCache get() {
+        return poolingEnabled ? THREAD_CACHE.get() : new CryptoPrimitiveCache();
+    }
+
+    /**
+     * Enables or disables thread-local pooling for subsequent calls to {@link #get()}.
+     */
+    public static void setPoolingEnabled(final boolean enabled) {
+        poolingEnabled = enabled;
+    }
+
+    public static boolean isPoolingEnabled() {
+        return poolingEnabled;
+    }
+
+    /**
+     * Enables or disables keeping initialized {@link Mac}s in thread-bound caches outside of
+     * batches. Disabling it drops those already kept the next time each thread ends a batch.
+     */
+    public static void setKeyedMacPoolingEnabled(final boolean enabled) {
+        keyedMacPoolingEnabled = enabled;
+    }
+
+    public static boolean isKeyedMacPoolingEnabled() {
+        return keyedMacPoolingEnabled;
+    }
+
+    /**
+     * Discards the cache bound to the current thread, along with every instance and key it holds.
+     */
+    public static void release() {
+        THREAD_CACHE.remove();
+    }
+
+    /**
+     * Starts a batch of records, for the duration of which initialized {@link Mac}s are kept so
+     * that they are only re-initialized when the key changes. Every call must be matched by a call
+     * to {@link #endBatch()}, and batches may be nested.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends the batch started by the matching {@link #beginBatch()}.
+     */
+    public void endBatch() {
+        if (batchDepth > 0 && --batchDepth == 0 && !retainsKeyedMacs()) {
+            keyedMacs.clear();
+        }
+    }
+
+    /**
+     * Returns a {@link Cipher} for <code>transformation</code> from the default provider. The
+     * caller must initialize it.
+     */
+    public Cipher getCipher(final String transformation)
+            throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return getCipher(transformation, null);
+    }
+
+    /**
+     * Returns a {@link Cipher} for <code>transformation</code> from <code>provider</code>. The
+     * caller must initialize it.
+     */
+    public Cipher getCipher(final String transformation, final Provider provider)
+            throws NoSuchAlgorithmException, NoSuchPaddingException {
+        final String cacheKey = cacheKey(transformation, provider);
+        Cipher result = ciphers.get(cacheKey);
+        if (result == null) {
+            result = provider == null ? Cipher.getInstance(transformation)
+                    : Cipher.getInstance(transformation, provider);
+            ciphers.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns an uninitialized {@link Mac} for <code>algorithm</code> from <code>provider</code>.
+     * This is meant for keys which are only used once, such as the salt during HKDF extraction.
+     */
+    public Mac getMac(final String algorithm, final Provider provider) throws NoSuchAlgorithmException {
+        final String cacheKey = cacheKey(algorithm, provider);
+        Mac result = macs.get(cacheKey);
+        if (result == null) {
+            result = newMac(algorithm, provider);
+            macs.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a {@link Mac} for the algorithm of <code>key</code> from the default provider.
+     *
+     * @see #getMac(Key, Provider)
+     */
+    public Mac getMac(final Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        return getMac(key, null);
+    }
+
+    /**
+     * Returns a {@link Mac} for the algorithm of <code>key</code> which has already been
+     * initialized with <code>key</code> and is ready to accept data. Where this cache keeps
+     * initialized instances, the (comparatively expensive) initialization is skipped for the last
+     * few key objects seen.
+     */
+    public Mac getMac(final Key key, final Provider provider)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if (!retainsKeyedMacs()) {
+            final Mac result = newMac(key.getAlgorithm(), provider);
+            result.init(key);
+            return result;
+        }
+        final KeyedMac cacheKey = new KeyedMac(key, provider);
+        Mac result = keyedMacs.get(cacheKey);
+        if (result != null) {
+            result.reset();
+        } else {
+            result = newMac(key.getAlgorithm(), provider);
+            result.init(key);
+            keyedMacs.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a {@link Signature} for <code>algorithm</code>. The caller must initialize it for
+     * either signing or verification.
+     */
+    public Signature getSignature(final String algorithm) throws NoSuchAlgorithmException {
+        Signature result = signatures.get(algorithm);
+        if (result == null) {
+            result = Signature.getInstance(algorithm);
+            signatures.put(algorithm, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a freshly reset {@link MessageDigest} for <code>algorithm</code>.
+     */
+    public MessageDigest getMessageDigest(final String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest result = digests.get(algorithm);
+        if (result == null) {
+            result = MessageDigest.getInstance(algorithm);
+            digests.put(algorithm, result);
+        } else {
+            result.reset();
+        }
+        return result;
+    }
+
+    private boolean retainsKeyedMacs() {
+        return !threadBound || batchDepth > 0 || keyedMacPoolingEnabled;
+    }
+
+    private static Mac newMac(final String algorithm, final Provider provider)
+            throws NoSuchAlgorithmException {
+        return provider == null ? Mac.getInstance(algorithm) : Mac.getInstance(algorithm, provider);
+    }
+
+    private static String cacheKey(final String algorithm, final Provider provider) {
+        return provider == null ? algorithm : algorithm + "@" + provider.getName();
+    }
+
+    /**
+     * Identifies a {@link Mac} by the identity of the key it was initialized with.
+     */
+    private static final class KeyedMac {
+        private final Key key;
+        private final String provider;
+
+        KeyedMac(final Key key, final Provider provider) {
+            this.key = key;
+            this.provider = provider == null ? null : provider.getName();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof KeyedMac)) {
+                return false;
+            }
+            final KeyedMac other = (KeyedMac) obj;
+            return key == other.key
+                    && (provider == null ? other.provider == null : provider.equals(other.provider));
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key) * 31 + (provider == null ? 0 : provider.hashCode());
+        }
+    }
+}
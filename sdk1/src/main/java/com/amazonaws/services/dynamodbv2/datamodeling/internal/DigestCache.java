@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * A bounded, thread-safe cache of message digests for values which are hashed over and over
+ * again, such as attribute names. Lookups never block. Once the cache is full, the least recently
+ * used values are evicted, and values which have only been seen once are evicted first, so a
+ * stable working set (like the attributes of a fixed schema) stays cached even when it is joined
+ * by a stream of one-off values.
+ *
+ * The returned arrays are shared and must not be modified.
+ */
+public final class DigestCache {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final ConcurrentLRUCache<byte[]> stringDigests;
+    // Keyed by the ISO-8859-1 decoding of the value, which maps each byte to exactly one char
+    private final ConcurrentLRUCache<byte[]> byteDigests;
+    private final String algorithm;
+
+    /**
+     * @param algorithm
+     *            the digest algorithm all cached values are hashed with
+     * @param maxSize
+     *            the maximum number of digests to remember of each of strings and byte arrays
+     */
+    public DigestCache(final String algorithm, final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize " + maxSize + " must be at least 1");
+        }
+        this.algorithm = algorithm;
+        this.stringDigests = new ConcurrentLRUCache.Builder<byte[]>(maxSize).build();
+        this.byteDigests = new ConcurrentLRUCache.Builder<byte[]>(maxSize).build();
+    }
+
+    /**
+     * Returns the digest of the UTF-8 encoding of <code>value</code>.
+     *
+     * @param digest
+     *            used to calculate the result on a cache miss. It must be an idle instance of the
+     *            algorithm of this cache and is left reset.
+     */
+    public byte[] digest(final String value, final MessageDigest digest) {
+        byte[] result = stringDigests.get(value);
+        if (result == null) {
+            result = calculate(value.getBytes(UTF8), digest);
+            stringDigests.add(value, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the digest of <code>value</code>.
+     *
+     * @param digest
+     *            used to calculate the result on a cache miss. It must be an idle instance of the
+     *            algorithm of this cache and is left reset.
+     */
+    public byte[] digest(final byte[] value, final MessageDigest digest) {
+        // The key is a copy, so later changes to the caller's array cannot corrupt the cache
+        final String key = new String(value, StandardCharsets.ISO_8859_1);
+        byte[] result = byteDigests.get(key);
+        if (result == null) {
+            result = calculate(value, digest);
+            byteDigests.add(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of cached digests.
+     */
+    public int size() {
+        return stringDigests.size() + byteDigests.size();
+    }
+
+    private byte[] calculate(final byte[] value, final MessageDigest digest) {
+        if (!algorithm.equals(digest.getAlgorithm())) {
+            throw new IllegalArgumentException("Expected a " + algorithm + " digest but got "
+                    + digest.getAlgorithm());
+        }
+        digest.reset();
+        return digest.digest(value);
+    }
+}
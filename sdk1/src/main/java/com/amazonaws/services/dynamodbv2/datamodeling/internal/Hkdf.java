@@ -140,7 +140,7 @@ public final class Hkdf {
         byte[] realSalt = (salt == null) ? EMPTY_ARRAY : salt.clone();
         byte[] rawKeyMaterial = EMPTY_ARRAY;
         try {
-            Mac extractionMac = Mac.getInstance(algorithm, provider);
+            Mac extractionMac = CryptoPrimitiveCache.get().getMac(algorithm, provider);
             if (realSalt.length == 0) {
                 realSalt = new byte[extractionMac.getMacLength()];
                 Arrays.fill(realSalt, (byte) 0);
@@ -290,9 +290,7 @@ public final class Hkdf {
 
     private Mac createMac() {
         try {
-            Mac mac = Mac.getInstance(algorithm, provider);
-            mac.init(prk);
-            return mac;
+            return CryptoPrimitiveCache.get().getMac(prk, provider);
         } catch (NoSuchAlgorithmException ex) {
             // We've already validated that this algorithm is correct.
             throw new RuntimeException(ex);
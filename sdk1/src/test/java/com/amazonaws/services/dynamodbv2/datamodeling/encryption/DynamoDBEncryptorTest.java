@@ -18,6 +18,8 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.Decry
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Base64;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.testing.AttrMatcher;
@@ -30,8 +32,10 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
@@ -42,10 +46,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Security;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -56,6 +62,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.testng.AssertJUnit.assertArrayEquals;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -398,6 +405,361 @@ public class DynamoDBEncryptorTest {
         encryptor.decryptAllFieldsExcept(encryptedAttributes, context, attribs.keySet().toArray(new String[0]));
     }
 
+    @Test
+    public void encryptionPlan() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final EncryptionPlan plan = EncryptionPlan.compile(flags);
+
+        Map<String, AttributeValue> encryptedAttributes =
+                encryptor.encryptRecord(Collections.unmodifiableMap(attribs), plan, context);
+        assertThat(encryptedAttributes, AttrMatcher.invert(attribs));
+        // Records produced from a plan and from the equivalent flags are interchangeable
+        assertThat(encryptor.decryptRecord(encryptedAttributes, flags, context), AttrMatcher.match(attribs));
+        assertThat(encryptor.decryptRecord(encryptedAttributes, plan, context), AttrMatcher.match(attribs));
+
+        encryptedAttributes = encryptor.encryptRecord(Collections.unmodifiableMap(attribs), flags, context);
+        assertThat(encryptor.decryptRecord(Collections.unmodifiableMap(encryptedAttributes), plan, context),
+                AttrMatcher.match(attribs));
+
+        final List<RecordResult> encrypted = encryptor.encryptRecords(
+                Collections.singletonList(attribs), plan, context);
+        assertTrue(encrypted.get(0).isSuccessful());
+        final List<RecordResult> decrypted = encryptor.decryptRecords(
+                Collections.singletonList(encrypted.get(0).getItem()), plan, context);
+        assertTrue(decrypted.get(0).isSuccessful());
+        assertThat(decrypted.get(0).getItem(), AttrMatcher.match(attribs));
+    }
+
+    @Test(expectedExceptions = SignatureException.class)
+    public void encryptionPlanBadSignature() throws GeneralSecurityException {
+        final EncryptionPlan plan = EncryptionPlan.compile(encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version"));
+        Map<String, AttributeValue> encryptedAttributes =
+                encryptor.encryptRecord(Collections.unmodifiableMap(attribs), plan, context);
+        encryptedAttributes.get("hashKey").setN("666");
+        encryptor.decryptRecord(encryptedAttributes, plan, context);
+    }
+
+    @Test
+    public void lazyDecryption() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> encryptedAttributes = encryptor.encryptRecord(attribs, flags, context);
+
+        final Map<String, AttributeValue> lazy = encryptor.decryptRecordLazily(
+                Collections.unmodifiableMap(encryptedAttributes), flags, context);
+        assertEquals(attribs.size(), lazy.size());
+        assertEquals(attribs.keySet(), lazy.keySet());
+        final LazilyDecryptedItem view = (LazilyDecryptedItem) lazy;
+        assertTrue(view.isDecrypted("hashKey"));
+        assertFalse(view.isDecrypted("stringValue"));
+        assertFalse(view.isDecrypted("intSet"));
+
+        assertAttrEquals(attribs.get("stringValue"), lazy.get("stringValue"));
+        assertTrue(view.isDecrypted("stringValue"));
+        assertFalse(view.isDecrypted("intSet"));
+        // Memoized
+        assertTrue(lazy.get("stringValue") == lazy.get("stringValue"));
+        assertAttrEquals(attribs.get("hashKey"), lazy.get("hashKey"));
+        assertTrue(lazy.containsKey("intSet"));
+        assertFalse(view.isDecrypted("intSet"));
+        assertNull(lazy.get("notAnAttribute"));
+
+        // Changing the ciphertext after verification has no effect
+        encryptedAttributes.get("intSet").getB().put(20, (byte) (encryptedAttributes.get("intSet").getB().get(20) + 1));
+        assertThat(new HashMap<>(lazy), AttrMatcher.match(attribs));
+    }
+
+    @Test(expectedExceptions = SignatureException.class)
+    public void lazyDecryptionBadSignature() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> encryptedAttributes = encryptor.encryptRecord(attribs, flags, context);
+        encryptedAttributes.get("hashKey").setN("666");
+        encryptor.decryptRecordLazily(encryptedAttributes, flags, context);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void lazyDecryptionIsReadOnly() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> lazy = encryptor.decryptRecordLazily(
+                encryptor.encryptRecord(attribs, flags, context), flags, context);
+        lazy.put("stringValue", new AttributeValue().withS("Changed"));
+    }
+
+    @Test
+    public void projectedDecryption() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> encryptedAttributes = encryptor.encryptRecord(attribs, flags, context);
+
+        final Map<String, AttributeValue> decrypted = encryptor.decryptRecord(
+                Collections.unmodifiableMap(encryptedAttributes), flags, context,
+                Collections.singleton("stringValue"));
+        assertEquals(4, decrypted.size());
+        assertAttrEquals(attribs.get("stringValue"), decrypted.get("stringValue"));
+        assertAttrEquals(attribs.get("hashKey"), decrypted.get("hashKey"));
+        assertAttrEquals(attribs.get("rangeKey"), decrypted.get("rangeKey"));
+        assertAttrEquals(attribs.get("version"), decrypted.get("version"));
+        assertFalse(decrypted.containsKey("intSet"));
+
+        // Plaintext attributes are returned whether or not they are named
+        final Map<String, AttributeValue> keysOnly = encryptor.decryptRecord(
+                encryptedAttributes, EncryptionPlan.compile(flags), context, Collections.<String>emptySet());
+        assertEquals(3, keysOnly.size());
+        assertAttrEquals(attribs.get("hashKey"), keysOnly.get("hashKey"));
+    }
+
+    @Test(expectedExceptions = SignatureException.class)
+    public void projectedDecryptionBadSignature() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> encryptedAttributes = encryptor.encryptRecord(attribs, flags, context);
+        // Tampering with an attribute which is not decrypted is still detected
+        encryptedAttributes.get("intSet").getB().put(20, (byte) (encryptedAttributes.get("intSet").getB().get(20) + 1));
+        encryptor.decryptRecord(encryptedAttributes, flags, context, Collections.singleton("stringValue"));
+    }
+
+    @Test
+    public void gcmEncryption() throws GeneralSecurityException {
+        encryptor.setSymmetricEncryptionMode(DynamoDBEncryptor.GCM_ENCRYPTION_MODE);
+        final Map<String, AttributeValue> encryptedAttributes =
+                encryptor.encryptAllFieldsExcept(Collections.unmodifiableMap(attribs), context, "hashKey", "rangeKey", "version");
+        assertThat(encryptedAttributes, AttrMatcher.invert(attribs));
+        final Map<String, String> description = DynamoDBEncryptor.unmarshallDescription(
+                encryptedAttributes.get(encryptor.getMaterialDescriptionFieldName()));
+        assertEquals(DynamoDBEncryptor.GCM_ENCRYPTION_MODE, description.get("encryptor-sym-mode"));
+        // Each record is encrypted under its own key
+        assertEquals(32, Base64.decode(description.get("encryptor-gcm-salt")).length);
+        final Map<String, String> otherDescription = DynamoDBEncryptor.unmarshallDescription(
+                encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version")
+                        .get(encryptor.getMaterialDescriptionFieldName()));
+        assertFalse(description.get("encryptor-gcm-salt").equals(otherDescription.get("encryptor-gcm-salt")));
+        // <iv><ciphertext><tag> with no padding
+        assertEquals(12 + 16 + AttributeValueMarshaller.getMarshalledSize(attribs.get("stringValue")),
+                encryptedAttributes.get("stringValue").getB().remaining());
+
+        Map<String, AttributeValue> decryptedAttributes =
+                encryptor.decryptAllFieldsExcept(Collections.unmodifiableMap(encryptedAttributes), context, "hashKey", "rangeKey", "version");
+        assertThat(decryptedAttributes, AttrMatcher.match(attribs));
+
+        // The mode is taken from the record rather than the encryptor
+        encryptor.setSymmetricEncryptionMode(DynamoDBEncryptor.CBC_ENCRYPTION_MODE);
+        decryptedAttributes = encryptor.decryptAllFieldsExcept(
+                Collections.unmodifiableMap(encryptedAttributes), context, "hashKey", "rangeKey", "version");
+        assertThat(decryptedAttributes, AttrMatcher.match(attribs));
+    }
+
+    @Test(expectedExceptions = AEADBadTagException.class)
+    public void gcmRecordKeyDependsOnSalt() throws GeneralSecurityException {
+        encryptor.setSymmetricEncryptionMode(DynamoDBEncryptor.GCM_ENCRYPTION_MODE);
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> encryptedAttributes = encryptor.encryptRecord(attribs, flags, context);
+        final Map<String, String> description = new HashMap<>(DynamoDBEncryptor.unmarshallDescription(
+                encryptedAttributes.get(encryptor.getMaterialDescriptionFieldName())));
+        description.put("encryptor-gcm-salt", Base64.encodeToString(new byte[32]));
+        encryptedAttributes.put(encryptor.getMaterialDescriptionFieldName(),
+                DynamoDBEncryptor.marshallDescription(description));
+        encryptor.decryptRecord(encryptedAttributes, flags, context);
+    }
+
+    @Test
+    public void cbcIsDefaultMode() throws GeneralSecurityException {
+        assertEquals(DynamoDBEncryptor.CBC_ENCRYPTION_MODE, encryptor.getSymmetricEncryptionMode());
+        final Map<String, AttributeValue> encryptedAttributes =
+                encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version");
+        final Map<String, String> description = DynamoDBEncryptor.unmarshallDescription(
+                encryptedAttributes.get(encryptor.getMaterialDescriptionFieldName()));
+        assertEquals(DynamoDBEncryptor.CBC_ENCRYPTION_MODE, description.get("encryptor-sym-mode"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unsupportedEncryptionMode() {
+        encryptor.setSymmetricEncryptionMode("/ECB/NoPadding");
+    }
+
+    @Test
+    public void packedEncryption() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final Map<String, AttributeValue> unpacked = encryptor.encryptRecord(attribs, flags, context);
+        encryptor.setPackEncryptedAttributes(true);
+        final Map<String, AttributeValue> packed = encryptor.encryptRecord(
+                Collections.unmodifiableMap(attribs), flags, context);
+
+        // Keys, description, signature and the packed attributes
+        assertEquals(6, packed.size());
+        assertAttrEquals(attribs.get("hashKey"), packed.get("hashKey"));
+        assertFalse(packed.containsKey("stringValue"));
+        assertNotNull(packed.get(encryptor.getPackedAttributesFieldName()).getB());
+        assertTrue(totalSize(packed) < totalSize(unpacked));
+
+        assertThat(encryptor.decryptRecord(Collections.unmodifiableMap(packed), flags, context),
+                AttrMatcher.match(attribs));
+        assertThat(encryptor.decryptAllFieldsExcept(packed, context, "hashKey", "rangeKey", "version"),
+                AttrMatcher.match(attribs));
+        assertThat(new HashMap<>(encryptor.decryptRecordLazily(packed, flags, context)), AttrMatcher.match(attribs));
+        final Map<String, AttributeValue> projected = encryptor.decryptRecord(
+                packed, flags, context, Collections.singleton("stringValue"));
+        assertEquals(4, projected.size());
+        assertAttrEquals(attribs.get("stringValue"), projected.get("stringValue"));
+
+        // Packing is detected from the record rather than the encryptor
+        encryptor.setPackEncryptedAttributes(false);
+        assertThat(encryptor.decryptRecord(packed, flags, context), AttrMatcher.match(attribs));
+    }
+
+    @Test(expectedExceptions = SignatureException.class)
+    public void packedEncryptionBadSignature() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        encryptor.setPackEncryptedAttributes(true);
+        final Map<String, AttributeValue> packed = encryptor.encryptRecord(attribs, flags, context);
+        final ByteBuffer blob = packed.get(encryptor.getPackedAttributesFieldName()).getB();
+        blob.put(20, (byte) (blob.get(20) + 1));
+        encryptor.decryptRecord(packed, flags, context);
+    }
+
+    @Test(expectedExceptions = SignatureException.class)
+    public void packedEncryptionHeaderRemoved() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        encryptor.setPackEncryptedAttributes(true);
+        final Map<String, AttributeValue> packed = encryptor.encryptRecord(attribs, flags, context);
+        final Map<String, String> description = DynamoDBEncryptor.unmarshallDescription(
+                packed.get(encryptor.getMaterialDescriptionFieldName()));
+        description.remove("encryptor-packed");
+        packed.put(encryptor.getMaterialDescriptionFieldName(), DynamoDBEncryptor.marshallDescription(description));
+        encryptor.decryptRecord(packed, flags, context);
+    }
+
+    private static int totalSize(Map<String, AttributeValue> item) {
+        int size = 0;
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            size += entry.getKey().length() + AttributeValueMarshaller.getMarshalledSize(entry.getValue());
+        }
+        return size;
+    }
+
+    @Test
+    public void batchEncryption() throws GeneralSecurityException {
+        final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int x = 0; x < 5; x++) {
+            final Map<String, AttributeValue> item = new HashMap<>(attribs);
+            item.put("hashKey", new AttributeValue().withN(Integer.toString(x)));
+            items.add(Collections.unmodifiableMap(item));
+        }
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+
+        final List<RecordResult> encrypted = encryptor.encryptRecords(items, flags, context);
+        assertEquals(items.size(), encrypted.size());
+        assertEquals(items.size(), prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+        final List<Map<String, AttributeValue>> ciphertexts = new ArrayList<>();
+        for (int x = 0; x < items.size(); x++) {
+            final RecordResult result = encrypted.get(x);
+            assertTrue(result.isSuccessful());
+            assertNull(result.getException());
+            assertThat(result.getItem(), AttrMatcher.invert(items.get(x)));
+            assertAttrEquals(items.get(x).get("hashKey"), result.getItem().get("hashKey"));
+            // Each record must also be readable on its own
+            assertThat(encryptor.decryptRecord(result.getItem(), flags, context), AttrMatcher.match(items.get(x)));
+            ciphertexts.add(result.getItem());
+        }
+
+        final int decryptionCalls = prov.getCallCount("getDecryptionMaterials()");
+        final List<RecordResult> decrypted = encryptor.decryptRecords(ciphertexts, flags, context);
+        assertEquals(items.size(), decrypted.size());
+        // All records share one material description, so the materials are requested once
+        assertEquals(decryptionCalls + 1, prov.getCallCount("getDecryptionMaterials()"));
+        for (int x = 0; x < items.size(); x++) {
+            assertTrue(decrypted.get(x).isSuccessful());
+            assertThat(decrypted.get(x).getItem(), AttrMatcher.match(items.get(x)));
+        }
+    }
+
+    @Test
+    public void batchInitializesMacOncePerKey() throws GeneralSecurityException {
+        final AtomicInteger keyReads = new AtomicInteger();
+        final SecretKey countingKey = new SecretKeySpec(macKey.getEncoded(), macKey.getAlgorithm()) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public byte[] getEncoded() {
+                keyReads.incrementAndGet();
+                return super.getEncoded();
+            }
+        };
+        final DynamoDBEncryptor countingEncryptor =
+                DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(encryptionKey, countingKey));
+        final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int x = 0; x < 5; x++) {
+            final Map<String, AttributeValue> item = new HashMap<>(attribs);
+            item.put("hashKey", new AttributeValue().withN(Integer.toString(x)));
+            items.add(item);
+        }
+        final Map<String, Set<EncryptionFlags>> flags = countingEncryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+
+        final List<Map<String, AttributeValue>> ciphertexts = new ArrayList<>();
+        for (RecordResult result : countingEncryptor.encryptRecords(items, flags, context)) {
+            ciphertexts.add(result.getItem());
+        }
+        assertEquals(1, keyReads.get());
+        for (RecordResult result : countingEncryptor.decryptRecords(ciphertexts, flags, context)) {
+            assertTrue(result.isSuccessful());
+        }
+        assertEquals(2, keyReads.get());
+    }
+
+    @Test
+    public void batchDecryptionReportsFailuresInOrder() throws GeneralSecurityException {
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+        final List<Map<String, AttributeValue>> ciphertexts = new ArrayList<>();
+        for (int x = 0; x < 3; x++) {
+            ciphertexts.add(encryptor.encryptRecord(attribs, flags, context));
+        }
+        ciphertexts.get(1).put("hashKey", new AttributeValue().withN("666"));
+
+        final List<RecordResult> decrypted = encryptor.decryptRecords(ciphertexts, flags, context);
+        assertEquals(3, decrypted.size());
+        assertTrue(decrypted.get(0).isSuccessful());
+        assertThat(decrypted.get(0).getItem(), AttrMatcher.match(attribs));
+        assertFalse(decrypted.get(1).isSuccessful());
+        assertNull(decrypted.get(1).getItem());
+        assertTrue(decrypted.get(1).getException() instanceof SignatureException);
+        assertTrue(decrypted.get(2).isSuccessful());
+        assertThat(decrypted.get(2).getItem(), AttrMatcher.match(attribs));
+    }
+
+    @Test
+    public void batchEncryptionRsa() throws GeneralSecurityException {
+        KeyPairGenerator rsaGen = KeyPairGenerator.getInstance("RSA");
+        rsaGen.initialize(2048, Utils.getRng());
+        KeyPair sigPair = rsaGen.generateKeyPair();
+        encryptor = DynamoDBEncryptor.getInstance(
+                new SymmetricStaticProvider(encryptionKey, sigPair,
+                        Collections.<String, String>emptyMap()), "encryptor-");
+        final Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(
+                attribs, "hashKey", "rangeKey", "version");
+
+        final List<RecordResult> encrypted = encryptor.encryptRecords(
+                Collections.nCopies(3, attribs), flags, context);
+        final List<Map<String, AttributeValue>> ciphertexts = new ArrayList<>();
+        for (RecordResult result : encrypted) {
+            assertTrue(result.isSuccessful());
+            ciphertexts.add(result.getItem());
+        }
+        for (RecordResult result : encryptor.decryptRecords(ciphertexts, flags, context)) {
+            assertTrue(result.isSuccessful());
+            assertThat(result.getItem(), AttrMatcher.match(attribs));
+        }
+    }
+
     @Test
     public void toByteArray() throws ReflectiveOperationException {
         final byte[] expected = new byte[]{0, 1, 2, 3, 4, 5};
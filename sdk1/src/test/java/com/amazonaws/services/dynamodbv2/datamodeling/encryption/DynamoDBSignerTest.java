@@ -24,18 +24,28 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.PublicKey;
 import java.security.Security;
+import java.security.Signature;
 import java.security.SignatureException;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
+import static org.testng.AssertJUnit.assertArrayEquals;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
 public class DynamoDBSignerTest {
     // These use the Key type (rather than PublicKey, PrivateKey, and SecretKey)
     // to test the routing logic within the signer.
@@ -93,6 +103,21 @@ public class DynamoDBSignerTest {
         signerRsa.verifySignature(itemAttributes, attributeFlags, new byte[0], macKey, ByteBuffer.wrap(signature));
     }
 
+    @Test
+    public void macMatchesStringToSign() throws GeneralSecurityException {
+        Map<String, AttributeValue> itemAttributes = largeItem();
+        Map<String, Set<EncryptionFlags>> attributeFlags = largeItemFlags();
+        byte[] associatedData = "TABLE>Table<TABLE".getBytes(StandardCharsets.UTF_8);
+        byte[] signature = signerRsa.calculateSignature(itemAttributes, attributeFlags, associatedData, macKey);
+
+        Mac hmac = Mac.getInstance(macKey.getAlgorithm());
+        hmac.init(macKey);
+        byte[] stringToSign = DynamoDBSigner.calculateStringToSign(itemAttributes, attributeFlags, associatedData);
+        assertEquals(32 * (1 + 3 * 3), stringToSign.length);
+        assertArrayEquals(hmac.doFinal(stringToSign), signature);
+        signerRsa.verifySignature(itemAttributes, attributeFlags, associatedData, macKey, ByteBuffer.wrap(signature));
+    }
+
     @Test
     public void macLists() throws GeneralSecurityException {
         Map<String, AttributeValue> itemAttributes = new HashMap<String, AttributeValue>();
@@ -234,6 +259,19 @@ public class DynamoDBSignerTest {
         signerRsa.verifySignature(itemAttributes, attributeFlags, new byte[0], pubKeyRsa, ByteBuffer.wrap(signature));
     }
 
+    @Test
+    public void sigMatchesStringToSign() throws GeneralSecurityException {
+        Map<String, AttributeValue> itemAttributes = largeItem();
+        Map<String, Set<EncryptionFlags>> attributeFlags = largeItemFlags();
+        byte[] signature = signerRsa.calculateSignature(itemAttributes, attributeFlags, new byte[0], privKeyRsa);
+
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify((PublicKey) pubKeyRsa);
+        verifier.update(DynamoDBSigner.calculateStringToSign(itemAttributes, attributeFlags, new byte[0]));
+        assertTrue(verifier.verify(signature));
+        signerRsa.verifySignature(itemAttributes, attributeFlags, new byte[0], pubKeyRsa, ByteBuffer.wrap(signature));
+    }
+
     @Test
     public void sigWithReadOnlySignature() throws GeneralSecurityException {
         Map<String, AttributeValue> itemAttributes = new HashMap<String, AttributeValue>();
@@ -432,4 +470,26 @@ public class DynamoDBSignerTest {
 
         signerEcdsa.verifySignature(itemAttributes, attributeFlags, new byte[]{1, 2, 3}, pubKeyEcdsa, ByteBuffer.wrap(signature));
     }
+
+    // An item close to the DynamoDB size limit, with values larger than any internal buffer
+    private static Map<String, AttributeValue> largeItem() {
+        Map<String, AttributeValue> itemAttributes = new HashMap<String, AttributeValue>();
+        byte[] bytes = new byte[300 * 1024];
+        new Random(1337).nextBytes(bytes);
+        char[] chars = new char[30 * 1024];
+        Arrays.fill(chars, '\u20ac');
+        itemAttributes.put("Key1", new AttributeValue().withB(ByteBuffer.wrap(bytes)));
+        itemAttributes.put("Key2", new AttributeValue().withS(new String(chars)));
+        itemAttributes.put("Key3", new AttributeValue().withN("100"));
+        itemAttributes.put("Key4", new AttributeValue().withS("Not signed"));
+        return itemAttributes;
+    }
+
+    private static Map<String, Set<EncryptionFlags>> largeItemFlags() {
+        Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<String, Set<EncryptionFlags>>();
+        attributeFlags.put("Key1", EnumSet.of(EncryptionFlags.SIGN, EncryptionFlags.ENCRYPT));
+        attributeFlags.put("Key2", EnumSet.of(EncryptionFlags.SIGN, EncryptionFlags.ENCRYPT));
+        attributeFlags.put("Key3", EnumSet.of(EncryptionFlags.SIGN));
+        return attributeFlags;
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class EncryptionPlanTest {
+    @Test
+    public void compile() {
+        Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<>();
+        attributeFlags.put("zebra", EnumSet.of(EncryptionFlags.SIGN));
+        attributeFlags.put("apple", EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN));
+        attributeFlags.put("mango", EnumSet.noneOf(EncryptionFlags.class));
+        attributeFlags.put("Banana", EnumSet.of(EncryptionFlags.ENCRYPT));
+
+        EncryptionPlan plan = EncryptionPlan.compile(attributeFlags);
+        assertFalse(plan.isEmpty());
+        assertEquals(Arrays.asList("Banana", "apple", "zebra"), plan.getAttributeNames());
+        assertEquals(3, plan.size());
+
+        assertTrue(plan.isEncrypted(0));
+        assertFalse(plan.isSigned(0));
+        assertTrue(plan.isEncrypted(1));
+        assertTrue(plan.isSigned(1));
+        assertFalse(plan.isEncrypted(2));
+        assertTrue(plan.isSigned(2));
+
+        for (Map.Entry<String, Set<EncryptionFlags>> entry : attributeFlags.entrySet()) {
+            assertEquals(entry.getValue(), plan.getFlags(entry.getKey()));
+        }
+        assertEquals(EnumSet.noneOf(EncryptionFlags.class), plan.getFlags("unknown"));
+        assertTrue(plan.indexOf("mango") < 0);
+    }
+
+    @Test
+    public void independentOfSource() {
+        Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<>();
+        attributeFlags.put("apple", EnumSet.of(EncryptionFlags.SIGN));
+        EncryptionPlan plan = EncryptionPlan.compile(attributeFlags);
+
+        attributeFlags.get("apple").add(EncryptionFlags.ENCRYPT);
+        attributeFlags.put("banana", EnumSet.of(EncryptionFlags.SIGN));
+        assertEquals(Collections.singletonList("apple"), plan.getAttributeNames());
+        assertEquals(EnumSet.of(EncryptionFlags.SIGN), plan.getFlags("apple"));
+    }
+
+    @Test
+    public void empty() {
+        assertTrue(EncryptionPlan.compile(Collections.<String, Set<EncryptionFlags>>emptyMap()).isEmpty());
+
+        // Only untouched attributes still produces a (signed) record
+        EncryptionPlan untouched = EncryptionPlan.compile(
+                Collections.<String, Set<EncryptionFlags>>singletonMap("apple", EnumSet.noneOf(EncryptionFlags.class)));
+        assertFalse(untouched.isEmpty());
+        assertEquals(0, untouched.size());
+    }
+
+    @Test
+    public void withSignedAttribute() {
+        Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<>();
+        attributeFlags.put("apple", EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN));
+        attributeFlags.put("cherry", EnumSet.of(EncryptionFlags.SIGN));
+        EncryptionPlan plan = EncryptionPlan.compile(attributeFlags);
+
+        assertTrue(plan == plan.withSignedAttribute("cherry"));
+
+        EncryptionPlan added = plan.withSignedAttribute("banana");
+        assertEquals(Arrays.asList("apple", "banana", "cherry"), added.getAttributeNames());
+        assertEquals(EnumSet.of(EncryptionFlags.SIGN), added.getFlags("banana"));
+        assertEquals(attributeFlags.get("apple"), added.getFlags("apple"));
+        assertTrue(added == plan.withSignedAttribute("banana"));
+        // The original is unchanged
+        assertEquals(Arrays.asList("apple", "cherry"), plan.getAttributeNames());
+
+        EncryptionPlan replaced = plan.withSignedAttribute("apple");
+        assertEquals(EnumSet.of(EncryptionFlags.SIGN), replaced.getFlags("apple"));
+        assertEquals(EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN), plan.getFlags("apple"));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void namesAreImmutable() {
+        EncryptionPlan.compile(Collections.<String, Set<EncryptionFlags>>singletonMap(
+                "apple", EnumSet.of(EncryptionFlags.SIGN))).getAttributeNames().set(0, "banana");
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void flagsAreImmutable() {
+        EncryptionPlan.compile(Collections.<String, Set<EncryptionFlags>>singletonMap(
+                "apple", EnumSet.of(EncryptionFlags.SIGN))).getFlags("apple").add(EncryptionFlags.ENCRYPT);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures encryption and decryption of a record with many small attributes and of a record with
+ * a few large ones under {@link DynamoDBEncryptor#CBC_ENCRYPTION_MODE} (signed with HmacSHA256) and
+ * {@link DynamoDBEncryptor#GCM_ENCRYPTION_MODE}, and prints the stored size of each encrypted
+ * record next to the size of the plaintext. This is not run as part of the build; run it with
+ * <code>main</code> and compare what it prints.
+ */
+public class SymmetricEncryptionModeBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final long BYTES_PER_ROUND = 20L * 1024 * 1024;
+
+    public static void main(final String[] args) throws GeneralSecurityException {
+        final SecretKey aesKey = new SecretKeySpec(new byte[16], "AES");
+        final SecretKey hmacKey = new SecretKeySpec(new byte[32], "HmacSHA256");
+        final EncryptionContext context = new EncryptionContext.Builder()
+                .withTableName("TableName").withHashKeyName("hashKey").build();
+        final DynamoDBEncryptor cbc = DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(aesKey, hmacKey));
+        final DynamoDBEncryptor gcm = DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(aesKey, hmacKey));
+        gcm.setSymmetricEncryptionMode(DynamoDBEncryptor.GCM_ENCRYPTION_MODE);
+
+        final Map<String, Map<String, AttributeValue>> items = new LinkedHashMap<>();
+        items.put("40 x 16 B", item(40, 16));
+        items.put("4 x 16 KB", item(4, 16 * 1024));
+        final Map<String, Set<EncryptionFlags>> flags = flags(items.get("40 x 16 B"));
+        flags.putAll(flags(items.get("4 x 16 KB")));
+
+        for (final Map.Entry<String, Map<String, AttributeValue>> entry : items.entrySet()) {
+            final Map<String, AttributeValue> item = entry.getValue();
+            System.out.printf("%-10s plaintext %7d B  cbc %7d B  gcm %7d B%n", entry.getKey(), size(item),
+                    size(cbc.encryptRecord(item, flags, context)), size(gcm.encryptRecord(item, flags, context)));
+        }
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            final boolean report = round >= WARMUP_ROUNDS;
+            for (final Map.Entry<String, Map<String, AttributeValue>> entry : items.entrySet()) {
+                run(entry.getKey() + " cbc", cbc, entry.getValue(), flags, context, report);
+                run(entry.getKey() + " gcm", gcm, entry.getValue(), flags, context, report);
+            }
+        }
+    }
+
+    private static void run(final String name, final DynamoDBEncryptor encryptor,
+            final Map<String, AttributeValue> item, final Map<String, Set<EncryptionFlags>> flags,
+            final EncryptionContext context, final boolean report) throws GeneralSecurityException {
+        final int records = (int) Math.max(1, BYTES_PER_ROUND / size(item));
+        Map<String, AttributeValue> encrypted = null;
+        final long start = System.nanoTime();
+        for (int x = 0; x < records; x++) {
+            encrypted = encryptor.encryptRecord(item, flags, context);
+        }
+        final long encryptNanos = System.nanoTime() - start;
+        for (int x = 0; x < records; x++) {
+            encryptor.decryptRecord(encrypted, flags, context);
+        }
+        final long decryptNanos = System.nanoTime() - start - encryptNanos;
+        if (report) {
+            System.out.printf("%-15s encrypt %9.2f us/record %7.1f MB/s  decrypt %9.2f us/record %7.1f MB/s%n",
+                    name, encryptNanos / 1000.0 / records, mbPerSecond(item, records, encryptNanos),
+                    decryptNanos / 1000.0 / records, mbPerSecond(item, records, decryptNanos));
+        }
+    }
+
+    private static Map<String, AttributeValue> item(final int attributes, final int attributeSize) {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("hashKey", new AttributeValue("Foo"));
+        for (int x = 0; x < attributes; x++) {
+            item.put("attr" + attributeSize + "_" + x, new AttributeValue().withB(ByteBuffer.wrap(new byte[attributeSize])));
+        }
+        return item;
+    }
+
+    private static Map<String, Set<EncryptionFlags>> flags(final Map<String, AttributeValue> item) {
+        final Map<String, Set<EncryptionFlags>> flags = new HashMap<>();
+        for (final String name : item.keySet()) {
+            flags.put(name, "hashKey".equals(name)
+                    ? EnumSet.of(EncryptionFlags.SIGN) : EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN));
+        }
+        return flags;
+    }
+
+    /**
+     * The size DynamoDB charges for: each attribute name plus its value, approximated by its
+     * marshalled form.
+     */
+    private static int size(final Map<String, AttributeValue> item) {
+        int result = 0;
+        for (final Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            result += entry.getKey().length() + AttributeValueMarshaller.getMarshalledSize(entry.getValue());
+        }
+        return result;
+    }
+
+    private static double mbPerSecond(final Map<String, AttributeValue> item, final int records, final long nanos) {
+        return (double) size(item) * records / (1024 * 1024) / (nanos / 1e9);
+    }
+}
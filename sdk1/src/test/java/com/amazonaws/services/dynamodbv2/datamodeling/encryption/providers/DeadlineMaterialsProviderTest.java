@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.MetaStore;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+public class DeadlineMaterialsProviderTest {
+    private static final String MATERIAL_NAME = "material";
+    private static final SecretKey AES_KEY = new SecretKeySpec(new byte[]{0,
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15}, "AES");
+    private static final SecretKey HMAC_KEY = new SecretKeySpec(new byte[]{0,
+            1, 2, 3, 4, 5, 6, 7}, "HmacSHA256");
+    private static final EncryptionMaterialsProvider BASE_PROVIDER = new SymmetricStaticProvider(AES_KEY, HMAC_KEY);
+
+    private ExecutorService executor;
+    private CountDownLatch gate;
+    private EncryptionContext ctx;
+
+    @BeforeMethod
+    public void setup() {
+        executor = Executors.newFixedThreadPool(2);
+        gate = new CountDownLatch(0);
+        ctx = new EncryptionContext.Builder().build();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        gate.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void passesThrough() {
+        final DeadlineMaterialsProvider prov = new DeadlineMaterialsProvider(BASE_PROVIDER, executor, 1000);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        assertEquals(HMAC_KEY, eMat.getSigningKey());
+        final EncryptionContext decryptCtx = new EncryptionContext.Builder()
+                .withMaterialDescription(eMat.getMaterialDescription()).build();
+        assertEquals(HMAC_KEY, prov.getDecryptionMaterials(decryptCtx).getVerificationKey());
+        assertEquals(0, prov.getTimeoutCount());
+    }
+
+    @Test
+    public void timeout() {
+        gate = new CountDownLatch(1);
+        final DeadlineMaterialsProvider prov = new DeadlineMaterialsProvider(new SlowProvider(), executor, 1000);
+        final long start = System.nanoTime();
+        try {
+            prov.getEncryptionMaterials(ctx, 50, TimeUnit.MILLISECONDS);
+            fail("Expected exception");
+        } catch (MaterialsTimeoutException ex) {
+            // Expected
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+        try {
+            prov.getDecryptionMaterials(ctx, 50, TimeUnit.MILLISECONDS);
+            fail("Expected exception");
+        } catch (MaterialsTimeoutException ex) {
+            // Expected
+        }
+        assertEquals(2, prov.getTimeoutCount());
+        assertEquals(0, prov.getFallbackCount());
+    }
+
+    @Test(expectedExceptions = MaterialsTimeoutException.class)
+    public void rejected() {
+        final DeadlineMaterialsProvider prov = new DeadlineMaterialsProvider(BASE_PROVIDER, command -> {
+            throw new RejectedExecutionException();
+        }, 1000);
+        prov.getEncryptionMaterials(ctx);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void failuresPropagate() {
+        final DeadlineMaterialsProvider prov = new DeadlineMaterialsProvider(new SlowProvider() {
+            @Override
+            public EncryptionMaterials getEncryptionMaterials(final EncryptionContext context) {
+                throw new IllegalStateException("Unavailable");
+            }
+        }, executor, 1000);
+        prov.getEncryptionMaterials(ctx);
+    }
+
+    @Test
+    public void mostRecentProviderFallback() throws InterruptedException {
+        final AmazonDynamoDB client = DynamoDBEmbedded.create();
+        MetaStore.createTable(client, "keystoreTable", new ProvisionedThroughput(1L, 1L));
+        final ProviderStore store = new SlowStore(new MetaStore(client, "keystoreTable",
+                DynamoDBEncryptor.getInstance(BASE_PROVIDER)));
+        final MostRecentProvider mostRecent = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withMaxStalenessMillis(5000).build());
+        final DeadlineMaterialsProvider prov = new DeadlineMaterialsProvider(mostRecent, executor, 50);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        final EncryptionContext decryptCtx = new EncryptionContext.Builder()
+                .withMaterialDescription(eMat.getMaterialDescription()).build();
+
+        // The store now hangs, but the provider already has everything it needs
+        gate = new CountDownLatch(1);
+        Thread.sleep(150);
+        assertEquals(eMat.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        assertEquals(1, prov.getTimeoutCount());
+        assertEquals(1, prov.getFallbackCount());
+        final DecryptionMaterials dMat = prov.getDecryptionMaterials(decryptCtx);
+        assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+
+        // Versions which aren't cached can't be substituted
+        try {
+            prov.getDecryptionMaterials(new EncryptionContext.Builder().withMaterialDescription(
+                    Collections.singletonMap("amzn-ddb-meta-id", MATERIAL_NAME + "#7")).build());
+            fail("Expected exception");
+        } catch (MaterialsTimeoutException ex) {
+            // Expected
+        }
+    }
+
+    private class SlowProvider implements EncryptionMaterialsProvider {
+        @Override
+        public DecryptionMaterials getDecryptionMaterials(final EncryptionContext context) {
+            await();
+            return BASE_PROVIDER.getDecryptionMaterials(context);
+        }
+
+        @Override
+        public EncryptionMaterials getEncryptionMaterials(final EncryptionContext context) {
+            await();
+            return BASE_PROVIDER.getEncryptionMaterials(context);
+        }
+
+        @Override
+        public void refresh() {
+        }
+    }
+
+    private class SlowStore extends ProviderStore {
+        private final ProviderStore delegate;
+
+        SlowStore(final ProviderStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
+            await();
+            return delegate.getProvider(materialName, version);
+        }
+
+        @Override
+        public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId) {
+            await();
+            return delegate.getOrCreate(materialName, nextId);
+        }
+
+        @Override
+        public long getMaxVersion(final String materialName) {
+            await();
+            return delegate.getMaxVersion(materialName);
+        }
+
+        @Override
+        public long getVersionFromMaterialDescription(final Map<String, String> description) {
+            return delegate.getVersionFromMaterialDescription(description);
+        }
+    }
+
+    private void await() {
+        try {
+            gate.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+    }
+}
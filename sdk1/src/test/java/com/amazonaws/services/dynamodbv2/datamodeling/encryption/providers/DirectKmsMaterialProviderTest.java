@@ -24,6 +24,7 @@ import com.amazonaws.services.kms.model.DecryptRequest;
 import com.amazonaws.services.kms.model.DecryptResult;
 import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
 import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.amazonaws.services.kms.model.InvalidCiphertextException;
 import com.amazonaws.util.Base64;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -33,16 +34,28 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 
 public class DirectKmsMaterialProviderTest {
     private FakeKMS kms;
@@ -337,6 +350,452 @@ public class DirectKmsMaterialProviderTest {
         assertTrue(gdkCalled.get());
     }
 
+    @Test
+    public void cachedEncryptionMaterials() throws GeneralSecurityException {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder()
+                        .withEncryptionMaterialsMaxAgeMillis(60000)
+                        .withEncryptionMaterialsMaxItems(3)
+                        .build());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        assertTrue(eMat == prov.getEncryptionMaterials(ctx));
+        assertTrue(eMat == prov.getEncryptionMaterials(ctx));
+        // The fourth record needs a new data key
+        EncryptionMaterials eMat2 = prov.getEncryptionMaterials(ctx);
+        assertFalse(eMat.getEncryptionKey().equals(eMat2.getEncryptionKey()));
+        assertEquals(2, countingKms.generateDataKeyCalls.get());
+        assertEquals(2, prov.getDataKeyCacheHits());
+        assertEquals(2, prov.getDataKeyCacheMisses());
+
+        DecryptionMaterials dMat = prov.getDecryptionMaterials(ctx(eMat));
+        assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+        assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+    }
+
+    @Test
+    public void cachedEncryptionMaterialsAreKeyedByKmsEc() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withEncryptionMaterialsMaxAgeMillis(60000).build());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(hashKeyCtx("1"));
+        EncryptionMaterials eMat2 = prov.getEncryptionMaterials(hashKeyCtx("2"));
+        assertFalse(eMat.getEncryptionKey().equals(eMat2.getEncryptionKey()));
+        assertTrue(eMat == prov.getEncryptionMaterials(hashKeyCtx("1")));
+        assertTrue(eMat2 == prov.getEncryptionMaterials(hashKeyCtx("2")));
+        assertEquals(2, countingKms.generateDataKeyCalls.get());
+
+        prov.refresh();
+        assertFalse(eMat == prov.getEncryptionMaterials(hashKeyCtx("1")));
+        assertEquals(3, countingKms.generateDataKeyCalls.get());
+    }
+
+    @Test
+    public void tableScopedDataKeysAreSharedAcrossItems() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder()
+                        .withEncryptionMaterialsMaxAgeMillis(60000)
+                        .withTableScopedDataKeys(true)
+                        .build());
+        assertTrue(prov.getCachingConfig().isTableScopedDataKeys());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(hashKeyCtx("1"));
+        assertTrue(eMat == prov.getEncryptionMaterials(hashKeyCtx("2")));
+        assertEquals(1, countingKms.generateDataKeyCalls.get());
+        assertEquals("*table*", eMat.getMaterialDescription().get("aws-kms-ec-attr"));
+
+        // Records are decrypted according to their material description, whatever the config
+        DirectKmsMaterialProvider decryptor = new DirectKmsMaterialProvider(countingKms, keyId);
+        DecryptionMaterials dMat = decryptor.getDecryptionMaterials(decryptCtx(eMat, "2"));
+        assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+        assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+    }
+
+    @Test
+    public void itemScopedDataKeysByDefault() {
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(kms, keyId);
+        assertFalse(prov.getCachingConfig().isTableScopedDataKeys());
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(hashKeyCtx("1"));
+        assertEquals("*keys*", eMat.getMaterialDescription().get("aws-kms-ec-attr"));
+        try {
+            prov.getDecryptionMaterials(decryptCtx(eMat, "2"));
+            fail("Expected exception");
+        } catch (InvalidCiphertextException ex) {
+            // Expected: the hash key is part of the KMS encryption context
+        }
+    }
+
+    @Test
+    public void cachedEncryptionMaterialsByteLimit() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        EncryptionContext hkCtx = hashKeyCtx("12345");
+        // Each record is 2 + 4 + 5 = 11 bytes
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder()
+                        .withEncryptionMaterialsMaxAgeMillis(60000)
+                        .withEncryptionMaterialsMaxBytes(25)
+                        .build());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(hkCtx);
+        assertTrue(eMat == prov.getEncryptionMaterials(hkCtx));
+        assertFalse(eMat == prov.getEncryptionMaterials(hkCtx));
+        assertEquals(2, countingKms.generateDataKeyCalls.get());
+    }
+
+    @Test
+    public void cachedEncryptionMaterialsExpire() throws InterruptedException {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withEncryptionMaterialsMaxAgeMillis(50).build());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        Thread.sleep(100);
+        assertFalse(eMat == prov.getEncryptionMaterials(ctx));
+        assertEquals(2, countingKms.generateDataKeyCalls.get());
+    }
+
+    @Test
+    public void noCachingByDefault() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId);
+        assertFalse(prov.getCachingConfig().isEncryptionMaterialsCachingEnabled());
+        prov.getEncryptionMaterials(ctx);
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(2, countingKms.generateDataKeyCalls.get());
+        assertEquals(0, prov.getDataKeyCacheHits());
+        assertEquals(0, prov.getDataKeyCacheMisses());
+    }
+
+    @Test
+    public void cachedDecryptionMaterials() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withDecryptionMaterialsTtlMillis(60000).build());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(hashKeyCtx("1"));
+        EncryptionMaterials eMat2 = prov.getEncryptionMaterials(hashKeyCtx("1"));
+        for (int x = 0; x < 3; x++) {
+            DecryptionMaterials dMat = prov.getDecryptionMaterials(decryptCtx(eMat, "1"));
+            assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+            assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+            assertEquals(eMat.getMaterialDescription(), dMat.getMaterialDescription());
+            assertEquals(eMat2.getEncryptionKey(), prov.getDecryptionMaterials(decryptCtx(eMat2, "1")).getDecryptionKey());
+        }
+        assertEquals(2, countingKms.decryptCalls.get());
+        assertEquals(4, prov.getDecryptedDataKeyCacheHits());
+        assertEquals(2, prov.getDecryptedDataKeyCacheMisses());
+        assertEquals(2, prov.getDecryptedDataKeyCacheSize());
+
+        // The KMS encryption context is part of the key, so this must still fail
+        try {
+            prov.getDecryptionMaterials(decryptCtx(eMat, "2"));
+            fail("Expected exception");
+        } catch (InvalidCiphertextException expected) {
+            // Expected
+        }
+
+        prov.refresh();
+        assertEquals(0, prov.getDecryptedDataKeyCacheSize());
+        assertEquals(2, prov.getDecryptedDataKeyCacheEvictions());
+        prov.getDecryptionMaterials(decryptCtx(eMat, "1"));
+        assertEquals(4, countingKms.decryptCalls.get());
+    }
+
+    @Test
+    public void cachedDecryptionMaterialsEviction() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder()
+                        .withDecryptionMaterialsTtlMillis(60000)
+                        .withMaxCacheEntries(2)
+                        .build());
+
+        for (int x = 0; x < 5; x++) {
+            EncryptionMaterials eMat = prov.getEncryptionMaterials(hashKeyCtx(Integer.toString(x)));
+            prov.getDecryptionMaterials(decryptCtx(eMat, Integer.toString(x)));
+        }
+        assertEquals(2, prov.getDecryptedDataKeyCacheSize());
+        assertEquals(3, prov.getDecryptedDataKeyCacheEvictions());
+    }
+
+    @Test
+    public void cachedDecryptionMaterialsExpire() throws InterruptedException {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withDecryptionMaterialsTtlMillis(50).build());
+
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        prov.getDecryptionMaterials(ctx(eMat));
+        Thread.sleep(100);
+        prov.getDecryptionMaterials(ctx(eMat));
+        assertEquals(2, countingKms.decryptCalls.get());
+        assertEquals(0, prov.getDecryptedDataKeyCacheHits());
+    }
+
+    @Test(expectedExceptions = DynamoDBMappingException.class)
+    public void cachedDecryptionMaterialsAreValidated() {
+        String customKeyId = kms.createKey().getKeyMetadata().getKeyId();
+        Map<String, AttributeValue> attrVals = new HashMap<>();
+        attrVals.put("hk", new AttributeValue().withN("10"));
+        attrVals.put("encryptionKeyId", new AttributeValue().withS(customKeyId));
+        ctx = new EncryptionContext.Builder().withHashKeyName("hk").withTableName("KmsTableName")
+                .withAttributeValues(attrVals).build();
+        ExtendedKmsMaterialProvider prov = new ExtendedKmsMaterialProvider(kms, keyId, "encryptionKeyId",
+                new DirectKmsCachingConfig.Builder().withDecryptionMaterialsTtlMillis(60000).build());
+        EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        prov.getDecryptionMaterials(new EncryptionContext.Builder(ctx)
+                .withMaterialDescription(eMat.getMaterialDescription()).build());
+
+        // Same KMS encryption context, but a different expected key id
+        attrVals.put("encryptionKeyId", new AttributeValue().withS(keyId));
+        prov.getDecryptionMaterials(new EncryptionContext.Builder(ctx).withAttributeValues(attrVals)
+                .withMaterialDescription(eMat.getMaterialDescription()).build());
+    }
+
+    @Test
+    public void coalescedDecrypts() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger decryptCalls = new AtomicInteger();
+        final DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(kms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withCoalesceDecrypts(true).build()) {
+            @Override
+            protected DecryptResult decrypt(DecryptRequest request, EncryptionContext context) {
+                decryptCalls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return super.decrypt(request, context);
+            }
+        };
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+
+        final int threads = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<DecryptionMaterials>> results = new ArrayList<>();
+            for (int x = 0; x < threads; x++) {
+                results.add(executor.submit(new Callable<DecryptionMaterials>() {
+                    @Override
+                    public DecryptionMaterials call() {
+                        return prov.getDecryptionMaterials(ctx(eMat));
+                    }
+                }));
+            }
+            waitFor(prov, threads - 1);
+            release.countDown();
+            for (Future<DecryptionMaterials> result : results) {
+                assertEquals(eMat.getEncryptionKey(), result.get().getDecryptionKey());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, decryptCalls.get());
+        assertEquals(threads - 1, prov.getCoalescedDecrypts());
+
+        // Nothing is cached, so later calls go to KMS again
+        prov.getDecryptionMaterials(ctx(eMat));
+        assertEquals(2, decryptCalls.get());
+    }
+
+    @Test
+    public void coalescedDecryptsShareFailures() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(kms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withCoalesceDecrypts(true).build()) {
+            @Override
+            protected DecryptResult decrypt(DecryptRequest request, EncryptionContext context) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                throw new InvalidCiphertextException("Invalid Ciphertext");
+            }
+        };
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<DecryptionMaterials>> results = new ArrayList<>();
+            for (int x = 0; x < 2; x++) {
+                results.add(executor.submit(new Callable<DecryptionMaterials>() {
+                    @Override
+                    public DecryptionMaterials call() {
+                        return prov.getDecryptionMaterials(ctx(eMat));
+                    }
+                }));
+            }
+            waitFor(prov, 1);
+            release.countDown();
+            for (Future<DecryptionMaterials> result : results) {
+                try {
+                    result.get();
+                    fail("Expected exception");
+                } catch (ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof InvalidCiphertextException);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void dataKeyPool() {
+        final CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        final List<EncryptionContext> backgroundContexts = new ArrayList<>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withDataKeyPool(2, executor).build()) {
+            @Override
+            protected GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest request, EncryptionContext context) {
+                backgroundContexts.add(context);
+                return super.generateDataKey(request, context);
+            }
+        };
+
+        final Map<String, AttributeValue> attrVals = new HashMap<>();
+        attrVals.put("hk", new AttributeValue().withN("10"));
+        attrVals.put("secret", new AttributeValue().withS("Do not keep me"));
+        final EncryptionContext recordCtx = new EncryptionContext.Builder().withHashKeyName("hk")
+                .withTableName("KmsTableName").withAttributeValues(attrVals).build();
+
+        // A context seen for the first time gets exactly one data key and no pool
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(recordCtx);
+        assertEquals(1, prov.getDataKeyPoolStalls());
+        assertEquals(0, prov.getDataKeyPoolDepth());
+        assertEquals(1, countingKms.generateDataKeyCalls.get());
+
+        // Once it is seen again, the pool is filled
+        final EncryptionMaterials eMat1 = prov.getEncryptionMaterials(recordCtx);
+        assertEquals(2, prov.getDataKeyPoolStalls());
+        assertEquals(2, prov.getDataKeyPoolDepth());
+        assertEquals(4, countingKms.generateDataKeyCalls.get());
+        assertEquals(Collections.singleton("hk"), backgroundContexts.get(2).getAttributeValues().keySet());
+
+        final EncryptionMaterials eMat2 = prov.getEncryptionMaterials(recordCtx);
+        assertEquals(2, prov.getDataKeyPoolStalls());
+        assertEquals(2, prov.getDataKeyPoolDepth());
+        assertEquals(5, countingKms.generateDataKeyCalls.get());
+        assertFalse(eMat.getEncryptionKey().equals(eMat2.getEncryptionKey()));
+        assertFalse(eMat1.getEncryptionKey().equals(eMat2.getEncryptionKey()));
+
+        final EncryptionContext dCtx = new EncryptionContext.Builder(recordCtx)
+                .withMaterialDescription(eMat2.getMaterialDescription()).build();
+        assertEquals(eMat2.getEncryptionKey(), prov.getDecryptionMaterials(dCtx).getDecryptionKey());
+
+        prov.refresh();
+        assertEquals(0, prov.getDataKeyPoolDepth());
+    }
+
+    @Test
+    public void dataKeyPoolExpiry() throws InterruptedException {
+        final CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withDataKeyPool(2, 20, executor).build());
+        prov.getEncryptionMaterials(ctx);
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(2, prov.getDataKeyPoolDepth());
+
+        // Both pooled keys are too old to be used
+        Thread.sleep(50);
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(3, prov.getDataKeyPoolStalls());
+        assertEquals(2, prov.getDataKeyPoolDepth());
+        assertEquals(7, countingKms.generateDataKeyCalls.get());
+    }
+
+    @Test
+    public void dataKeyPoolRejected() {
+        CountingKMS countingKms = new CountingKMS();
+        keyId = countingKms.createKey().getKeyMetadata().getKeyId();
+        final Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId, description,
+                new DirectKmsCachingConfig.Builder().withDataKeyPool(2, rejecting).build());
+        assertNotNull(prov.getEncryptionMaterials(ctx));
+        assertNotNull(prov.getEncryptionMaterials(ctx));
+        assertEquals(2, prov.getDataKeyPoolStalls());
+        assertEquals(0, prov.getDataKeyPoolDepth());
+        assertEquals(2, countingKms.generateDataKeyCalls.get());
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void dataKeyPoolNeedsExecutor() {
+        new DirectKmsCachingConfig.Builder().withDataKeyPool(2, null);
+    }
+
+    private static void waitFor(DirectKmsMaterialProvider prov, long coalescedDecrypts) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (prov.getCoalescedDecrypts() < coalescedDecrypts) {
+            assertTrue("Timed out waiting for decrypts", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static EncryptionContext decryptCtx(EncryptionMaterials mat, String hashKey) {
+        return new EncryptionContext.Builder(hashKeyCtx(hashKey))
+                .withMaterialDescription(mat.getMaterialDescription()).build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void negativeCachingLimit() {
+        new DirectKmsCachingConfig.Builder().withEncryptionMaterialsMaxItems(-1);
+    }
+
+    private static EncryptionContext hashKeyCtx(String hashKey) {
+        return new EncryptionContext.Builder().withHashKeyName("hk").withTableName("KmsTableName")
+                .withAttributeValues(Collections.singletonMap("hk", new AttributeValue().withN(hashKey))).build();
+    }
+
+    private static class CountingKMS extends FakeKMS {
+        private final AtomicInteger generateDataKeyCalls = new AtomicInteger();
+        private final AtomicInteger decryptCalls = new AtomicInteger();
+
+        @Override
+        public synchronized GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest req) {
+            generateDataKeyCalls.incrementAndGet();
+            return super.generateDataKey(req);
+        }
+
+        @Override
+        public synchronized DecryptResult decrypt(DecryptRequest req) {
+            decryptCalls.incrementAndGet();
+            return super.decrypt(req);
+        }
+    }
+
     private static class ExtendedKmsMaterialProvider extends DirectKmsMaterialProvider {
         private final String encryptionKeyIdAttributeName;
 
@@ -346,6 +805,13 @@ public class DirectKmsMaterialProviderTest {
             this.encryptionKeyIdAttributeName = encryptionKeyIdAttributeName;
         }
 
+        public ExtendedKmsMaterialProvider(AWSKMS kms, String encryptionKeyId, String encryptionKeyIdAttributeName,
+                DirectKmsCachingConfig cachingConfig) {
+            super(kms, encryptionKeyId, Collections.<String, String>emptyMap(), cachingConfig);
+
+            this.encryptionKeyIdAttributeName = encryptionKeyIdAttributeName;
+        }
+
         @Override
         protected String selectEncryptionKeyId(EncryptionContext context) throws DynamoDBMappingException {
             if (!context.getAttributeValues().containsKey(encryptionKeyIdAttributeName)) {
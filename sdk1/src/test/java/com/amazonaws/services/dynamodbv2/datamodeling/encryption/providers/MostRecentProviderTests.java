@@ -31,14 +31,23 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 
 public class MostRecentProviderTests {
     private static final String TABLE_NAME = "keystoreTable";
@@ -493,6 +502,525 @@ public class MostRecentProviderTests {
         assertEquals(2, (int) methodCalls.getOrDefault("getItem", 0));
     }
 
+    @Test
+    public void backgroundRefresh() throws InterruptedException {
+        final CapturingExecutor executor = new CapturingExecutor();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        final EncryptionMaterials eMat1 = prov.getEncryptionMaterials(ctx);
+        assertEquals(1, (int) methodCalls.getOrDefault("putItem", 0));
+        assertEquals(1, executor.tasks.size());
+        // Scheduled up to 10% early, never late
+        assertTrue(executor.delays.get(0) <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(executor.delays.get(0) >= TimeUnit.MILLISECONDS.toNanos(90));
+        store.newProvider(MATERIAL_NAME);
+        methodCalls.clear();
+
+        // Callers never go to the store, even once the TTL has passed
+        Thread.sleep(150);
+        final EncryptionMaterials eMat2 = prov.getEncryptionMaterials(ctx);
+        assertTrue(methodCalls.isEmpty());
+        assertEquals(0, store.getVersionFromMaterialDescription(eMat2.getMaterialDescription()));
+
+        executor.runNext();
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        assertEquals(1, (int) methodCalls.getOrDefault("getItem", 0));
+        assertEquals(1, prov.getCurrentVersion());
+        // The task reschedules itself
+        assertEquals(1, executor.tasks.size());
+        methodCalls.clear();
+
+        final EncryptionMaterials eMat3 = prov.getEncryptionMaterials(ctx);
+        assertTrue(methodCalls.isEmpty());
+        assertEquals(1, store.getVersionFromMaterialDescription(eMat3.getMaterialDescription()));
+        assertEquals(eMat1.getSigningKey(), eMat2.getSigningKey());
+        assertFalse(eMat1.getSigningKey().equals(eMat3.getSigningKey()));
+    }
+
+    @Test
+    public void backgroundRefreshStopsOnRefresh() {
+        final CapturingExecutor executor = new CapturingExecutor();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(1, executor.tasks.size());
+        prov.refresh();
+        methodCalls.clear();
+
+        executor.runNext();
+        assertTrue(methodCalls.isEmpty());
+        assertTrue(executor.tasks.isEmpty());
+
+        // Next use loads the material again and restarts the checks
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void backgroundRefreshKeepsProviderOnFailure() {
+        final CapturingExecutor executor = new CapturingExecutor();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        final EncryptionMaterials eMat1 = prov.getEncryptionMaterials(ctx);
+        client.deleteTable(TABLE_NAME);
+        methodCalls.clear();
+
+        executor.runNext();
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        assertEquals(1, executor.tasks.size());
+        assertEquals(0, prov.getCurrentVersion());
+        assertEquals(eMat1.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+    }
+
+    @Test
+    public void backgroundRefreshFallsBackToCallersWhenExpired() throws InterruptedException {
+        final CapturingExecutor executor = new CapturingExecutor();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        prov.getEncryptionMaterials(ctx);
+        store.newProvider(MATERIAL_NAME);
+        methodCalls.clear();
+
+        // The background check never runs, so once past the TTL and grace period callers check
+        // for new versions themselves
+        Thread.sleep(650);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        assertEquals(1, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+        assertEquals(1, prov.getCurrentVersion());
+    }
+
+    @Test
+    public void backgroundRefreshDoesNotWaitForCallers() throws InterruptedException {
+        final CountDownLatch callerChecking = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> blocked = new AtomicReference<>();
+        final MetaStore blockingStore = new MetaStore(client, TABLE_NAME, ENCRYPTOR) {
+            @Override
+            public long getMaxVersion(final String materialName) {
+                if (Thread.currentThread() == blocked.get()) {
+                    callerChecking.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getMaxVersion(materialName);
+            }
+        };
+        final CapturingExecutor executor = new CapturingExecutor();
+        final MostRecentProvider prov = new MostRecentProvider(blockingStore, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        prov.getEncryptionMaterials(ctx);
+        store.newProvider(MATERIAL_NAME);
+
+        // Past the TTL and grace period, a caller takes the lock and checks the store itself
+        Thread.sleep(650);
+        final Thread caller = new Thread(() -> prov.getEncryptionMaterials(ctx));
+        blocked.set(caller);
+        caller.start();
+        assertTrue(callerChecking.await(5, TimeUnit.SECONDS));
+
+        // The background check completes on its own thread without waiting for that caller
+        final Thread refresh = new Thread(executor::runNext);
+        refresh.start();
+        refresh.join(5000);
+        final boolean refreshWaited = refresh.isAlive();
+        release.countDown();
+        caller.join(5000);
+        assertFalse(refreshWaited);
+        assertEquals(1, executor.tasks.size());
+        assertEquals(1, prov.getCurrentVersion());
+    }
+
+    @Test
+    public void backgroundRefreshExecutorShutdown() throws InterruptedException {
+        final CapturingExecutor executor = new CapturingExecutor();
+        executor.shutdown();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        prov.getEncryptionMaterials(ctx);
+        assertTrue(executor.tasks.isEmpty());
+        methodCalls.clear();
+
+        // Callers check for new versions themselves
+        Thread.sleep(150);
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void refreshJitterOutOfRange() {
+        new MostRecentProviderConfig.Builder().withRefreshJitter(1.0);
+    }
+
+    @Test
+    public void rotationCreatesNextVersion() throws InterruptedException {
+        final MostRecentProviderConfig config = new MostRecentProviderConfig.Builder()
+                .withRotationPeriodMillis(400)
+                .withRotationLeadTimeMillis(200)
+                .build();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100, config);
+        final long before = System.currentTimeMillis();
+        final EncryptionMaterials eMat0 = prov.getEncryptionMaterials(ctx);
+        assertEquals(0, store.getVersionFromMaterialDescription(eMat0.getMaterialDescription()));
+        assertEquals(1, (int) methodCalls.getOrDefault("putItem", 0));
+        final long activationTime0 = store.getActivationTime(MATERIAL_NAME, 0);
+        assertTrue(activationTime0 >= before && activationTime0 <= System.currentTimeMillis());
+
+        // Version 1 is created once version 0 is within the lead time of its rotation
+        Thread.sleep(250);
+        methodCalls.clear();
+        assertEquals(eMat0.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        assertEquals(1, (int) methodCalls.getOrDefault("putItem", 0));
+        assertEquals(0, prov.getCurrentVersion());
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+        final long activationTime1 = store.getActivationTime(MATERIAL_NAME, 1);
+        assertTrue(activationTime1 >= activationTime0 + 400);
+
+        // Another host agrees on the version and does not create one of its own
+        methodCalls.clear();
+        final MostRecentProvider prov2 = new MostRecentProvider(store, MATERIAL_NAME, 100, config);
+        assertEquals(eMat0.getSigningKey(), prov2.getEncryptionMaterials(ctx).getSigningKey());
+        assertNull(methodCalls.get("putItem"));
+
+        Thread.sleep(Math.max(0, activationTime1 - System.currentTimeMillis()) + 50);
+        methodCalls.clear();
+        final EncryptionMaterials eMat1 = prov.getEncryptionMaterials(ctx);
+        assertEquals(1, store.getVersionFromMaterialDescription(eMat1.getMaterialDescription()));
+        assertEquals(1, prov.getCurrentVersion());
+        // Version 1 was already retrieved, and version 2 is not yet due
+        assertEquals(1, methodCalls.size());
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        assertEquals(eMat1.getSigningKey(), prov2.getEncryptionMaterials(ctx).getSigningKey());
+    }
+
+    @Test
+    public void rotationSwitchesWithoutStore() throws InterruptedException {
+        store.getOrCreate(MATERIAL_NAME, 0);
+        final EncryptionMaterials eMat1 = store.getOrCreate(MATERIAL_NAME, 1, System.currentTimeMillis() + 300)
+                .getEncryptionMaterials(ctx);
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 5000,
+                new MostRecentProviderConfig.Builder().withRotationPeriodMillis(60000).build());
+        methodCalls.clear();
+        assertEquals(0, store.getVersionFromMaterialDescription(
+                prov.getEncryptionMaterials(ctx).getMaterialDescription()));
+        assertEquals(0, prov.getCurrentVersion());
+        // Each version is read once, for both its provider and its activation time
+        assertEquals(2, (int) methodCalls.getOrDefault("getItem", 0));
+        // Version 1 is retrieved ahead of time rather than version 2 created
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+        assertNull(methodCalls.get("putItem"));
+
+        Thread.sleep(350);
+        methodCalls.clear();
+        assertEquals(eMat1.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        assertEquals(1, prov.getCurrentVersion());
+        assertTrue("Expected no calls but was " + methodCalls.toString(), methodCalls.isEmpty());
+    }
+
+    @Test
+    public void staleWhileError() throws InterruptedException {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withMaxStalenessMillis(5000).build());
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        client.deleteTable(TABLE_NAME);
+        Thread.sleep(700);
+        methodCalls.clear();
+
+        assertEquals(eMat.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        methodCalls.clear();
+        // Not retried straight away
+        assertEquals(eMat.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        assertTrue("Expected no calls but was " + methodCalls.toString(), methodCalls.isEmpty());
+
+        Thread.sleep(550);
+        assertEquals(eMat.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+    }
+
+    @Test
+    public void staleBeyondMaxStaleness() throws InterruptedException {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withMaxStalenessMillis(200).build());
+        prov.getEncryptionMaterials(ctx);
+        client.deleteTable(TABLE_NAME);
+        Thread.sleep(400);
+        try {
+            prov.getEncryptionMaterials(ctx);
+            fail("Expected exception");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void errorWithoutMaxStaleness() throws InterruptedException {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100);
+        prov.getEncryptionMaterials(ctx);
+        client.deleteTable(TABLE_NAME);
+        Thread.sleep(700);
+        try {
+            prov.getEncryptionMaterials(ctx);
+            fail("Expected exception");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void negativeCache() throws Exception {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500,
+                new MostRecentProviderConfig.Builder().withNegativeCacheTtlMillis(200).build());
+        prov.getEncryptionMaterials(ctx);
+        final EncryptionContext missing = new EncryptionContext.Builder()
+                .withMaterialDescription(Collections.singletonMap("amzn-ddb-meta-id", MATERIAL_NAME + "#1"))
+                .build();
+        methodCalls.clear();
+        for (int i = 0; i < 3; i++) {
+            try {
+                prov.getDecryptionMaterials(missing);
+                fail("Expected exception");
+            } catch (IndexOutOfBoundsException ex) {
+                // Expected
+            }
+        }
+        try {
+            prov.getDecryptionMaterialsAsync(missing).get();
+            fail("Expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IndexOutOfBoundsException);
+        }
+        assertEquals(1, (int) methodCalls.getOrDefault("getItem", 0));
+
+        // Looked up again once the entry expires
+        store.newProvider(MATERIAL_NAME);
+        Thread.sleep(250);
+        prov.getDecryptionMaterials(missing);
+        assertEquals(2, (int) methodCalls.getOrDefault("getItem", 0));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rotationNeedsActivationTimes() {
+        final ProviderStore noActivationTimes = new ProviderStore() {
+            @Override
+            public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
+                return store.getProvider(materialName, version);
+            }
+
+            @Override
+            public long getMaxVersion(final String materialName) {
+                return store.getMaxVersion(materialName);
+            }
+
+            @Override
+            public long getVersionFromMaterialDescription(final Map<String, String> description) {
+                return store.getVersionFromMaterialDescription(description);
+            }
+        };
+        new MostRecentProvider(noActivationTimes, MATERIAL_NAME, 500,
+                new MostRecentProviderConfig.Builder().withRotationPeriodMillis(60000).build());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rotationLeadTimeTooShort() {
+        new MostRecentProvider(store, MATERIAL_NAME, 500, new MostRecentProviderConfig.Builder()
+                .withRotationPeriodMillis(1000)
+                .withRotationLeadTimeMillis(500)
+                .build());
+    }
+
+    @Test
+    public void decryptionMaterialsAsync() throws Exception {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        final MostRecentProvider prov2 = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        methodCalls.clear();
+        final DecryptionMaterials dMat1 = prov2.getDecryptionMaterialsAsync(ctx(eMat)).get();
+        assertEquals(1, (int) methodCalls.getOrDefault("getItem", 0));
+        assertEquals(eMat.getEncryptionKey(), dMat1.getDecryptionKey());
+        assertEquals(eMat.getSigningKey(), dMat1.getVerificationKey());
+        methodCalls.clear();
+        // Now cached, for the synchronous form too
+        final DecryptionMaterials dMat2 = prov2.getDecryptionMaterialsAsync(ctx(eMat)).get();
+        prov2.getDecryptionMaterials(ctx(eMat));
+        assertTrue(methodCalls.isEmpty());
+        assertEquals(eMat.getSigningKey(), dMat2.getVerificationKey());
+        assertEquals(2, prov2.getProviderCacheHits());
+    }
+
+    @Test
+    public void preload() {
+        final List<EncryptionMaterials> eMats = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            eMats.add(store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx));
+        }
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        methodCalls.clear();
+        assertEquals(3, prov.preload(MATERIAL_NAME, 3));
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+        assertEquals(1, (int) methodCalls.getOrDefault("batchGetItem", 0));
+        assertNull(methodCalls.get("getItem"));
+        methodCalls.clear();
+
+        for (int i = 1; i < 4; i++) {
+            final DecryptionMaterials dMat = prov.getDecryptionMaterials(ctx(eMats.get(i)));
+            assertEquals(eMats.get(i).getSigningKey(), dMat.getVerificationKey());
+        }
+        // The newest version is already current for encryption
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        assertEquals(3, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+        assertTrue(methodCalls.isEmpty());
+        // Older versions are still retrieved when needed
+        prov.getDecryptionMaterials(ctx(eMats.get(0)));
+        assertEquals(1, (int) methodCalls.getOrDefault("getItem", 0));
+    }
+
+    @Test
+    public void preloadSchedulesBackgroundRefresh() {
+        store.newProvider(MATERIAL_NAME);
+        final CapturingExecutor executor = new CapturingExecutor();
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 100,
+                new MostRecentProviderConfig.Builder().withRefreshExecutor(executor).build());
+        assertEquals(1, prov.preload(MATERIAL_NAME, 1));
+        assertEquals(1, executor.tasks.size());
+        methodCalls.clear();
+        prov.getEncryptionMaterials(ctx);
+        assertTrue(methodCalls.isEmpty());
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void preloadWithRotationLeavesCurrentVersionToStore() {
+        store.newProvider(MATERIAL_NAME);
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500,
+                new MostRecentProviderConfig.Builder().withRotationPeriodMillis(60000).build());
+        assertEquals(1, prov.preload(MATERIAL_NAME, 1));
+        methodCalls.clear();
+        prov.getEncryptionMaterials(ctx);
+        assertEquals(1, (int) methodCalls.getOrDefault("query", 0));
+    }
+
+    @Test
+    public void preloadMoreThanExist() {
+        store.newProvider(MATERIAL_NAME);
+        store.newProvider(MATERIAL_NAME);
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        assertEquals(2, prov.preload(MATERIAL_NAME, 10));
+        assertEquals(0, prov.preload("other", 10));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void preloadNothing() {
+        new MostRecentProvider(store, MATERIAL_NAME, 500).preload(MATERIAL_NAME, 0);
+    }
+
+    @Test
+    public void bulkDecryptionMaterials() {
+        final List<EncryptionMaterials> eMats = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            eMats.add(store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx));
+        }
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        prov.getDecryptionMaterials(ctx(eMats.get(4)));
+        final List<EncryptionContext> contexts = new ArrayList<>();
+        for (EncryptionMaterials eMat : eMats) {
+            contexts.add(ctx(eMat));
+            contexts.add(ctx(eMat));
+        }
+        methodCalls.clear();
+        final List<DecryptionMaterials> dMats = prov.getDecryptionMaterials(contexts);
+        assertEquals(contexts.size(), dMats.size());
+        for (int i = 0; i < contexts.size(); i++) {
+            assertEquals(eMats.get(i / 2).getEncryptionKey(), dMats.get(i).getDecryptionKey());
+            assertEquals(eMats.get(i / 2).getSigningKey(), dMats.get(i).getVerificationKey());
+        }
+        // Only the four uncached versions are retrieved, together
+        assertNull(methodCalls.get("getItem"));
+        assertTrue(methodCalls.getOrDefault("batchGetItem", 0) >= 1);
+        methodCalls.clear();
+        prov.getDecryptionMaterials(contexts);
+        assertTrue(methodCalls.isEmpty());
+    }
+
+    @Test
+    public void bulkDecryptionMaterialsMissingVersion() {
+        final List<EncryptionMaterials> eMats = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            eMats.add(store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx));
+        }
+        final List<EncryptionContext> contexts = new ArrayList<>();
+        contexts.add(ctx(eMats.get(0)));
+        contexts.add(new EncryptionContext.Builder()
+                .withMaterialDescription(Collections.singletonMap("amzn-ddb-meta-id", MATERIAL_NAME + "#7"))
+                .build());
+        contexts.add(ctx(eMats.get(1)));
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        methodCalls.clear();
+        try {
+            prov.getDecryptionMaterials(contexts);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (final IndexOutOfBoundsException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(MATERIAL_NAME + "#7"));
+        }
+        // The missing version isn't fetched again on its own just to fail
+        assertNull(methodCalls.get("getItem"));
+        methodCalls.clear();
+        // The versions which do exist were kept
+        prov.getDecryptionMaterials(contexts.get(0));
+        prov.getDecryptionMaterials(contexts.get(2));
+        assertTrue(methodCalls.isEmpty());
+    }
+
+    @Test
+    public void providerCacheStats() {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        final MostRecentProvider prov2 = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        prov2.getDecryptionMaterials(ctx(eMat));
+        prov2.getDecryptionMaterials(ctx(eMat));
+        assertEquals(1, prov2.getProviderCacheHits());
+        assertEquals(1, prov2.getProviderCacheMisses());
+    }
+
+    @Test
+    public void providerCacheTtl() throws InterruptedException {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        final MostRecentProvider prov2 = new MostRecentProvider(store, MATERIAL_NAME, 500,
+                new MostRecentProviderConfig.Builder().withCacheTtlMillis(50).build());
+        methodCalls.clear();
+        prov2.getDecryptionMaterials(ctx(eMat));
+        prov2.getDecryptionMaterials(ctx(eMat));
+        assertEquals(1, (int) methodCalls.getOrDefault("getItem", 0));
+        Thread.sleep(100);
+        prov2.getDecryptionMaterials(ctx(eMat));
+        assertEquals(2, (int) methodCalls.getOrDefault("getItem", 0));
+        assertEquals(2, prov2.getProviderCacheMisses());
+    }
+
+    @Test
+    public void maxCacheEntries() {
+        final MostRecentProvider prov = new ExtendedProvider(store, 500,
+                new MostRecentProviderConfig.Builder().withMaxCacheEntries(2).build());
+        final EncryptionContext hot = ctx(Collections.singletonMap(MATERIAL_PARAM, new AttributeValue("hot")));
+        prov.getEncryptionMaterials(hot);
+        prov.getEncryptionMaterials(hot);
+        for (int i = 0; i < 5; i++) {
+            prov.getEncryptionMaterials(
+                    ctx(Collections.singletonMap(MATERIAL_PARAM, new AttributeValue("cold" + i))));
+        }
+        assertEquals(6, prov.getCurrentVersionCacheMisses());
+        methodCalls.clear();
+        // The material in regular use was not pushed out by the others
+        prov.getEncryptionMaterials(hot);
+        assertTrue(methodCalls.isEmpty());
+        assertEquals(2, prov.getCurrentVersionCacheHits());
+    }
+
     private static EncryptionContext ctx(final Map<String, AttributeValue> attr) {
         return new EncryptionContext.Builder()
                 .withAttributeValues(attr).build();
@@ -509,11 +1037,41 @@ public class MostRecentProviderTests {
                 .withMaterialDescription(mat.getMaterialDescription()).build();
     }
 
+    /**
+     * Records scheduled tasks so that tests can run them on demand.
+     */
+    private static class CapturingExecutor extends ScheduledThreadPoolExecutor {
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+
+        CapturingExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            if (isShutdown()) {
+                return super.schedule(command, delay, unit);
+            }
+            tasks.add(command);
+            delays.add(unit.toNanos(delay));
+            return null;
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+    }
+
     private static class ExtendedProvider extends MostRecentProvider {
         public ExtendedProvider(ProviderStore keystore, long ttlInMillis) {
             super(keystore, null, ttlInMillis);
         }
 
+        public ExtendedProvider(ProviderStore keystore, long ttlInMillis, MostRecentProviderConfig config) {
+            super(keystore, null, ttlInMillis, config);
+        }
+
         @Override
         public long getCurrentVersion() {
             throw new UnsupportedOperationException();
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.MostRecentProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+public class CachingProviderStoreTest {
+    private static final String TABLE_NAME = "keystoreTable";
+    private static final String MATERIAL_NAME = "material";
+    private static final SecretKey AES_KEY = new SecretKeySpec(new byte[]{0,
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15}, "AES");
+    private static final SecretKey HMAC_KEY = new SecretKeySpec(new byte[]{0,
+            1, 2, 3, 4, 5, 6, 7}, "HmacSHA256");
+    private static final DynamoDBEncryptor ENCRYPTOR =
+            DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(AES_KEY, HMAC_KEY));
+
+    private MetaStore metaStore;
+    private CountingStore counting;
+    private CachingProviderStore store;
+    private EncryptionContext ctx;
+
+    @BeforeMethod
+    public void setup() {
+        final AmazonDynamoDB client = DynamoDBEmbedded.create();
+        MetaStore.createTable(client, TABLE_NAME, new ProvisionedThroughput(1L, 1L));
+        metaStore = new MetaStore(client, TABLE_NAME, ENCRYPTOR);
+        counting = new CountingStore(metaStore);
+        store = new CachingProviderStore(counting, 100);
+        ctx = new EncryptionContext.Builder().build();
+    }
+
+    @Test
+    public void sharedAcrossProviders() {
+        final EncryptionMaterials eMat = metaStore.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        final List<MostRecentProvider> providers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            providers.add(new MostRecentProvider(store, MATERIAL_NAME, 500));
+        }
+        for (MostRecentProvider prov : providers) {
+            assertEquals(eMat.getSigningKey(), prov.getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+            assertEquals(eMat.getSigningKey(), prov.getEncryptionMaterials(ctx).getSigningKey());
+        }
+        assertEquals(1, counting.getProviderCalls.get());
+        assertEquals(1, store.getCacheMisses());
+        assertEquals(4, store.getCacheHits());
+    }
+
+    @Test
+    public void createdProvidersAreCached() {
+        final EncryptionMaterialsProvider prov = store.newProvider(MATERIAL_NAME);
+        assertSame(prov, store.getProvider(MATERIAL_NAME, 0));
+        assertEquals(0, counting.getProviderCalls.get());
+    }
+
+    @Test
+    public void singleFlight() throws InterruptedException {
+        metaStore.newProvider(MATERIAL_NAME);
+        counting.gate = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        final List<EncryptionMaterialsProvider> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Thread thread = new Thread(() -> {
+                final EncryptionMaterialsProvider result = store.getProvider(MATERIAL_NAME, 0);
+                synchronized (results) {
+                    results.add(result);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (store.getCoalescedLoads() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        counting.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3, store.getCoalescedLoads());
+        assertEquals(1, counting.getProviderCalls.get());
+        assertEquals(4, results.size());
+        for (EncryptionMaterialsProvider result : results) {
+            assertSame(results.get(0), result);
+        }
+    }
+
+    @Test
+    public void failuresAreNotCached() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                store.getProvider(MATERIAL_NAME, 0);
+                fail("Expected exception");
+            } catch (IndexOutOfBoundsException ex) {
+                // Expected
+            }
+        }
+        assertEquals(2, counting.getProviderCalls.get());
+        metaStore.newProvider(MATERIAL_NAME);
+        store.getProvider(MATERIAL_NAME, 0);
+        assertEquals(3, counting.getProviderCalls.get());
+    }
+
+    @Test
+    public void getProviders() {
+        for (int i = 0; i < 3; i++) {
+            metaStore.newProvider(MATERIAL_NAME);
+        }
+        final EncryptionMaterialsProvider prov1 = store.getProvider(MATERIAL_NAME, 1);
+        final Map<Long, EncryptionMaterialsProvider> providers =
+                store.getProviders(MATERIAL_NAME, Arrays.asList(0L, 1L, 2L, 3L));
+        assertEquals(3, providers.size());
+        assertSame(prov1, providers.get(1L));
+        assertEquals(Arrays.asList(0L, 2L, 3L), counting.getProvidersVersions);
+        // Now all cached
+        store.getProviders(MATERIAL_NAME, Arrays.asList(0L, 1L, 2L));
+        assertEquals(1, counting.getProvidersCalls.get());
+    }
+
+    @Test
+    public void getProvidersSingleFlight() throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            metaStore.newProvider(MATERIAL_NAME);
+        }
+        counting.gate = new CountDownLatch(1);
+        final List<Map<Long, EncryptionMaterialsProvider>> results = new ArrayList<>();
+        final Thread first = new Thread(() -> {
+            final Map<Long, EncryptionMaterialsProvider> result =
+                    store.getProviders(MATERIAL_NAME, Arrays.asList(0L, 1L, 5L));
+            synchronized (results) {
+                results.add(result);
+            }
+        });
+        first.start();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (counting.getProvidersCalls.get() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        final Thread second = new Thread(() -> {
+            final Map<Long, EncryptionMaterialsProvider> result =
+                    store.getProviders(MATERIAL_NAME, Arrays.asList(1L, 5L));
+            synchronized (results) {
+                results.add(result);
+            }
+        });
+        second.start();
+        while (store.getCoalescedLoads() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        counting.gate.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(2, store.getCoalescedLoads());
+        assertEquals(1, counting.getProvidersCalls.get());
+        assertEquals(2, results.size());
+        final Map<Long, EncryptionMaterialsProvider> all =
+                results.get(0).size() == 2 ? results.get(0) : results.get(1);
+        final Map<Long, EncryptionMaterialsProvider> shared =
+                results.get(0).size() == 2 ? results.get(1) : results.get(0);
+        // The version which doesn't exist is left out for both
+        assertEquals(1, shared.size());
+        assertSame(all.get(1L), shared.get(1L));
+    }
+
+    @Test
+    public void activationTimesCached() {
+        final EncryptionMaterials eMat = metaStore.getOrCreate(MATERIAL_NAME, 0, 1234L)
+                .getEncryptionMaterials(ctx);
+        assertEquals(1234L, store.getActivationTime(MATERIAL_NAME, 0));
+        assertEquals(1, counting.getScheduledProviderCalls.get());
+
+        // Read together with the provider, so neither needs the underlying store again
+        final ProviderStore.ScheduledProvider scheduled = store.getScheduledProvider(MATERIAL_NAME, 0);
+        assertEquals(1234L, scheduled.getActivationTime());
+        assertEquals(eMat.getSigningKey(),
+                scheduled.getProvider().getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+        assertSame(scheduled.getProvider(), store.getProvider(MATERIAL_NAME, 0));
+        assertEquals(1234L, store.getActivationTime(MATERIAL_NAME, 0));
+        assertEquals(1, counting.getScheduledProviderCalls.get());
+        assertEquals(0, counting.getProviderCalls.get());
+    }
+
+    @Test
+    public void asyncSingleFlight() throws Exception {
+        metaStore.newProvider(MATERIAL_NAME);
+        counting.asyncResult = new CompletableFuture<>();
+        final CompletableFuture<EncryptionMaterialsProvider> first = store.getProviderAsync(MATERIAL_NAME, 0);
+        final CompletableFuture<EncryptionMaterialsProvider> second = store.getProviderAsync(MATERIAL_NAME, 0);
+        assertEquals(1, store.getCoalescedLoads());
+        assertTrue(!first.isDone());
+        final EncryptionMaterialsProvider prov = metaStore.getProvider(MATERIAL_NAME, 0);
+        counting.asyncResult.complete(prov);
+        assertSame(prov, first.get());
+        assertSame(prov, second.get());
+        assertSame(prov, store.getProvider(MATERIAL_NAME, 0));
+        assertEquals(1, counting.getProviderAsyncCalls.get());
+    }
+
+    @Test
+    public void asyncCallersCannotCompleteSharedLoad() throws Exception {
+        metaStore.newProvider(MATERIAL_NAME);
+        counting.asyncResult = new CompletableFuture<>();
+        final CompletableFuture<EncryptionMaterialsProvider> first = store.getProviderAsync(MATERIAL_NAME, 0);
+        final CompletableFuture<EncryptionMaterialsProvider> second = store.getProviderAsync(MATERIAL_NAME, 0);
+        first.cancel(false);
+        second.complete(null);
+        final CompletableFuture<EncryptionMaterialsProvider> third = store.getProviderAsync(MATERIAL_NAME, 0);
+        assertEquals(2, store.getCoalescedLoads());
+        assertTrue(!third.isDone());
+
+        final EncryptionMaterialsProvider prov = metaStore.getProvider(MATERIAL_NAME, 0);
+        counting.asyncResult.complete(prov);
+        assertSame(prov, third.get());
+        assertSame(prov, store.getProvider(MATERIAL_NAME, 0));
+        assertEquals(1, counting.getProviderAsyncCalls.get());
+    }
+
+    @Test
+    public void asyncSynchronousFailure() throws Exception {
+        metaStore.newProvider(MATERIAL_NAME);
+        counting.asyncFailure = new IllegalStateException("Rejected");
+        try {
+            store.getProviderAsync(MATERIAL_NAME, 0).get();
+            fail("Expected exception");
+        } catch (ExecutionException ex) {
+            assertSame(counting.asyncFailure, ex.getCause());
+        }
+        // The failed retrieval isn't left for later callers to wait on
+        counting.asyncFailure = null;
+        assertSame(store.getProviderAsync(MATERIAL_NAME, 0).get(), store.getProvider(MATERIAL_NAME, 0));
+        assertEquals(2, counting.getProviderAsyncCalls.get());
+        assertEquals(0, store.getCoalescedLoads());
+    }
+
+    @Test
+    public void clearForgetsActivationTimes() {
+        metaStore.getOrCreate(MATERIAL_NAME, 0, 1234L);
+        store.getActivationTime(MATERIAL_NAME, 0);
+        store.clear();
+        assertEquals(1234L, store.getActivationTime(MATERIAL_NAME, 0));
+        assertEquals(2, counting.getScheduledProviderCalls.get());
+    }
+
+    @Test
+    public void asyncFailure() throws InterruptedException {
+        try {
+            store.getProviderAsync(MATERIAL_NAME, 0).get();
+            fail("Expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IndexOutOfBoundsException);
+        }
+    }
+
+    private static EncryptionContext ctx(final EncryptionMaterials mat) {
+        return new EncryptionContext.Builder()
+                .withMaterialDescription(mat.getMaterialDescription()).build();
+    }
+
+    private static class CountingStore extends ProviderStore {
+        private final ProviderStore delegate;
+        final AtomicInteger getProviderCalls = new AtomicInteger();
+        final AtomicInteger getProviderAsyncCalls = new AtomicInteger();
+        final AtomicInteger getProvidersCalls = new AtomicInteger();
+        final AtomicInteger getScheduledProviderCalls = new AtomicInteger();
+        final List<Long> getProvidersVersions = new ArrayList<>();
+        volatile CountDownLatch gate;
+        volatile CompletableFuture<EncryptionMaterialsProvider> asyncResult;
+        volatile RuntimeException asyncFailure;
+
+        CountingStore(final ProviderStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
+            getProviderCalls.incrementAndGet();
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            return delegate.getProvider(materialName, version);
+        }
+
+        @Override
+        public CompletableFuture<EncryptionMaterialsProvider> getProviderAsync(final String materialName,
+                final long version) {
+            getProviderAsyncCalls.incrementAndGet();
+            if (asyncFailure != null) {
+                throw asyncFailure;
+            }
+            return asyncResult != null ? asyncResult : super.getProviderAsync(materialName, version);
+        }
+
+        @Override
+        public Map<Long, EncryptionMaterialsProvider> getProviders(final String materialName,
+                final java.util.Collection<Long> versions) {
+            getProvidersCalls.incrementAndGet();
+            getProvidersVersions.addAll(versions);
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            return delegate.getProviders(materialName, versions);
+        }
+
+        @Override
+        public ScheduledProvider getScheduledProvider(final String materialName, final long version) {
+            getScheduledProviderCalls.incrementAndGet();
+            return delegate.getScheduledProvider(materialName, version);
+        }
+
+        @Override
+        public EncryptionMaterialsProvider getOrCreate(final String materialName, final long nextId) {
+            return delegate.getOrCreate(materialName, nextId);
+        }
+
+        @Override
+        public long getMaxVersion(final String materialName) {
+            return delegate.getMaxVersion(materialName);
+        }
+
+        @Override
+        public long getVersionFromMaterialDescription(final Map<String, String> description) {
+            return delegate.getVersionFromMaterialDescription(description);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.MostRecentProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+public class FileProviderStoreTest {
+    private static final String MATERIAL_NAME = "material";
+    private static final SecretKey AES_KEY = new SecretKeySpec(new byte[]{0,
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15}, "AES");
+    private static final SecretKey HMAC_KEY = new SecretKeySpec(new byte[]{0,
+            1, 2, 3, 4, 5, 6, 7}, "HmacSHA256");
+    private static final SecretKey OTHER_HMAC_KEY = new SecretKeySpec(new byte[]{7,
+            6, 5, 4, 3, 2, 1, 0}, "HmacSHA256");
+    private static final DynamoDBEncryptor ENCRYPTOR =
+            DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(AES_KEY, HMAC_KEY));
+
+    private Path dir;
+    private Path file;
+    private FileProviderStore store;
+    private EncryptionContext ctx;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("FileProviderStoreTest");
+        file = dir.resolve("materials");
+        store = new FileProviderStore(file, ENCRYPTOR);
+        ctx = new EncryptionContext.Builder().build();
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        store.close();
+        Files.deleteIfExists(file);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void noMaterials() {
+        assertEquals(-1, store.getMaxVersion(MATERIAL_NAME));
+        try {
+            store.getProvider(MATERIAL_NAME, 0);
+            fail("Expected exception");
+        } catch (IndexOutOfBoundsException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void createAndReopen() throws IOException {
+        final EncryptionMaterials eMat0 = store.getProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        final EncryptionMaterials eMat1 = store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        store.newProvider("other");
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+        assertEquals(1, store.getVersionFromMaterialDescription(eMat1.getMaterialDescription()));
+        // Creating an existing version returns it unchanged
+        assertEquals(eMat1.getSigningKey(), store.getOrCreate(MATERIAL_NAME, 1)
+                .getEncryptionMaterials(ctx).getSigningKey());
+
+        store.close();
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+        assertEquals(0, store.getMaxVersion("other"));
+        assertEquals(eMat0.getSigningKey(), decrypt(store, eMat0).getVerificationKey());
+        assertEquals(eMat1.getSigningKey(), decrypt(store, eMat1).getVerificationKey());
+    }
+
+    @Test
+    public void activationTime() throws IOException {
+        store.getOrCreate(MATERIAL_NAME, 0);
+        store.getOrCreate(MATERIAL_NAME, 1, 1234L);
+        store.close();
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(0L, store.getActivationTime(MATERIAL_NAME, 0));
+        assertEquals(1234L, store.getActivationTime(MATERIAL_NAME, 1));
+    }
+
+    @Test
+    public void mostRecentProvider() {
+        final MostRecentProvider prov = new MostRecentProvider(store, MATERIAL_NAME, 500);
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        assertEquals(0, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+        assertEquals(eMat.getSigningKey(), prov.getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+    }
+
+    @Test
+    public void truncatedEntryDiscarded() throws IOException {
+        final EncryptionMaterials eMat0 = store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        store.newProvider(MATERIAL_NAME);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(0, store.getMaxVersion(MATERIAL_NAME));
+        assertEquals(eMat0.getSigningKey(), decrypt(store, eMat0).getVerificationKey());
+        final EncryptionMaterials eMat1 = store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        store.close();
+
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+        assertEquals(eMat1.getSigningKey(), decrypt(store, eMat1).getVerificationKey());
+    }
+
+    @Test
+    public void corruptLastEntryDiscarded() throws IOException {
+        final EncryptionMaterials eMat0 = store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        store.newProvider(MATERIAL_NAME);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            flipByte(raf, raf.length() - 5);
+        }
+
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(0, store.getMaxVersion(MATERIAL_NAME));
+        assertEquals(eMat0.getSigningKey(), decrypt(store, eMat0).getVerificationKey());
+    }
+
+    @Test
+    public void corruptEarlierEntryFailsOpen() throws IOException {
+        store.newProvider(MATERIAL_NAME);
+        store.newProvider(MATERIAL_NAME);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // Inside the payload of the first entry, after the file and entry headers
+            flipByte(raf, 20);
+        }
+        final byte[] corrupted = Files.readAllBytes(file);
+
+        try {
+            store = new FileProviderStore(file, ENCRYPTOR);
+            fail("Expected exception");
+        } catch (IOException ex) {
+            // Expected
+        }
+        // Nothing after the damaged entry was discarded
+        assertTrue(Arrays.equals(corrupted, Files.readAllBytes(file)));
+    }
+
+    @Test
+    public void corruptEarlierLengthFailsOpen() throws IOException {
+        store.newProvider(MATERIAL_NAME);
+        store.newProvider(MATERIAL_NAME);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // The length of the first entry, which now runs past the end of the file
+            flipByte(raf, 9);
+        }
+        final byte[] corrupted = Files.readAllBytes(file);
+
+        try {
+            store = new FileProviderStore(file, ENCRYPTOR);
+            fail("Expected exception");
+        } catch (IOException ex) {
+            // Expected
+        }
+        // The later entries weren't mistaken for the unfinished end of the file
+        assertTrue(Arrays.equals(corrupted, Files.readAllBytes(file)));
+    }
+
+    @Test
+    public void openedOnce() throws IOException {
+        store.newProvider(MATERIAL_NAME);
+        try {
+            new FileProviderStore(file, ENCRYPTOR).close();
+            fail("Expected exception");
+        } catch (IOException ex) {
+            // Expected
+        }
+        // Still usable by the store which has it open
+        store.newProvider(MATERIAL_NAME);
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+        store.close();
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+    }
+
+    @Test
+    public void wrongWrappingKey() throws IOException {
+        store.newProvider(MATERIAL_NAME);
+        store.close();
+        store = new FileProviderStore(file, DynamoDBEncryptor.getInstance(
+                new SymmetricStaticProvider(AES_KEY, OTHER_HMAC_KEY)));
+        assertEquals(0, store.getMaxVersion(MATERIAL_NAME));
+        try {
+            store.getProvider(MATERIAL_NAME, 0);
+            fail("Expected exception");
+        } catch (AmazonClientException ex) {
+            // Expected
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void notAStoreFile() throws IOException {
+        final Path other = dir.resolve("other");
+        Files.write(other, Arrays.asList("Not", "a", "store"));
+        try {
+            new FileProviderStore(other, ENCRYPTOR);
+        } finally {
+            Files.delete(other);
+        }
+    }
+
+    @Test
+    public void replicateFromMetaStore() throws IOException {
+        final AmazonDynamoDB client = DynamoDBEmbedded.create();
+        MetaStore.createTable(client, "keystoreTable", new ProvisionedThroughput(1L, 1L));
+        final MetaStore metaStore = new MetaStore(client, "keystoreTable", ENCRYPTOR);
+        final EncryptionMaterials eMat = metaStore.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        metaStore.replicate(MATERIAL_NAME, 0, store);
+        metaStore.replicate(MATERIAL_NAME, 0, store);
+        store.close();
+
+        store = new FileProviderStore(file, ENCRYPTOR);
+        assertEquals(0, store.getMaxVersion(MATERIAL_NAME));
+        assertEquals(eMat.getSigningKey(), decrypt(store, eMat).getVerificationKey());
+        // Records written with the DynamoDB copy can be read with the local one
+        assertEquals(eMat.getSigningKey(), new MostRecentProvider(store, MATERIAL_NAME, 500)
+                .getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+    }
+
+    private static DecryptionMaterials decrypt(final ProviderStore store, final EncryptionMaterials eMat) {
+        return store.getProvider(MATERIAL_NAME,
+                store.getVersionFromMaterialDescription(eMat.getMaterialDescription()))
+                .getDecryptionMaterials(ctx(eMat));
+    }
+
+    private static void flipByte(final RandomAccessFile raf, final long offset) throws IOException {
+        raf.seek(offset);
+        final int b = raf.read();
+        raf.seek(offset);
+        raf.write(b ^ 0xff);
+    }
+
+    private static EncryptionContext ctx(final EncryptionMaterials mat) {
+        return new EncryptionContext.Builder()
+                .withMaterialDescription(mat.getMaterialDescription()).build();
+    }
+}
@@ -12,7 +12,10 @@
  */
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
 
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
@@ -23,6 +26,7 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.Symme
 import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -32,13 +36,25 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.fail;
 
 public class MetaStoreTests {
@@ -63,6 +79,8 @@ public class MetaStoreTests {
     private MetaStore store;
     private MetaStore targetStore;
     private EncryptionContext ctx;
+    private ExecutorService asyncExecutor;
+    private MetaStore asyncStore;
 
     private static class TestExtraDataSupplier implements MetaStore.ExtraDataSupplier {
 
@@ -96,6 +114,13 @@ public class MetaStoreTests {
         store = new MetaStore(client, SOURCE_TABLE_NAME, ENCRYPTOR);
         targetStore = new MetaStore(targetClient, DESTINATION_TABLE_NAME, TARGET_ENCRYPTOR);
         ctx = new EncryptionContext.Builder().build();
+        asyncExecutor = Executors.newFixedThreadPool(2);
+        asyncStore = new MetaStore(async(client, asyncExecutor), SOURCE_TABLE_NAME, ENCRYPTOR);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        asyncExecutor.shutdownNow();
     }
 
     @Test
@@ -208,6 +233,20 @@ public class MetaStoreTests {
         assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
     }
 
+    @Test
+    public void activationTime() {
+        final EncryptionMaterialsProvider prov1 = store.getOrCreate(MATERIAL_NAME, 0, 1234L);
+        final EncryptionMaterialsProvider prov2 = store.getOrCreate(MATERIAL_NAME, 0, 5678L);
+        store.getOrCreate(MATERIAL_NAME, 1);
+        assertEquals(1234L, store.getActivationTime(MATERIAL_NAME, 0));
+        assertEquals(0L, store.getActivationTime(MATERIAL_NAME, 1));
+        assertEquals(1234L, store.getScheduledProvider(MATERIAL_NAME, 0).getActivationTime());
+        assertEquals(0L, store.getScheduledProvider(MATERIAL_NAME, 1).getActivationTime());
+
+        final EncryptionMaterials eMat = prov1.getEncryptionMaterials(ctx);
+        assertEquals(eMat.getSigningKey(), prov2.getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+    }
+
     @Test
     public void getOrCreateWithContextSupplier() {
         final Map<String, AttributeValue> attributeValueMap = new HashMap<>();
@@ -281,6 +320,138 @@ public class MetaStoreTests {
         assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
     }
 
+    @Test
+    public void asyncSingleMaterial() throws Exception {
+        assertEquals(-1L, (long) asyncStore.getMaxVersionAsync(MATERIAL_NAME).get());
+        final EncryptionMaterialsProvider prov = asyncStore.getOrCreateAsync(MATERIAL_NAME, 0).get();
+        assertEquals(0L, (long) asyncStore.getMaxVersionAsync(MATERIAL_NAME).get());
+
+        final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+        final DecryptionMaterials dMat = asyncStore.getProviderAsync(MATERIAL_NAME, 0).get()
+                .getDecryptionMaterials(ctx(eMat));
+        assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+        assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+        // And the synchronous store agrees
+        assertEquals(eMat.getSigningKey(),
+                store.getProvider(MATERIAL_NAME, 0).getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+    }
+
+    @Test
+    public void asyncGetOrCreateCollision() throws Exception {
+        final EncryptionMaterialsProvider prov1 = store.getOrCreate(MATERIAL_NAME, 0);
+        final EncryptionMaterialsProvider prov2 = asyncStore.getOrCreateAsync(MATERIAL_NAME, 0).get();
+
+        final EncryptionMaterials eMat = prov1.getEncryptionMaterials(ctx);
+        final DecryptionMaterials dMat = prov2.getDecryptionMaterials(ctx(eMat));
+        assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+        assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+    }
+
+    @Test
+    public void asyncInvalidVersion() throws InterruptedException {
+        try {
+            asyncStore.getProviderAsync(MATERIAL_NAME, 1000).get();
+            fail("Expected exception");
+        } catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IndexOutOfBoundsException);
+        }
+    }
+
+    @Test
+    public void asyncDecryptsOnGivenExecutor() throws Exception {
+        final AtomicInteger decryptions = new AtomicInteger();
+        final Executor decryptionExecutor = command -> {
+            decryptions.incrementAndGet();
+            asyncExecutor.execute(command);
+        };
+        final MetaStore decryptingStore = new MetaStore(async(client, asyncExecutor), SOURCE_TABLE_NAME,
+                ENCRYPTOR, new TestExtraDataSupplier(Collections.emptyMap(), Collections.emptySet()),
+                decryptionExecutor);
+        final EncryptionMaterials eMat = decryptingStore.getOrCreateAsync(MATERIAL_NAME, 0).get()
+                .getEncryptionMaterials(ctx);
+        assertEquals(1, decryptions.get());
+        final DecryptionMaterials dMat = decryptingStore.getProviderAsync(MATERIAL_NAME, 0).get()
+                .getDecryptionMaterials(ctx(eMat));
+        assertEquals(2, decryptions.get());
+        assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+    }
+
+    @Test
+    public void asyncWithSynchronousClient() throws Exception {
+        // Falls back to the synchronous calls, reporting failures through the future
+        assertEquals(-1L, (long) store.getMaxVersionAsync(MATERIAL_NAME).get());
+        store.getOrCreateAsync(MATERIAL_NAME, 0).get();
+        assertNotNull(store.getProviderAsync(MATERIAL_NAME, 0).get());
+        final CompletableFuture<EncryptionMaterialsProvider> missing = store.getProviderAsync(MATERIAL_NAME, 1000);
+        assertTrue(missing.isCompletedExceptionally());
+    }
+
+    @Test
+    public void getProviders() {
+        final List<EncryptionMaterials> eMats = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            eMats.add(store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx));
+        }
+        final Map<Long, EncryptionMaterialsProvider> providers =
+                store.getProviders(MATERIAL_NAME, Arrays.asList(4L, 0L, 2L, 3L, 1L, 2L, 1000L));
+        // The missing version is left out
+        assertEquals(5, providers.size());
+        for (int i = 0; i < 5; i++) {
+            final DecryptionMaterials dMat = providers.get((long) i).getDecryptionMaterials(ctx(eMats.get(i)));
+            assertEquals(eMats.get(i).getEncryptionKey(), dMat.getDecryptionKey());
+            assertEquals(eMats.get(i).getSigningKey(), dMat.getVerificationKey());
+        }
+        assertTrue(store.getProviders(MATERIAL_NAME, Collections.<Long>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void getProvidersDecryptsOnGivenExecutor() {
+        final AtomicInteger decryptions = new AtomicInteger();
+        final Executor decryptionExecutor = command -> {
+            decryptions.incrementAndGet();
+            asyncExecutor.execute(command);
+        };
+        final MetaStore decryptingStore = new MetaStore(client, SOURCE_TABLE_NAME, ENCRYPTOR,
+                new TestExtraDataSupplier(Collections.emptyMap(), Collections.emptySet()), decryptionExecutor);
+        final List<EncryptionMaterials> eMats = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            eMats.add(store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx));
+        }
+        final Map<Long, EncryptionMaterialsProvider> providers =
+                decryptingStore.getProviders(MATERIAL_NAME, Arrays.asList(0L, 1L, 2L));
+        assertEquals(3, decryptions.get());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(eMats.get(i).getSigningKey(),
+                    providers.get((long) i).getDecryptionMaterials(ctx(eMats.get(i))).getVerificationKey());
+        }
+    }
+
+    @Test
+    public void getProvidersDefault() {
+        final ProviderStore simpleStore = new ProviderStore() {
+            @Override
+            public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
+                return store.getProvider(materialName, version);
+            }
+
+            @Override
+            public long getMaxVersion(final String materialName) {
+                return store.getMaxVersion(materialName);
+            }
+
+            @Override
+            public long getVersionFromMaterialDescription(final Map<String, String> description) {
+                return store.getVersionFromMaterialDescription(description);
+            }
+        };
+        final EncryptionMaterials eMat = store.newProvider(MATERIAL_NAME).getEncryptionMaterials(ctx);
+        final Map<Long, EncryptionMaterialsProvider> providers =
+                simpleStore.getProviders(MATERIAL_NAME, Arrays.asList(0L, 1L));
+        assertEquals(1, providers.size());
+        assertEquals(eMat.getSigningKey(),
+                providers.get(0L).getDecryptionMaterials(ctx(eMat)).getVerificationKey());
+    }
+
     @Test(expectedExceptions = IndexOutOfBoundsException.class)
     public void invalidVersion() {
         store.getProvider(MATERIAL_NAME, 1000);
@@ -326,6 +497,45 @@ public class MetaStoreTests {
         }
     }
 
+    /**
+     * Adapts a synchronous client into an asynchronous one which runs each request on
+     * {@code executor}.
+     */
+    private static AmazonDynamoDBAsync async(final AmazonDynamoDB sync, final ExecutorService executor) {
+        return (AmazonDynamoDBAsync) Proxy.newProxyInstance(AmazonDynamoDBAsync.class.getClassLoader(),
+                new Class[]{AmazonDynamoDBAsync.class},
+                new InvocationHandler() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if (!method.getName().endsWith("Async")) {
+                            try {
+                                return method.invoke(sync, args);
+                            } catch (final InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                        }
+                        final Method syncMethod = AmazonDynamoDB.class.getMethod(
+                                method.getName().substring(0, method.getName().length() - "Async".length()),
+                                method.getParameterTypes()[0]);
+                        final AsyncHandler<AmazonWebServiceRequest, Object> handler =
+                                (AsyncHandler<AmazonWebServiceRequest, Object>) args[1];
+                        final Future<Object> result = executor.submit(() -> {
+                            try {
+                                final Object response = syncMethod.invoke(sync, args[0]);
+                                handler.onSuccess((AmazonWebServiceRequest) args[0], response);
+                                return response;
+                            } catch (final InvocationTargetException ex) {
+                                handler.onError((Exception) ex.getCause());
+                                throw (Exception) ex.getCause();
+                            }
+                        });
+                        return result;
+                    }
+                }
+        );
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> T synchronize(final T obj, final Class<T> clazz) {
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
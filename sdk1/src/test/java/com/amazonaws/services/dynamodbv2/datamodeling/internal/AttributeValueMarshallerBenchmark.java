@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures {@link AttributeValueMarshaller} against the original <code>DataOutputStream</code>
+ * based marshaller on items of about 1 KB, 64 KB and 400 KB (the largest item DynamoDB accepts),
+ * each made of numeric, string and binary attributes. For each it prints the time and the bytes
+ * allocated per item, both into a buffer and, for the current marshaller, into a digest. This is
+ * not run as part of the build; run it with <code>main</code>. The number of bytes marshalled per
+ * round may be given as the only argument.
+ */
+public class AttributeValueMarshallerBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final long DEFAULT_BYTES_PER_ROUND = 200L * 1024 * 1024;
+    private static final int[] ITEM_SIZES = {1024, 64 * 1024, 400 * 1024};
+
+    private static volatile Object sink;
+
+    public static void main(final String[] args) throws NoSuchAlgorithmException {
+        final long bytesPerRound = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_BYTES_PER_ROUND;
+        final Map<String, AttributeValue> items = new LinkedHashMap<>();
+        for (final int size : ITEM_SIZES) {
+            items.put(size / 1024 + " KB", item(size));
+        }
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (final AttributeValue item : items.values()) {
+            if (!AttributeValueMarshaller.marshall(item).equals(BaselineMarshaller.marshall(item))) {
+                throw new IllegalStateException("Marshallers disagree");
+            }
+        }
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            final boolean report = round >= WARMUP_ROUNDS;
+            for (final Map.Entry<String, AttributeValue> entry : items.entrySet()) {
+                final AttributeValue item = entry.getValue();
+                final int count = (int) Math.max(1, bytesPerRound / AttributeValueMarshaller.getMarshalledSize(item));
+                final Measurement baseline = new Measurement(count);
+                for (int x = 0; x < count; x++) {
+                    sink = BaselineMarshaller.marshall(item);
+                }
+                baseline.stop();
+                final Measurement buffer = new Measurement(count);
+                for (int x = 0; x < count; x++) {
+                    sink = AttributeValueMarshaller.marshall(item);
+                }
+                buffer.stop();
+                final Measurement digested = new Measurement(count);
+                for (int x = 0; x < count; x++) {
+                    AttributeValueMarshaller.marshall(item, digest);
+                    sink = digest.digest();
+                }
+                digested.stop();
+                if (report) {
+                    System.out.printf("%-7s baseline %s  buffer %s  digest %s%n", entry.getKey(), baseline,
+                            buffer, digested);
+                }
+            }
+        }
+    }
+
+    private static AttributeValue item(final int targetSize) {
+        final Map<String, AttributeValue> m = new HashMap<>();
+        final List<String> ns = new ArrayList<>();
+        final List<String> ss = new ArrayList<>();
+        for (int x = 0; AttributeValueMarshaller.getMarshalledSize(new AttributeValue().withM(m)) < targetSize; x++) {
+            switch (x % 4) {
+                case 0:
+                    m.put("n" + x, new AttributeValue().withN(Double.toString(x * 1234.5678)));
+                    ns.add(Long.toString(x * 987654321L));
+                    break;
+                case 1:
+                    m.put("s" + x, new AttributeValue("Some moderately long ASCII attribute value " + x));
+                    break;
+                case 2:
+                    ss.add("\u00dcn\u00efc\u00f6d\u00e9 v\u00e4l\u00fc\u00e9 " + x);
+                    m.put("ss", new AttributeValue().withSS(ss));
+                    break;
+                default:
+                    m.put("b" + x, new AttributeValue().withB(ByteBuffer.wrap(new byte[256])));
+                    break;
+            }
+            if (!ns.isEmpty()) {
+                m.put("ns", new AttributeValue().withNS(ns));
+            }
+        }
+        return new AttributeValue().withM(m);
+    }
+
+    /**
+     * Time and bytes allocated by the current thread, per item.
+     */
+    private static final class Measurement {
+        private final int count;
+        private final long startNanos;
+        private final long startBytes;
+        private long nanos;
+        private long bytes;
+
+        Measurement(final int count) {
+            this.count = count;
+            this.startBytes = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        void stop() {
+            nanos = System.nanoTime() - startNanos;
+            bytes = allocatedBytes() - startBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%9.2f us %9d B", nanos / 1000.0 / count, bytes / count);
+        }
+
+        private static long allocatedBytes() {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * The marshaller as it was before it sized its output up front: a
+     * <code>DataOutputStream</code> over a growing <code>ByteArrayOutputStream</code>, copied
+     * out at the end.
+     */
+    private static final class BaselineMarshaller {
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+
+        static ByteBuffer marshall(final AttributeValue attributeValue) {
+            try (ByteArrayOutputStream resultBytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(resultBytes)) {
+                marshall(attributeValue, out);
+                out.close();
+                return ByteBuffer.wrap(resultBytes.toByteArray());
+            } catch (final IOException ex) {
+                throw new RuntimeException("Unexpected exception", ex);
+            }
+        }
+
+        private static void marshall(final AttributeValue attributeValue, final DataOutputStream out)
+                throws IOException {
+            if (attributeValue.getB() != null) {
+                out.writeChar('b');
+                writeBytes(attributeValue.getB(), out);
+            } else if (attributeValue.getBS() != null) {
+                out.writeChar('B');
+                final List<ByteBuffer> sorted = new ArrayList<>(attributeValue.getBS());
+                Collections.sort(sorted);
+                out.writeInt(sorted.size());
+                for (final ByteBuffer v : sorted) {
+                    writeBytes(v, out);
+                }
+            } else if (attributeValue.getN() != null) {
+                out.writeChar('n');
+                writeString(trimZeros(attributeValue.getN()), out);
+            } else if (attributeValue.getNS() != null) {
+                out.writeChar('N');
+                final List<String> ns = new ArrayList<>(attributeValue.getNS().size());
+                for (final String n : attributeValue.getNS()) {
+                    ns.add(trimZeros(n));
+                }
+                writeStringList(ns, out);
+            } else if (attributeValue.getS() != null) {
+                out.writeChar('s');
+                writeString(attributeValue.getS(), out);
+            } else if (attributeValue.getSS() != null) {
+                out.writeChar('S');
+                writeStringList(attributeValue.getSS(), out);
+            } else if (attributeValue.getBOOL() != null) {
+                out.writeChar('?');
+                out.writeByte(attributeValue.getBOOL() ? 1 : 0);
+            } else if (Boolean.TRUE.equals(attributeValue.getNULL())) {
+                out.writeChar('\0');
+            } else if (attributeValue.getL() != null) {
+                out.writeChar('L');
+                out.writeInt(attributeValue.getL().size());
+                for (final AttributeValue attr : attributeValue.getL()) {
+                    marshall(attr, out);
+                }
+            } else {
+                final Map<String, AttributeValue> m = attributeValue.getM();
+                final List<String> mKeys = new ArrayList<>(m.keySet());
+                Collections.sort(mKeys);
+                out.writeChar('M');
+                out.writeInt(m.size());
+                for (final String mKey : mKeys) {
+                    marshall(new AttributeValue().withS(mKey), out);
+                    marshall(m.get(mKey), out);
+                }
+            }
+        }
+
+        private static String trimZeros(final String n) {
+            final BigDecimal number = new BigDecimal(n);
+            if (number.compareTo(BigDecimal.ZERO) == 0) {
+                return "0";
+            }
+            return number.stripTrailingZeros().toPlainString();
+        }
+
+        private static void writeStringList(final List<String> values, final DataOutputStream out)
+                throws IOException {
+            final List<String> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            out.writeInt(sorted.size());
+            for (final String v : sorted) {
+                writeString(v, out);
+            }
+        }
+
+        private static void writeString(final String value, final DataOutputStream out) throws IOException {
+            final byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static void writeBytes(ByteBuffer value, final DataOutputStream out) throws IOException {
+            value = value.asReadOnlyBuffer();
+            value.rewind();
+            out.writeInt(value.remaining());
+            while (value.hasRemaining()) {
+                out.writeByte(value.get());
+            }
+        }
+    }
+}
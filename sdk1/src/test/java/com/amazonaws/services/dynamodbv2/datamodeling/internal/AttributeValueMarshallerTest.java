@@ -20,7 +20,12 @@ import org.testng.Assert;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,8 +34,10 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller.getMarshalledSize;
 import static com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller.marshall;
 import static com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller.unmarshall;
 
@@ -287,6 +294,91 @@ public class AttributeValueMarshallerTest {
         assertEquals(oldObject, newObject);
     }
 
+    @Test
+    public void testMarshalledSize() {
+        AttributeValue complex = buildComplexAttributeValue();
+        ByteBuffer marshalled = marshall(complex);
+        AssertJUnit.assertEquals(marshalled.remaining(), getMarshalledSize(complex));
+        AssertJUnit.assertEquals(marshalled.capacity(), marshalled.remaining());
+    }
+
+    @Test
+    public void testMultiByteStrings() {
+        // Two, three and four byte sequences plus unpaired surrogates (which become '?')
+        String value = "a\u00e9\u20ac\ud83d\ude00\ud83d-\ude00";
+        AttributeValue av = new AttributeValue().withS(value);
+        ByteBuffer marshalled = marshall(av);
+        AssertJUnit.assertEquals(marshalled.remaining(), getMarshalledSize(av));
+
+        byte[] expectedValue = value.getBytes(StandardCharsets.UTF_8);
+        marshalled.position(2);
+        AssertJUnit.assertEquals(expectedValue.length, marshalled.getInt());
+        byte[] actualValue = new byte[marshalled.remaining()];
+        marshalled.get(actualValue);
+        AssertJUnit.assertArrayEquals(expectedValue, actualValue);
+        AssertJUnit.assertEquals(new String(expectedValue, StandardCharsets.UTF_8), unmarshall(marshall(av)).getS());
+    }
+
+    @Test
+    public void testMarshallIntoDirectBuffer() {
+        AttributeValue complex = buildComplexAttributeValue();
+        byte[] expected = Base64.decode(COMPLEX_ATTRIBUTE_MARSHALLED);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(getMarshalledSize(complex) + 3);
+        direct.order(ByteOrder.LITTLE_ENDIAN);
+        direct.position(3);
+        marshall(complex, direct);
+        AssertJUnit.assertEquals(ByteOrder.LITTLE_ENDIAN, direct.order());
+        AssertJUnit.assertFalse(direct.hasRemaining());
+
+        direct.position(3);
+        byte[] actual = new byte[expected.length];
+        direct.get(actual);
+        AssertJUnit.assertArrayEquals(expected, actual);
+    }
+
+    @Test(expectedExceptions = BufferOverflowException.class)
+    public void testMarshallIntoSmallBuffer() {
+        AttributeValue complex = buildComplexAttributeValue();
+        marshall(complex, ByteBuffer.allocate(getMarshalledSize(complex) - 1));
+    }
+
+    @Test
+    public void testLargeBinary() {
+        byte[] bytes = new byte[400 * 1024];
+        new Random(1337).nextBytes(bytes);
+        ByteBuffer value = ByteBuffer.wrap(bytes);
+        value.position(100);
+        AttributeValue av = new AttributeValue().withB(value);
+        ByteBuffer marshalled = marshall(av);
+        AssertJUnit.assertEquals(2 + 4 + bytes.length, marshalled.remaining());
+        // The source buffer must not be disturbed
+        AssertJUnit.assertEquals(100, value.position());
+        value.rewind();
+        assertEquals(av, unmarshall(marshalled));
+    }
+
+    @Test
+    public void testMarshallIntoDigest() throws NoSuchAlgorithmException {
+        byte[] bytes = new byte[400 * 1024];
+        new Random(1337).nextBytes(bytes);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, '\u20ac');
+        List<AttributeValue> values = Arrays.asList(
+                buildComplexAttributeValue(),
+                new AttributeValue().withB(ByteBuffer.wrap(bytes)),
+                new AttributeValue().withS(new String(chars)),
+                new AttributeValue().withL(new AttributeValue().withS(new String(chars)),
+                        new AttributeValue().withB(ByteBuffer.wrap(bytes))));
+        for (AttributeValue av : values) {
+            MessageDigest streamed = MessageDigest.getInstance("SHA-256");
+            marshall(av, streamed);
+            MessageDigest expected = MessageDigest.getInstance("SHA-256");
+            expected.update(marshall(av));
+            AssertJUnit.assertArrayEquals(expected.digest(), streamed.digest());
+        }
+    }
+
     private static final String COMPLEX_ATTRIBUTE_MARSHALLED = "AE0AAAADAHM" +
             "AAAAJSW5uZXJMaXN0AEwAAAAGAHMAAAALQ29tcGxleExpc3QAbgAAAAE1AGIAA" +
             "AAGAAECAwQFAEwAAAAFAD8BAAAAAABMAAAAAQA/AABNAAAAAwBzAAAABFBpbms" +
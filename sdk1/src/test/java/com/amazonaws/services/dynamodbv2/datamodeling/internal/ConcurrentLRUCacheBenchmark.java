@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures {@link ConcurrentLRUCache} against {@link LRUCache} with 1 to 64 threads reading from
+ * one shared cache at once. Most reads are of a small set of keys which fits in the cache, and the
+ * rest are of a much larger set which does not, as when a few material versions are in regular use
+ * while old records are being scanned. A read which misses adds the key. For each it prints the
+ * time per read across all threads and the share of reads which hit. ConcurrentLRUCache is also
+ * measured with entries which expire, which costs a clock read on each access. This is not run as
+ * part of the build; run it with <code>main</code>.
+ */
+public class ConcurrentLRUCacheBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int READS_PER_ROUND = 4_000_000;
+    private static final int[] THREADS = {1, 4, 16, 64};
+    private static final int MAX_SIZE = 1000;
+    private static final int HOT_KEYS = 800;
+    private static final int COLD_KEYS = 100_000;
+    /** Share of reads which are of the hot keys. */
+    private static final double HOT_SHARE = 0.9;
+
+    public static void main(final String[] args) throws InterruptedException {
+        final String[] keys = new String[READS_PER_ROUND];
+        final Random random = new Random(42);
+        for (int x = 0; x < keys.length; x++) {
+            keys[x] = random.nextDouble() < HOT_SHARE
+                    ? "hot" + random.nextInt(HOT_KEYS) : "cold" + random.nextInt(COLD_KEYS);
+        }
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            final boolean report = round >= WARMUP_ROUNDS;
+            for (final int threads : THREADS) {
+                final LRUCache<String> lru = new LRUCache<>(MAX_SIZE);
+                run("LRUCache", threads, keys, report, new Cache() {
+                    @Override
+                    public boolean read(final String key) {
+                        if (lru.get(key) != null) {
+                            return true;
+                        }
+                        lru.add(key, key);
+                        return false;
+                    }
+                });
+                run("ConcurrentLRUCache", threads, keys, report,
+                        cache(new ConcurrentLRUCache.Builder<String>(MAX_SIZE).build()));
+                run("  expiring", threads, keys, report, cache(new ConcurrentLRUCache.Builder<String>(MAX_SIZE)
+                        .withExpireAfterWriteMillis(TimeUnit.HOURS.toMillis(1)).build()));
+            }
+        }
+    }
+
+    private static Cache cache(final ConcurrentLRUCache<String> concurrent) {
+        return new Cache() {
+            @Override
+            public boolean read(final String key) {
+                if (concurrent.get(key) != null) {
+                    return true;
+                }
+                concurrent.add(key, key);
+                return false;
+            }
+        };
+    }
+
+    private static void run(final String name, final int threads, final String[] keys, final boolean report,
+            final Cache cache) throws InterruptedException {
+        final int readsPerThread = keys.length / threads;
+        final AtomicLong hits = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * readsPerThread;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long h = 0;
+                    for (int x = offset; x < offset + readsPerThread; x++) {
+                        if (cache.read(keys[x])) {
+                            h++;
+                        }
+                    }
+                    hits.addAndGet(h);
+                }
+            };
+            workers[t].start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final long elapsed = System.nanoTime() - startNanos;
+        if (report) {
+            final long reads = (long) readsPerThread * threads;
+            System.out.printf("%-20s %3d threads %8.1f ns/read %6.1f%% hits%n", name, threads,
+                    (double) elapsed / reads, 100.0 * hits.get() / reads);
+        }
+    }
+
+    private interface Cache {
+        /** Reads the key, adding it on a miss, and returns whether it was a hit. */
+        boolean read(String key);
+    }
+}
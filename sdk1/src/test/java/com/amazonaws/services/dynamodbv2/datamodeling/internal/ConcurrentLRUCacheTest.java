@@ -0,0 +1,302 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class ConcurrentLRUCacheTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void test() {
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3).build();
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getMaxSize());
+        assertNull(cache.add("k1", "v1"));
+        assertEquals("v1", cache.add("k1", "v11"));
+        assertEquals(1, cache.size());
+        cache.add("k2", "v2");
+        cache.add("k3", "v3");
+        assertEquals(3, cache.size());
+        cache.add("k4", "v4");
+        assertEquals(3, cache.size());
+        // k1 was never read, so it is evicted first
+        assertNull(cache.get("k1"));
+        assertEquals("v2", cache.get("k2"));
+        assertEquals("v3", cache.get("k3"));
+        assertEquals("v4", cache.get("k4"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("k2"));
+    }
+
+    @Test
+    public void testListener() {
+        final Map<String, String> removed = new ConcurrentHashMap<String, String>();
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3)
+                .withRemovalListener(new LRUCache.RemovalListener<String>() {
+                    @Override
+                    public void onRemoval(final Entry<String, String> entry) {
+                        removed.put(entry.getKey(), entry.getValue());
+                    }
+                }).build();
+        cache.add("k1", "v1");
+        cache.add("k1", "v11");
+        cache.add("k2", "v2");
+        cache.add("k3", "v3");
+        assertTrue(removed.isEmpty());
+        cache.add("k4", "v4");
+        assertEquals(1, removed.size());
+        assertEquals("v11", removed.get("k1"));
+        assertEquals(1, cache.getEvictionCount());
+        removed.clear();
+        cache.clear();
+        assertEquals(3, removed.size());
+        assertEquals("v2", removed.get("k2"));
+        assertEquals("v3", removed.get("k3"));
+        assertEquals("v4", removed.get("k4"));
+    }
+
+    @Test
+    public void scanResistance() {
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(10).build();
+        for (int i = 0; i < 5; i++) {
+            cache.add("hot" + i, "v");
+            cache.get("hot" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.add("scan" + i, "v");
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("v", cache.peek("hot" + i));
+        }
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void expireAfterWrite() throws InterruptedException {
+        final List<String> removed = new ArrayList<String>();
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3)
+                .withExpireAfterWriteMillis(50)
+                .withRemovalListener(new LRUCache.RemovalListener<String>() {
+                    @Override
+                    public void onRemoval(final Entry<String, String> entry) {
+                        removed.add(entry.getKey());
+                    }
+                }).build();
+        cache.add("k1", "v1");
+        assertEquals("v1", cache.get("k1"));
+        Thread.sleep(100);
+        assertNull(cache.peek("k1"));
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+        assertEquals(1, removed.size());
+        assertEquals(1, cache.getEvictionCount());
+        // Expired entries are replaced
+        assertNull(cache.putIfAbsent("k2", "v2"));
+        Thread.sleep(100);
+        assertNull(cache.putIfAbsent("k2", "v22"));
+        assertEquals("v22", cache.get("k2"));
+    }
+
+    @Test
+    public void putIfAbsent() {
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3).build();
+        assertNull(cache.putIfAbsent("k1", "v1"));
+        assertEquals("v1", cache.putIfAbsent("k1", "v11"));
+        assertEquals("v1", cache.get("k1"));
+    }
+
+    @Test
+    public void stats() {
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3).build();
+        cache.add("k1", "v1");
+        cache.get("k1");
+        cache.get("k1");
+        cache.get("k2");
+        cache.peek("k1");
+        cache.peek("k2");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void statsSnapshot() {
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(1).build();
+        assertEquals(1.0, cache.stats().getHitRate(), 0.0);
+        cache.add("k1", "v1");
+        cache.get("k1");
+        cache.get("k2");
+        cache.add("k2", "v2");
+        final CacheStats stats = cache.stats();
+        cache.get("k2");
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2, stats.getRequestCount());
+        assertEquals(0.5, stats.getHitRate(), 0.0);
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(1, stats.getEvictionWeight());
+        assertEquals(2, cache.stats().getHitCount());
+    }
+
+    @Test
+    public void maxWeight() {
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(100)
+                .withMaxWeight(10, new ConcurrentLRUCache.Weigher<String>() {
+                    @Override
+                    public int weigh(final String key, final String value) {
+                        return value.length();
+                    }
+                }).build();
+        assertEquals(10, cache.getMaxWeight());
+        cache.add("k1", "1234");
+        cache.add("k2", "1234");
+        assertEquals(2, cache.size());
+        cache.add("k3", "12");
+        assertEquals(3, cache.size());
+        cache.add("k4", "1");
+        assertEquals(3, cache.size());
+        assertNull(cache.peek("k1"));
+        // Entries heavier than the whole cache are not kept
+        cache.add("k5", "12345678901");
+        assertNull(cache.peek("k5"));
+        assertEquals(15, cache.stats().getEvictionWeight());
+        assertEquals(3, cache.size());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void negativeWeight() {
+        new ConcurrentLRUCache.Builder<String>(100)
+                .withMaxWeight(10, new ConcurrentLRUCache.Weigher<String>() {
+                    @Override
+                    public int weigh(final String key, final String value) {
+                        return -1;
+                    }
+                }).build().add("k1", "v1");
+    }
+
+    @Test
+    public void refreshAfterWrite() throws InterruptedException {
+        final AtomicInteger loads = new AtomicInteger();
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3)
+                .withRefreshAfterWriteMillis(50, new ConcurrentLRUCache.Loader<String>() {
+                    @Override
+                    public String load(final String key) {
+                        return key + "-" + loads.incrementAndGet();
+                    }
+                }, DIRECT).build();
+        cache.add("k1", "v1");
+        assertEquals("v1", cache.get("k1"));
+        assertEquals(0, loads.get());
+        Thread.sleep(100);
+        // The reader which triggers the reload still gets the old value
+        assertEquals("v1", cache.get("k1"));
+        assertEquals(1, loads.get());
+        assertEquals("k1-1", cache.get("k1"));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.stats().getRefreshCount());
+    }
+
+    @Test
+    public void refreshAfterWriteFailure() throws InterruptedException {
+        final AtomicInteger loads = new AtomicInteger();
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(3)
+                .withRefreshAfterWriteMillis(50, new ConcurrentLRUCache.Loader<String>() {
+                    @Override
+                    public String load(final String key) throws Exception {
+                        loads.incrementAndGet();
+                        throw new Exception("Unavailable");
+                    }
+                }, DIRECT).build();
+        cache.add("k1", "v1");
+        Thread.sleep(100);
+        assertEquals("v1", cache.get("k1"));
+        assertEquals("v1", cache.get("k1"));
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.stats().getRefreshFailureCount());
+        assertEquals(0, cache.stats().getRefreshCount());
+    }
+
+    @Test
+    public void concurrentAccess() throws InterruptedException {
+        final int threads = 64;
+        final ConcurrentLRUCache<String> cache = new ConcurrentLRUCache.Builder<String>(100).build();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < 2000; i++) {
+                            final String key = "k" + random.nextInt(200);
+                            final String value = cache.get(key);
+                            if (value == null) {
+                                cache.add(key, key);
+                            } else if (!value.equals(key)) {
+                                throw new AssertionError("Wrong value " + value + " for " + key);
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 100);
+        assertEquals(threads * 2000, cache.getHitCount() + cache.getMissCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testZeroSize() {
+        new ConcurrentLRUCache.Builder<Object>(0);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testNullValue() {
+        new ConcurrentLRUCache.Builder<Object>(1).build().add("k1", null);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionFlags;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures single-record encryption and decryption with an unchanging key under each
+ * {@link CryptoPrimitiveCache} pooling mode. This is not run as part of the build; run it with
+ * <code>main</code> and compare the per-record times it prints.
+ */
+public class CryptoPrimitiveCacheBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int RECORDS_PER_ROUND = 20_000;
+
+    public static void main(final String[] args) throws GeneralSecurityException {
+        final SecretKey aesKey = new SecretKeySpec(new byte[16], "AES");
+        final SecretKey hmacKey = new SecretKeySpec(new byte[32], "HmacSHA256");
+        final DynamoDBEncryptor encryptor =
+                DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(aesKey, hmacKey));
+        final EncryptionContext context = new EncryptionContext.Builder()
+                .withTableName("TableName").withHashKeyName("hashKey").build();
+        final Map<String, AttributeValue> item = new HashMap<>();
+        final Map<String, Set<EncryptionFlags>> flags = new HashMap<>();
+        item.put("hashKey", new AttributeValue("Foo"));
+        flags.put("hashKey", EnumSet.of(EncryptionFlags.SIGN));
+        for (int x = 0; x < 10; x++) {
+            item.put("attr" + x, new AttributeValue().withN(Integer.toString(x * 1000)));
+            flags.put("attr" + x, EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN));
+        }
+
+        final boolean pooling = CryptoPrimitiveCache.isPoolingEnabled();
+        final boolean keyedMacPooling = CryptoPrimitiveCache.isKeyedMacPoolingEnabled();
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                final boolean report = round >= WARMUP_ROUNDS;
+                run("no pooling", false, false, encryptor, item, flags, context, report);
+                run("pooling", true, false, encryptor, item, flags, context, report);
+                run("pooling with keyed Macs", true, true, encryptor, item, flags, context, report);
+            }
+        } finally {
+            CryptoPrimitiveCache.setPoolingEnabled(pooling);
+            CryptoPrimitiveCache.setKeyedMacPoolingEnabled(keyedMacPooling);
+        }
+    }
+
+    private static void run(final String name, final boolean pooling, final boolean keyedMacPooling,
+            final DynamoDBEncryptor encryptor, final Map<String, AttributeValue> item,
+            final Map<String, Set<EncryptionFlags>> flags, final EncryptionContext context,
+            final boolean report) throws GeneralSecurityException {
+        CryptoPrimitiveCache.setPoolingEnabled(pooling);
+        CryptoPrimitiveCache.setKeyedMacPoolingEnabled(keyedMacPooling);
+        CryptoPrimitiveCache.release();
+        final long start = System.nanoTime();
+        for (int x = 0; x < RECORDS_PER_ROUND; x++) {
+            encryptor.decryptRecord(encryptor.encryptRecord(item, flags, context), flags, context);
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.printf("%-25s %8.2f us/record%n", name, elapsed / 1000.0 / RECORDS_PER_ROUND);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import org.testng.annotations.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.AssertJUnit.assertArrayEquals;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+
+public class CryptoPrimitiveCacheTest {
+    private static final byte[] DATA = "Some data".getBytes(StandardCharsets.UTF_8);
+    private static final SecretKey KEY1 = new SecretKeySpec(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, "HmacSHA256");
+    private static final SecretKey KEY2 = new SecretKeySpec(new byte[]{8, 7, 6, 5, 4, 3, 2, 1}, "HmacSHA256");
+
+    @Test
+    public void instancesAreReused() throws GeneralSecurityException {
+        final CryptoPrimitiveCache cache = new CryptoPrimitiveCache();
+        assertSame(cache.getCipher("AES/CBC/PKCS5Padding"), cache.getCipher("AES/CBC/PKCS5Padding"));
+        assertSame(cache.getSignature("SHA256withRSA"), cache.getSignature("SHA256withRSA"));
+        assertSame(cache.getMessageDigest("SHA-256"), cache.getMessageDigest("SHA-256"));
+        assertSame(cache.getMac(KEY1), cache.getMac(KEY1));
+        assertSame(cache.getMac("HmacSHA256", null), cache.getMac("HmacSHA256", null));
+    }
+
+    @Test
+    public void instancesAreKeyedByProvider() throws GeneralSecurityException {
+        final CryptoPrimitiveCache cache = new CryptoPrimitiveCache();
+        final Cipher defaultCipher = cache.getCipher("AES/CBC/PKCS5Padding");
+        final Provider provider = defaultCipher.getProvider();
+        final Cipher explicitCipher = cache.getCipher("AES/CBC/PKCS5Padding", provider);
+        assertNotSame(defaultCipher, explicitCipher);
+        assertSame(explicitCipher, cache.getCipher("AES/CBC/PKCS5Padding", provider));
+        assertEquals(provider.getName(), explicitCipher.getProvider().getName());
+    }
+
+    @Test
+    public void threadLocalPooling() throws Exception {
+        final boolean original = CryptoPrimitiveCache.isPoolingEnabled();
+        try {
+            CryptoPrimitiveCache.setPoolingEnabled(true);
+            final CryptoPrimitiveCache cache = CryptoPrimitiveCache.get();
+            assertSame(cache, CryptoPrimitiveCache.get());
+
+            final AtomicReference<CryptoPrimitiveCache> other = new AtomicReference<>();
+            final Thread thread = new Thread(() -> other.set(CryptoPrimitiveCache.get()));
+            thread.start();
+            thread.join();
+            assertNotNull(other.get());
+            assertNotSame(cache, other.get());
+
+            CryptoPrimitiveCache.setPoolingEnabled(false);
+            assertNotSame(cache, CryptoPrimitiveCache.get());
+            assertNotSame(CryptoPrimitiveCache.get(), CryptoPrimitiveCache.get());
+        } finally {
+            CryptoPrimitiveCache.setPoolingEnabled(original);
+        }
+    }
+
+    @Test
+    public void threadCacheOnlyKeepsKeyedMacsInBatches() throws GeneralSecurityException {
+        final boolean pooling = CryptoPrimitiveCache.isPoolingEnabled();
+        final boolean keyedMacPooling = CryptoPrimitiveCache.isKeyedMacPoolingEnabled();
+        try {
+            CryptoPrimitiveCache.setPoolingEnabled(true);
+            CryptoPrimitiveCache.setKeyedMacPoolingEnabled(false);
+            CryptoPrimitiveCache.release();
+            final CryptoPrimitiveCache cache = CryptoPrimitiveCache.get();
+            assertNotSame(cache.getMac(KEY1), cache.getMac(KEY1));
+
+            cache.beginBatch();
+            final Mac batchMac = cache.getMac(KEY1);
+            assertArrayEquals(hmac(KEY2), cache.getMac(KEY2).doFinal(DATA));
+            assertSame(batchMac, cache.getMac(KEY1));
+            cache.endBatch();
+            assertNotSame(batchMac, cache.getMac(KEY1));
+
+            CryptoPrimitiveCache.setKeyedMacPoolingEnabled(true);
+            assertSame(cache.getMac(KEY1), cache.getMac(KEY1));
+
+            CryptoPrimitiveCache.release();
+            assertNotSame(cache, CryptoPrimitiveCache.get());
+        } finally {
+            CryptoPrimitiveCache.setPoolingEnabled(pooling);
+            CryptoPrimitiveCache.setKeyedMacPoolingEnabled(keyedMacPooling);
+            CryptoPrimitiveCache.release();
+        }
+    }
+
+    @Test
+    public void macTracksKey() throws GeneralSecurityException {
+        final CryptoPrimitiveCache cache = new CryptoPrimitiveCache();
+        assertArrayEquals(hmac(KEY1), cache.getMac(KEY1).doFinal(DATA));
+        assertArrayEquals(hmac(KEY2), cache.getMac(KEY2).doFinal(DATA));
+        assertArrayEquals(hmac(KEY2), cache.getMac(KEY2).doFinal(DATA));
+        assertArrayEquals(hmac(KEY1), cache.getMac(KEY1).doFinal(DATA));
+    }
+
+    @Test
+    public void macSurvivesManyKeys() throws GeneralSecurityException {
+        final CryptoPrimitiveCache cache = new CryptoPrimitiveCache();
+        for (int x = 0; x < 50; x++) {
+            final SecretKey key = new SecretKeySpec(new byte[]{(byte) x}, "HmacSHA256");
+            assertArrayEquals(hmac(key), cache.getMac(key).doFinal(DATA));
+            assertArrayEquals(hmac(KEY1), cache.getMac(KEY1).doFinal(DATA));
+        }
+    }
+
+    @Test
+    public void macIsResetBetweenUses() throws GeneralSecurityException {
+        final CryptoPrimitiveCache cache = new CryptoPrimitiveCache();
+        // Leave some data behind without finishing the calculation
+        cache.getMac(KEY1).update(DATA);
+        assertArrayEquals(hmac(KEY1), cache.getMac(KEY1).doFinal(DATA));
+    }
+
+    @Test
+    public void digestIsResetBetweenUses() throws NoSuchAlgorithmException {
+        final CryptoPrimitiveCache cache = new CryptoPrimitiveCache();
+        cache.getMessageDigest("SHA-256").update(DATA);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(DATA),
+                cache.getMessageDigest("SHA-256").digest(DATA));
+    }
+
+    @Test(expectedExceptions = NoSuchAlgorithmException.class)
+    public void unknownAlgorithm() throws GeneralSecurityException {
+        new CryptoPrimitiveCache().getCipher("NotACipher/CBC/NoPadding");
+    }
+
+    private static byte[] hmac(final SecretKey key) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance(key.getAlgorithm());
+        mac.init(key);
+        return mac.doFinal(DATA);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except
+ * in compliance with the License. A copy of the License is located at
+ *
+ * http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.testng.AssertJUnit.assertArrayEquals;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+public class DigestCacheTest {
+    @Test
+    public void stringDigests() throws NoSuchAlgorithmException {
+        final DigestCache cache = new DigestCache("SHA-256", 10);
+        final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        final byte[] first = cache.digest("attribute", sha256);
+        assertArrayEquals(sha256("attribute".getBytes(StandardCharsets.UTF_8)), first);
+        assertSame(first, cache.digest("attribute", sha256));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void byteDigestsAreKeyedByContent() throws NoSuchAlgorithmException {
+        final DigestCache cache = new DigestCache("SHA-256", 10);
+        final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        final byte[] value = "TABLE>Table<TABLE".getBytes(StandardCharsets.UTF_8);
+        final byte[] first = cache.digest(value, sha256);
+        assertArrayEquals(sha256(value), first);
+        assertSame(first, cache.digest(value.clone(), sha256));
+
+        // Changing the caller's array must not affect the cached entry
+        value[0] = 'X';
+        assertArrayEquals(sha256(value), cache.digest(value, sha256));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void digestIsLeftReset() throws NoSuchAlgorithmException {
+        final DigestCache cache = new DigestCache("SHA-256", 10);
+        final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        cache.digest("attribute", sha256);
+        assertArrayEquals(sha256(new byte[0]), sha256.digest());
+    }
+
+    @Test
+    public void bounded() throws NoSuchAlgorithmException {
+        final DigestCache cache = new DigestCache("SHA-256", 3);
+        final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        for (int x = 0; x < 10; x++) {
+            final String value = Integer.toString(x);
+            assertArrayEquals(sha256(value.getBytes(StandardCharsets.UTF_8)), cache.digest(value, sha256));
+        }
+        assertEquals(3, cache.size());
+        // Recent values are kept and the earliest ones evicted
+        assertSame(cache.digest("9", sha256), cache.digest("9", sha256));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void workingSetSurvivesOneOffValues() throws NoSuchAlgorithmException {
+        final DigestCache cache = new DigestCache("SHA-256", 10);
+        final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        final byte[] name = cache.digest("name", sha256);
+        assertSame(name, cache.digest("name", sha256));
+        for (int x = 0; x < 100; x++) {
+            cache.digest("oneOff" + x, sha256);
+        }
+        assertSame(name, cache.digest("name", sha256));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void wrongAlgorithm() throws NoSuchAlgorithmException {
+        new DigestCache("SHA-256", 10).digest("attribute", MessageDigest.getInstance("SHA-384"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void badSize() {
+        new DigestCache("SHA-256", 0);
+    }
+
+    private static byte[] sha256(final byte[] value) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(value);
+    }
+}